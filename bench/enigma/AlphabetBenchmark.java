@@ -0,0 +1,75 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of Alphabet lookups.  Each operation is one lookup.
+ *  @author Mridang Sheth
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlphabetBenchmark {
+
+    /** Number of lookups per benchmark invocation. */
+    static final int BATCH = 1024;
+
+    /** Number of symbols in the alphabet. */
+    @Param({"26", "64", "1000"})
+    public int alphabetSize;
+
+    /** Set up the alphabet and the characters to look up. */
+    @Setup
+    public void setUp() {
+        String chars = BenchmarkMachines.alphabetChars(alphabetSize);
+        _alphabet = new Alphabet(chars);
+        int[] indices = BenchmarkMachines.indices(alphabetSize, BATCH, 1);
+        _probes = new char[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            _probes[i] = chars.charAt(indices[i]);
+        }
+    }
+
+    /** Alphabet.toInt. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int toInt() {
+        int sum = 0;
+        for (char c : _probes) {
+            sum += _alphabet.toInt(c);
+        }
+        return sum;
+    }
+
+    /** Alphabet.toChar. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int toChar() {
+        int sum = 0;
+        for (int i = 0; i < BATCH; i++) {
+            sum += _alphabet.toChar(i % alphabetSize);
+        }
+        return sum;
+    }
+
+    /** The alphabet measured. */
+    private Alphabet _alphabet;
+
+    /** Characters to look up. */
+    private char[] _probes;
+}
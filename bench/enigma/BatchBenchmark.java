@@ -0,0 +1,126 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of many sessions with the same rotor order, each at its
+ *  own settings, converting one character each per step: one
+ *  CompiledMachine per session, against a BatchedMachine with its scalar
+ *  and its vector kernel.  All report time per step, in which every
+ *  session converts one character.
+ *  @author Mridang Sheth
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class BatchBenchmark {
+
+    /** Number of steps per benchmark invocation. */
+    static final int STEPS = 64;
+
+    /** Number of symbols in the alphabet. */
+    @Param({"26", "256"})
+    public int alphabetSize;
+
+    /** Number of pawls, hence moving rotors. */
+    @Param({"3", "4"})
+    public int pawls;
+
+    /** Number of sessions. */
+    @Param({"16", "1024"})
+    public int sessions;
+
+    /** Set up the sessions, at random settings, and the inputs. */
+    @Setup
+    public void setUp() {
+        int numRotors = pawls + 2;
+        Machine machine = BenchmarkMachines.machine(alphabetSize, numRotors,
+                                                    pawls, 1);
+        String chars = BenchmarkMachines.alphabetChars(alphabetSize);
+        Alphabet alpha = machine.catalog().alphabet();
+        Rotor[] rotors = machine.rotors();
+        _scalar = new BatchedMachine(alpha, rotors, sessions, false);
+        _vector = new BatchedMachine(alpha, rotors, sessions, true);
+        _compiled = new CompiledMachine[sessions];
+        Random rand = new Random(2);
+        for (int s = 0; s < sessions; s++) {
+            StringBuilder setting = new StringBuilder();
+            for (int i = 1; i < numRotors; i++) {
+                setting.append(chars.charAt(rand.nextInt(alphabetSize)));
+            }
+            machine.setRotors(setting.toString());
+            machine.setPlugboard(new Permutation(
+                    BenchmarkMachines.plugboard(chars, alphabetSize / 4,
+                                                rand), alpha));
+            _scalar.configure(s, machine);
+            _vector.configure(s, machine);
+            _compiled[s] = machine.compile();
+        }
+        _in = BenchmarkMachines.indices(alphabetSize, sessions, 3);
+        _out = new int[sessions];
+    }
+
+    /** CompiledMachine.convert(int) on each session in turn. */
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public int compiled() {
+        int sum = 0;
+        for (int i = 0; i < STEPS; i++) {
+            for (int s = 0; s < sessions; s++) {
+                sum += _compiled[s].convert(_in[s]);
+            }
+        }
+        return sum;
+    }
+
+    /** BatchedMachine.convert with the scalar kernel. */
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public int[] batchScalar() {
+        for (int i = 0; i < STEPS; i++) {
+            _scalar.convert(_in, _out);
+        }
+        return _out;
+    }
+
+    /** BatchedMachine.convert with the vector kernel, if available. */
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public int[] batchVector() {
+        for (int i = 0; i < STEPS; i++) {
+            _vector.convert(_in, _out);
+        }
+        return _out;
+    }
+
+    /** One compiled engine per session. */
+    private CompiledMachine[] _compiled;
+
+    /** The sessions, converted by the scalar kernel. */
+    private BatchedMachine _scalar;
+
+    /** The sessions, converted by the vector kernel. */
+    private BatchedMachine _vector;
+
+    /** One input character per session. */
+    private int[] _in;
+
+    /** One output character per session. */
+    private int[] _out;
+}
@@ -0,0 +1,182 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/** Randomly wired alphabets, permutations and machines of any size, used
+ *  as the subjects of the benchmarks.  All results are determined by the
+ *  sizes and the seed.
+ *  @author Mridang Sheth
+ */
+final class BenchmarkMachines {
+
+    /** Not instantiable. */
+    private BenchmarkMachines() {
+    }
+
+    /** Return the characters of an alphabet of SIZE symbols: the
+     *  upper-case letters if SIZE is at most 26, and otherwise
+     *  consecutive characters from '!' on, skipping those not allowed
+     *  in an alphabet. */
+    static String alphabetChars(int size) {
+        if (size <= 26) {
+            return "ABCDEFGHIJKLMNOPQRSTUVWXYZ".substring(0, size);
+        }
+        StringBuilder result = new StringBuilder();
+        for (char c = '!'; result.length() < size; c++) {
+            if ("()*".indexOf(c) == -1 && !Character.isWhitespace(c)) {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return a random permutation of the characters CHARS in cycle
+     *  notation, using RAND.  If DERANGED, it has no fixed points. */
+    static String cycles(String chars, Random rand, boolean deranged) {
+        List<Character> order = new ArrayList<>();
+        for (char c : chars.toCharArray()) {
+            order.add(c);
+        }
+        Collections.shuffle(order, rand);
+        StringBuilder result = new StringBuilder();
+        int i = 0;
+        while (i < order.size()) {
+            int len = 1 + rand.nextInt(order.size() - i);
+            if (deranged) {
+                len = order.size() - i;
+            }
+            result.append('(');
+            for (int j = 0; j < len; j++) {
+                result.append(order.get(i + j));
+            }
+            result.append(") ");
+            i += len;
+        }
+        return result.toString();
+    }
+
+    /** Return plugboard cycles swapping PAIRS random pairs of CHARS. */
+    static String plugboard(String chars, int pairs, Random rand) {
+        List<Character> order = new ArrayList<>();
+        for (char c : chars.toCharArray()) {
+            order.add(c);
+        }
+        Collections.shuffle(order, rand);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < pairs && 2 * i + 1 < order.size(); i++) {
+            result.append('(').append(order.get(2 * i))
+                .append(order.get(2 * i + 1)).append(") ");
+        }
+        return result.toString().trim();
+    }
+
+    /** Return the text of a configuration file describing a machine
+     *  over an alphabet of SIZE symbols with NUMROTORS slots and PAWLS
+     *  pawls, offering one reflector "R", the non-moving rotors "F1",
+     *  "F2", ... and the moving rotors "M1", "M2", ..., each with a
+     *  single notch.  Wirings are drawn from a generator seeded with
+     *  SEED. */
+    static String config(int size, int numRotors, int pawls, long seed) {
+        Random rand = new Random(seed);
+        String chars = alphabetChars(size);
+        StringBuilder result = new StringBuilder();
+        result.append(chars).append('\n');
+        result.append(numRotors).append(' ').append(pawls).append('\n');
+        result.append("R R ").append(cycles(chars, rand, true))
+            .append('\n');
+        for (int i = 1; i < numRotors - pawls; i++) {
+            result.append('F').append(i).append(" N ")
+                .append(cycles(chars, rand, false)).append('\n');
+        }
+        for (int i = 1; i <= pawls; i++) {
+            result.append('M').append(i).append(" M")
+                .append(chars.charAt(rand.nextInt(size))).append(' ')
+                .append(cycles(chars, rand, false)).append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Return a settings line (without the leading '*') for the
+     *  configuration produced by config(SIZE, NUMROTORS, PAWLS, ...),
+     *  with random positions and a plugboard, drawn using SEED. */
+    static String settings(int size, int numRotors, int pawls, long seed) {
+        Random rand = new Random(seed);
+        String chars = alphabetChars(size);
+        StringBuilder result = new StringBuilder("R");
+        for (int i = 1; i < numRotors - pawls; i++) {
+            result.append(" F").append(i);
+        }
+        for (int i = 1; i <= pawls; i++) {
+            result.append(" M").append(i);
+        }
+        result.append(' ');
+        for (int i = 1; i < numRotors; i++) {
+            result.append(chars.charAt(rand.nextInt(size)));
+        }
+        return result.append(' ')
+            .append(plugboard(chars, size / 4, rand)).toString();
+    }
+
+    /** Return a machine as described by config(SIZE, NUMROTORS, PAWLS,
+     *  SEED), with all its rotors inserted, at random settings and with
+     *  a random plugboard. */
+    static Machine machine(int size, int numRotors, int pawls, long seed) {
+        Random rand = new Random(seed);
+        Alphabet alpha = new Alphabet(alphabetChars(size));
+        String chars = alphabetChars(size);
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        String[] names = new String[numRotors];
+        names[0] = "R";
+        rotors.add(new Reflector("R",
+                new Permutation(cycles(chars, rand, true), alpha)));
+        for (int i = 1; i < numRotors; i++) {
+            Permutation perm = new Permutation(cycles(chars, rand, false),
+                                               alpha);
+            if (i < numRotors - pawls) {
+                names[i] = "F" + i;
+                rotors.add(new FixedRotor(names[i], perm));
+            } else {
+                names[i] = "M" + i;
+                rotors.add(new MovingRotor(names[i], perm,
+                        String.valueOf(chars.charAt(rand.nextInt(size)))));
+            }
+        }
+        Machine result = new Machine(alpha, numRotors, pawls, rotors);
+        result.insertRotors(names);
+        StringBuilder setting = new StringBuilder();
+        for (int i = 1; i < numRotors; i++) {
+            setting.append(chars.charAt(rand.nextInt(size)));
+        }
+        result.setRotors(setting.toString());
+        result.setPlugboard(new Permutation(
+                plugboard(chars, size / 4, rand), alpha));
+        return result;
+    }
+
+    /** Return a message of LENGTH characters of the alphabet of SIZE
+     *  symbols, in words of five separated by blanks, drawn using
+     *  SEED. */
+    static String message(int size, int length, long seed) {
+        Random rand = new Random(seed);
+        String chars = alphabetChars(size);
+        char[] result = new char[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = i % 6 == 5 ? ' ' : chars.charAt(rand.nextInt(size));
+        }
+        return new String(result);
+    }
+
+    /** Return an array of LENGTH random indices below SIZE, drawn using
+     *  SEED. */
+    static int[] indices(int size, int length, long seed) {
+        Random rand = new Random(seed);
+        int[] result = new int[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = rand.nextInt(size);
+        }
+        return result;
+    }
+}
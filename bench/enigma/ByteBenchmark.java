@@ -0,0 +1,91 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of converting binary data with a machine of 256 symbols:
+ *  a ByteMachine over a heap array and over a direct buffer, against a
+ *  CompiledMachine converting a byte at a time.  All report time per
+ *  byte.
+ *  @author Mridang Sheth
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ByteBenchmark {
+
+    /** Number of bytes per benchmark invocation. */
+    static final int BYTES = 1 << 20;
+
+    /** Number of pawls, hence moving rotors. */
+    @Param({"1", "3", "4"})
+    public int pawls;
+
+    /** Set up the machines and the data. */
+    @Setup
+    public void setUp() {
+        Machine machine = BenchmarkMachines.machine(ByteMachine.SYMBOLS,
+                                                    pawls + 2, pawls, 1);
+        _bytes = new ByteMachine(machine);
+        _compiled = machine.compile();
+        _data = new byte[BYTES];
+        new Random(3).nextBytes(_data);
+        _direct = ByteBuffer.allocateDirect(BYTES);
+        _direct.put(_data).clear();
+    }
+
+    /** ByteMachine.convert over a heap array. */
+    @Benchmark
+    @OperationsPerInvocation(BYTES)
+    public byte[] heap() {
+        _bytes.convert(_data, 0, _data.length);
+        return _data;
+    }
+
+    /** ByteMachine.convert over a direct buffer. */
+    @Benchmark
+    @OperationsPerInvocation(BYTES)
+    public ByteBuffer direct() {
+        _bytes.convert(_direct);
+        return _direct;
+    }
+
+    /** CompiledMachine.convert(int) on each byte. */
+    @Benchmark
+    @OperationsPerInvocation(BYTES)
+    public byte[] compiled() {
+        for (int i = 0; i < _data.length; i++) {
+            _data[i] = (byte) _compiled.convert(_data[i] & 0xff);
+        }
+        return _data;
+    }
+
+    /** The machine under test, as a byte engine. */
+    private ByteMachine _bytes;
+
+    /** The machine under test, compiled. */
+    private CompiledMachine _compiled;
+
+    /** The data, on the heap. */
+    private byte[] _data;
+
+    /** The data, in a direct buffer. */
+    private ByteBuffer _direct;
+}
@@ -0,0 +1,174 @@
+package enigma;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static enigma.EnigmaException.*;
+
+/** A load generator for EnigmaServer.  Each of a number of client threads
+ *  repeatedly opens a session, sends a settings line and then message
+ *  lines one at a time, waiting for each reply, and closes the session.
+ *  At the end it reports sessions per second and percentiles of the
+ *  session times and of the round trip times of single lines.
+ *
+ *  Usage: java enigma.LoadGenerator ADDRESS [SESSIONS [CLIENTS [LINES
+ *  [LENGTH]]]], where ADDRESS is a port or socket path as for
+ *  "Main --serve", SESSIONS is the total number of sessions, CLIENTS the
+ *  number that run at once, and each session sends LINES lines of
+ *  LENGTH letters.  The server must be using a configuration with the
+ *  naval rotors and alphabet of testing/correct/default.conf.
+ *  @author Mridang Sheth
+ */
+public final class LoadGenerator {
+
+    /** Run the load described by ARGS (see the class comment). */
+    public static void main(String... args) throws Exception {
+        if (args.length < 1 || args.length > 5) {
+            System.err.println("Usage: java enigma.LoadGenerator ADDRESS "
+                               + "[SESSIONS [CLIENTS [LINES [LENGTH]]]]");
+            System.exit(1);
+        }
+        LoadGenerator load =
+            new LoadGenerator(args[0], intArg(args, 1, 10000),
+                              intArg(args, 2, 1000), intArg(args, 3, 10),
+                              intArg(args, 4, 80));
+        load.run();
+        load.report();
+    }
+
+    /** Return ARGS[K] as an integer, or DEFAULTVALUE if absent. */
+    private static int intArg(String[] args, int k, int defaultValue) {
+        return k < args.length ? Integer.parseInt(args[k]) : defaultValue;
+    }
+
+    /** A generator of SESSIONS sessions at ADDRESS, CLIENTS at a time,
+     *  each of LINES message lines of LENGTH letters. */
+    LoadGenerator(String address, int sessions, int clients, int lines,
+                  int length) {
+        _address = address;
+        _sessions = sessions;
+        _clients = clients;
+        _lines = lines;
+        _length = length;
+        _sessionTimes = new long[sessions];
+        _lineTimes = new long[sessions * lines];
+    }
+
+    /** Run all my sessions. */
+    void run() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(_clients);
+        AtomicInteger next = new AtomicInteger();
+        Future<?>[] clients = new Future<?>[_clients];
+        long start = System.nanoTime();
+        for (int i = 0; i < _clients; i++) {
+            long seed = i;
+            clients[i] = pool.submit(() -> {
+                Random random = new Random(seed);
+                for (int s = next.getAndIncrement(); s < _sessions;
+                     s = next.getAndIncrement()) {
+                    session(s, random);
+                }
+                return null;
+            });
+        }
+        for (Future<?> client : clients) {
+            client.get();
+        }
+        _elapsed = System.nanoTime() - start;
+        pool.shutdown();
+    }
+
+    /** Print the throughput and latencies measured by run(). */
+    void report() {
+        Arrays.sort(_sessionTimes);
+        Arrays.sort(_lineTimes);
+        System.out.printf("%d sessions of %d lines in %.3f s:"
+                          + " %.0f sessions/s%n",
+                          _sessions, _lines, _elapsed / 1e9,
+                          _sessions / (_elapsed / 1e9));
+        System.out.printf("session ms: p50 %.3f  p99 %.3f  max %.3f%n",
+                          percentile(_sessionTimes, 50) / 1e6,
+                          percentile(_sessionTimes, 99) / 1e6,
+                          percentile(_sessionTimes, 100) / 1e6);
+        System.out.printf("line ms:    p50 %.3f  p99 %.3f  max %.3f%n",
+                          percentile(_lineTimes, 50) / 1e6,
+                          percentile(_lineTimes, 99) / 1e6,
+                          percentile(_lineTimes, 100) / 1e6);
+    }
+
+    /** Run session #S, with messages chosen by RANDOM. */
+    private void session(int s, Random random) throws IOException {
+        long start = System.nanoTime();
+        try (SocketChannel channel =
+                 SocketChannel.open(EnigmaServer.address(_address))) {
+            if (channel.getLocalAddress() instanceof InetSocketAddress) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            LineReader in = new LineReader(channel, EnigmaServer.CHARSET,
+                                           EnigmaServer.MAX_LINE, 1 << 12);
+            send(channel, SETTINGS);
+            char[] message = new char[_length];
+            for (int i = 0; i < _lines; i++) {
+                for (int j = 0; j < _length; j++) {
+                    message[j] = (char) ('A' + random.nextInt(26));
+                }
+                long sent = System.nanoTime();
+                send(channel, new String(message));
+                String reply = in.readLine();
+                if (reply == null || reply.startsWith("Error")) {
+                    throw error("session %d failed: %s", s, reply);
+                }
+                _lineTimes[s * _lines + i] = System.nanoTime() - sent;
+            }
+        }
+        _sessionTimes[s] = System.nanoTime() - start;
+    }
+
+    /** Send LINE and a newline on CHANNEL. */
+    private static void send(SocketChannel channel, String line)
+        throws IOException {
+        ByteBuffer bytes =
+            ByteBuffer.wrap((line + "\n").getBytes(EnigmaServer.CHARSET));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /** Return the P-th percentile of the sorted array TIMES. */
+    private static long percentile(long[] times, int p) {
+        if (times.length == 0) {
+            return 0;
+        }
+        int k = (int) Math.ceil(times.length * (p / 100.0)) - 1;
+        return times[Math.max(0, k)];
+    }
+
+    /** Settings line sent at the start of each session. */
+    private static final String SETTINGS =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Address of the server. */
+    private final String _address;
+
+    /** Total number of sessions, number at once, and lines and letters
+     *  per session. */
+    private final int _sessions, _clients, _lines, _length;
+
+    /** Duration of each session, in nanoseconds. */
+    private final long[] _sessionTimes;
+
+    /** Round trip time of each line, in nanoseconds. */
+    private final long[] _lineTimes;
+
+    /** Duration of the whole run, in nanoseconds. */
+    private long _elapsed;
+}
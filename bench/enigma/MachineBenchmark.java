@@ -0,0 +1,122 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of whole-machine conversion.  The single-character
+ *  benchmarks report time per character; the message benchmarks report
+ *  time per message of messageLength characters.
+ *  @author Mridang Sheth
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MachineBenchmark {
+
+    /** Number of characters per single-character benchmark invocation. */
+    static final int BATCH = 1024;
+
+    /** Number of symbols in the alphabet. */
+    @Param({"26", "64", "256"})
+    public int alphabetSize;
+
+    /** Number of rotor slots, including the reflector. */
+    @Param({"5", "8"})
+    public int numRotors;
+
+    /** Number of pawls, hence moving rotors. */
+    @Param({"1", "3", "4"})
+    public int pawls;
+
+    /** Length of the messages converted by the message benchmarks. */
+    @Param({"100", "10000", "1000000"})
+    public int messageLength;
+
+    /** Set up the machine, its compiled engine and the inputs. */
+    @Setup
+    public void setUp() {
+        _machine = BenchmarkMachines.machine(alphabetSize, numRotors,
+                                             pawls, 1);
+        _compiled = _machine.compile();
+        _probes = BenchmarkMachines.indices(alphabetSize, BATCH, 2);
+        _message = BenchmarkMachines.message(alphabetSize, messageLength, 3);
+        _text = _message.toCharArray();
+    }
+
+    /** Machine.convert(int). */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int convertInt() {
+        int sum = 0;
+        for (int c : _probes) {
+            sum += _machine.convert(c);
+        }
+        return sum;
+    }
+
+    /** CompiledMachine.convert(int). */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int compiledConvertInt() {
+        int sum = 0;
+        for (int c : _probes) {
+            sum += _compiled.convert(c);
+        }
+        return sum;
+    }
+
+    /** Machine.convert(String). */
+    @Benchmark
+    public String convertString() {
+        return _machine.convert(_message);
+    }
+
+    /** Machine.convertParallel(String) on the common pool. */
+    @Benchmark
+    public String convertParallel() {
+        return _machine.convertParallel(_message);
+    }
+
+    /** CompiledMachine.convert(char[], int, int), in place. */
+    @Benchmark
+    public char[] compiledConvertText() {
+        _compiled.convert(_text, 0, _text.length);
+        return _text;
+    }
+
+    /** Machine.stateAt for an offset far into the message stream. */
+    @Benchmark
+    public String stateAt() {
+        return _machine.stateAt(1L << 40);
+    }
+
+    /** The machine measured. */
+    private Machine _machine;
+
+    /** Its compiled engine. */
+    private CompiledMachine _compiled;
+
+    /** Characters for the single-character benchmarks. */
+    private int[] _probes;
+
+    /** Message for the message benchmarks. */
+    private String _message;
+
+    /** The message as an array, converted in place repeatedly. */
+    private char[] _text;
+}
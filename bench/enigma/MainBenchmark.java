@@ -0,0 +1,109 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** End-to-end benchmark of Main: reading the configuration, parsing
+ *  settings lines, converting and writing grouped output, file to file.
+ *  Each operation processes one input file of `messages` messages, each a
+ *  settings line followed by a message line of messageLength characters,
+ *  either one stage after another or in a Pipeline.
+ *  @author Mridang Sheth
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MainBenchmark {
+
+    /** Number of symbols in the alphabet. */
+    @Param({"26", "64"})
+    public int alphabetSize;
+
+    /** Number of rotor slots, including the reflector. */
+    @Param({"5"})
+    public int numRotors;
+
+    /** Number of pawls, hence moving rotors. */
+    @Param({"3"})
+    public int pawls;
+
+    /** Length of each message. */
+    @Param({"100", "100000"})
+    public int messageLength;
+
+    /** Number of messages in the input. */
+    @Param({"100"})
+    public int messages;
+
+    /** Write the configuration and input files. */
+    @Setup
+    public void setUp() throws IOException {
+        _dir = Files.createTempDirectory("enigma-bench");
+        _config = _dir.resolve("bench.conf");
+        _input = _dir.resolve("bench.in");
+        _output = _dir.resolve("bench.out");
+        Files.write(_config, BenchmarkMachines.config(alphabetSize,
+                numRotors, pawls, 1).getBytes(StandardCharsets.UTF_8));
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < messages; i++) {
+            input.append("* ")
+                .append(BenchmarkMachines.settings(alphabetSize, numRotors,
+                                                   pawls, i % 4))
+                .append('\n')
+                .append(BenchmarkMachines.message(alphabetSize,
+                                                  messageLength, i))
+                .append('\n');
+        }
+        Files.write(_input,
+                    input.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Remove the files. */
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(_config);
+        Files.deleteIfExists(_input);
+        Files.deleteIfExists(_output);
+        Files.deleteIfExists(_dir);
+    }
+
+    /** Main, file to file. */
+    @Benchmark
+    public void process() {
+        new Main(new String[] { _config.toString(), _input.toString(),
+                                _output.toString() }).process();
+    }
+
+    /** Main, file to file, with reading, converting and writing
+     *  pipelined. */
+    @Benchmark
+    public void pipelined() {
+        new Main(new String[] { _config.toString(), _input.toString(),
+                                _output.toString() }, true).process();
+    }
+
+    /** Directory holding the files. */
+    private Path _dir;
+
+    /** Configuration, input and output files. */
+    private Path _config, _input, _output;
+}
@@ -0,0 +1,77 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The cost of MachineMetrics on Machine's conversion paths: each
+ *  benchmark runs with metrics off and with them on, as selected by the
+ *  metrics parameter.  The single-character benchmark reports time per
+ *  character; the message benchmark, time per message.
+ *  @author Mridang Sheth
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    /** Number of characters per single-character benchmark invocation. */
+    static final int BATCH = 1024;
+
+    /** Whether metrics are recorded. */
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    /** Length of the messages converted by the message benchmark. */
+    @Param({"100", "10000"})
+    public int messageLength;
+
+    /** Set up the machine, its metrics and the inputs. */
+    @Setup
+    public void setUp() {
+        _machine = BenchmarkMachines.machine(26, 5, 3, 1);
+        _machine.setMetrics(metrics ? new MachineMetrics() : null);
+        _probes = BenchmarkMachines.indices(26, BATCH, 2);
+        _message = BenchmarkMachines.message(26, messageLength, 3);
+    }
+
+    /** Machine.convert(int). */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int convertInt() {
+        int sum = 0;
+        for (int c : _probes) {
+            sum += _machine.convert(c);
+        }
+        return sum;
+    }
+
+    /** Machine.convert(String). */
+    @Benchmark
+    public String convertString() {
+        return _machine.convert(_message);
+    }
+
+    /** The machine measured. */
+    private Machine _machine;
+
+    /** Characters for the single-character benchmark. */
+    private int[] _probes;
+
+    /** Message for the message benchmark. */
+    private String _message;
+}
@@ -0,0 +1,92 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of Permutation.  Each operation is one application.
+ *  @author Mridang Sheth
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermutationBenchmark {
+
+    /** Number of applications per benchmark invocation. */
+    static final int BATCH = 1024;
+
+    /** Number of symbols in the alphabet. */
+    @Param({"26", "64", "1000"})
+    public int alphabetSize;
+
+    /** Set up a random permutation and the values to apply it to. */
+    @Setup
+    public void setUp() {
+        String chars = BenchmarkMachines.alphabetChars(alphabetSize);
+        _perm = new Permutation(
+            BenchmarkMachines.cycles(chars, new Random(1), false),
+            new Alphabet(chars));
+        _probes = BenchmarkMachines.indices(alphabetSize, BATCH, 2);
+        _charProbes = new char[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            _charProbes[i] = chars.charAt(_probes[i]);
+        }
+    }
+
+    /** Permutation.permute(int). */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int permuteInt() {
+        int sum = 0;
+        for (int p : _probes) {
+            sum += _perm.permute(p);
+        }
+        return sum;
+    }
+
+    /** Permutation.invert(int). */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int invertInt() {
+        int sum = 0;
+        for (int p : _probes) {
+            sum += _perm.invert(p);
+        }
+        return sum;
+    }
+
+    /** Permutation.permute(char). */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int permuteChar() {
+        int sum = 0;
+        for (char c : _charProbes) {
+            sum += _perm.permute(c);
+        }
+        return sum;
+    }
+
+    /** The permutation measured. */
+    private Permutation _perm;
+
+    /** Indices to apply it to. */
+    private int[] _probes;
+
+    /** Characters to apply it to. */
+    private char[] _charProbes;
+}
@@ -0,0 +1,88 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of Rotor conversion.  Each operation converts one
+ *  contact; the shift (setting less Ringstellung) advances once per
+ *  batch so that every row of the rotor's tables is exercised.
+ *  @author Mridang Sheth
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RotorBenchmark {
+
+    /** Number of conversions per benchmark invocation. */
+    static final int BATCH = 1024;
+
+    /** Number of symbols in the alphabet. */
+    @Param({"26", "64", "1000"})
+    public int alphabetSize;
+
+    /** Set up a random moving rotor and the contacts to convert. */
+    @Setup
+    public void setUp() {
+        String chars = BenchmarkMachines.alphabetChars(alphabetSize);
+        Permutation perm = new Permutation(
+            BenchmarkMachines.cycles(chars, new Random(1), false),
+            new Alphabet(chars));
+        _rotor = new MovingRotor("M", perm, chars.substring(0, 1));
+        _probes = BenchmarkMachines.indices(alphabetSize, BATCH, 2);
+    }
+
+    /** Rotor.convertForward. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int convertForward() {
+        advance();
+        int sum = 0;
+        for (int p : _probes) {
+            sum += _rotor.convertForward(_shift, p);
+        }
+        return sum;
+    }
+
+    /** Rotor.convertBackward. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int convertBackward() {
+        advance();
+        int sum = 0;
+        for (int p : _probes) {
+            sum += _rotor.convertBackward(_shift, p);
+        }
+        return sum;
+    }
+
+    /** Advance _shift one position, as a moving rotor's key press
+     *  would. */
+    private void advance() {
+        _shift = _shift + 1 == alphabetSize ? 0 : _shift + 1;
+    }
+
+    /** The rotor measured. */
+    private Rotor _rotor;
+
+    /** The rotor's current setting less its Ringstellung. */
+    private int _shift;
+
+    /** Contacts to convert. */
+    private int[] _probes;
+}
@@ -0,0 +1,173 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import static enigma.TestUtils.*;
+
+/** Allocation budgets for the conversion paths: each test runs an
+ *  operation until it is in a steady state and then checks the number of
+ *  bytes it allocates per call, as counted by the JVM for the current
+ *  thread.  On JVMs that do not count allocations, the tests check
+ *  nothing.
+ *  @author Mridang Sheth
+ */
+public class AllocationTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the average number of bytes allocated by each of REPS calls
+     *  of OP, after WARMUP calls, or 0 if allocations are not counted. */
+    static double bytesPerCall(Runnable op, int reps) {
+        java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return 0;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        for (int i = 0; i < WARMUP; i += 1) {
+            op.run();
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < reps; i += 1) {
+            op.run();
+        }
+        long after = threads.getCurrentThreadAllocatedBytes();
+        return Math.max(0, after - before - SLACK) / (double) reps;
+    }
+
+    /** Assert that OP, named NAME, allocates at most BUDGET bytes per call
+     *  on average. */
+    static void checkBudget(String name, double budget, Runnable op) {
+        double used = bytesPerCall(op, REPS);
+        assertTrue(msg(name, "%.2f bytes per call, budget %.2f", used,
+                       budget),
+                   used <= budget);
+    }
+
+    /** Number of calls before measuring. */
+    static final int WARMUP = 20000;
+
+    /** Number of calls measured. */
+    static final int REPS = 50000;
+
+    /** Bytes allowed in total for allocations not made by the operation
+     *  measured, such as by the counting itself. */
+    static final long SLACK = 1024;
+
+    /** A naval machine in a fixed configuration. */
+    static Machine machine() {
+        return MachineTest.navalMachine(MachineTest.ORDER, "AXLE", "BCDE",
+                                        "(HQ) (EX) (IP)");
+    }
+
+    /** A channel that discards what is written to it. */
+    static final WritableByteChannel DISCARD = new WritableByteChannel() {
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void machineConvertIntAllocatesNothing() {
+        Machine m = machine();
+        int[] c = new int[1];
+        checkBudget("Machine.convert(int)", 0,
+                    () -> c[0] = m.convert((c[0] + 7) % 26));
+    }
+
+    @Test
+    public void machineConvertIntWithMetricsAllocatesNothing() {
+        Machine m = machine();
+        m.setMetrics(new MachineMetrics());
+        int[] c = new int[1];
+        checkBudget("Machine.convert(int) with metrics", 0,
+                    () -> c[0] = m.convert((c[0] + 7) % 26));
+    }
+
+    @Test
+    public void machineConvertStringAllocatesOnlyResult() {
+        Machine m = machine();
+        String msg = MachineTest.HIAWATHA;
+        checkBudget("Machine.convert(String)", msg.length() + STRING_BYTES,
+                    () -> m.convert(msg));
+    }
+
+    @Test
+    public void compiledConvertAllocatesNothing() {
+        CompiledMachine m = machine().compile();
+        int[] c = new int[1];
+        checkBudget("CompiledMachine.convert(int)", 0,
+                    () -> c[0] = m.convert((c[0] + 7) % 26));
+        char[] text = MachineTest.HIAWATHA.toCharArray();
+        checkBudget("CompiledMachine.convert(char[], int, int)", 0,
+                    () -> m.convert(text, 0, text.length));
+    }
+
+    @Test
+    public void sessionConvertAllocatesNothing() {
+        RotorCatalog catalog =
+            new RotorCatalog(UPPER, 5, 3, MachineTest.navalRotors());
+        Settings[] config =
+            Main.parseSettings(catalog, "B Beta III IV I AXLE BCDE (HQ)");
+        char[] text = MachineTest.HIAWATHA.toCharArray();
+        Session plain = catalog.newSession();
+        plain.setUp(config);
+        checkBudget("Session.convert(char[], int, int)", 0,
+                    () -> plain.convert(text, 0, text.length));
+        Session cached = catalog.newSession(new KeystreamCache(1 << 20));
+        cached.setUp(config);
+        checkBudget("Session.convert with keystream tables", 0,
+                    () -> cached.convert(text, 0, text.length));
+    }
+
+    @Test
+    public void batchedConvertAllocatesNothing() {
+        Machine m = machine();
+        BatchedMachine b = new BatchedMachine(UPPER, m.rotors(), 32, false);
+        int[] in = new int[32];
+        int[] out = new int[32];
+        checkBudget("BatchedMachine.convert", 0, () -> b.convert(in, out));
+    }
+
+    @Test
+    public void groupingWriterAllocatesNothing() {
+        GroupingWriter out = new GroupingWriter(DISCARD,
+                                                StandardCharsets.UTF_8);
+        String line = MachineTest.HIAWATHA;
+        checkBudget("GroupingWriter.writeLine", 0, () -> out.writeLine(line));
+    }
+
+    /** Bytes allowed for a String's header and its array's header. */
+    static final int STRING_BYTES = 64;
+}
@@ -1,26 +1,38 @@
 package enigma;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
+
 /** An alphabet of encodable characters.  Provides a mapping from characters
- *  to and from indices into the alphabet.
+ *  to and from indices into the alphabet.  Characters are Unicode code
+ *  points, so an alphabet may hold characters outside the Basic
+ *  Multilingual Plane, and thousands of them; the char-based methods
+ *  serve alphabets of BMP characters only.  The character-to-index
+ *  direction is served by a lookup table built once at construction, in
+ *  time and space linear in the size: a dense array when the characters
+ *  span a small range, and otherwise a compact open-addressing hash
+ *  table.
  *  @author Mridang Sheth
  */
 class Alphabet {
 
-    /** A new alphabet containing CHARS.  Character number #k has index
-     *  K (numbering from 0). No character may be duplicated. */
+    /** A new alphabet containing CHARS.  Character number #k (counting
+     *  code points) has index K (numbering from 0). No character may be
+     *  duplicated. */
     Alphabet(String chars) {
-        chars = chars.trim();
-        Pattern pattern = Pattern.compile("[\\s\\*\\(\\)]");
-        Matcher matcher = pattern.matcher(chars);
-        boolean found = matcher.find();
-        if (areCharactersUnique(chars, "") && !found) {
-            this._chars = chars;
-        } else {
-            throw new EnigmaException("Bad input for Alphabet, repeated"
-                    + "characters or invalid characters found");
+        _chars = chars.trim().codePoints().toArray();
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        boolean bmp = true;
+        for (int c : _chars) {
+            if (FORBIDDEN.indexOf(c) != -1) {
+                throw new EnigmaException("Bad input for Alphabet, repeated"
+                        + "characters or invalid characters found");
+            }
+            min = Math.min(min, c);
+            max = Math.max(max, c);
+            bmp &= Character.isBmpCodePoint(c);
         }
+        _bmp = bmp;
+        buildIndex(min, max);
     }
 
     /** A default alphabet of all upper-case characters. */
@@ -30,54 +42,164 @@ class Alphabet {
 
     /** Returns the size of the alphabet. */
     int size() {
-        return _chars.length();
+        return _chars.length;
+    }
+
+    /** Returns true iff all my characters are in the Basic Multilingual
+     *  Plane, and so are single chars. */
+    boolean bmp() {
+        return _bmp;
     }
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        return _chars.indexOf(ch) != -1;
+        return index(ch) != -1;
+    }
+
+    /** Returns true if the code point CODEPOINT is in this alphabet. */
+    boolean contains(int codePoint) {
+        return index(codePoint) != -1;
     }
 
     /** Returns character number INDEX in the alphabet, where
-     *  0 <= INDEX < size(). */
+     *  0 <= INDEX < size(), which must be a single char. */
     char toChar(int index) {
+        int c = toCodePoint(index);
+        if (!Character.isBmpCodePoint(c)) {
+            throw EnigmaException.error("Character %d of the alphabet is"
+                                        + " not a single char", index);
+        }
+        return (char) c;
+    }
+
+    /** Returns the code point of character number INDEX in the alphabet,
+     *  where 0 <= INDEX < size(). */
+    int toCodePoint(int index) {
         if (!(index >= 0 && index < size())) {
             throw new EnigmaException("Invalid index : " + index);
         }
-        return _chars.charAt(index);
+        return _chars[index];
     }
 
     /** Returns the index of character CH which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        if (!contains(ch)) {
+        int result = index(ch);
+        if (result == -1) {
             throw EnigmaException.error("Character "
                     + ch + " is not part of Alphabet.");
         }
-        return _chars.indexOf(ch);
+        return result;
+    }
+
+    /** Returns the index of the code point CODEPOINT, which must be in
+     *  the alphabet.  This is the inverse of toCodePoint(). */
+    int toInt(int codePoint) {
+        int result = index(codePoint);
+        if (result == -1) {
+            throw EnigmaException.error("Character "
+                    + Character.toString(codePoint)
+                    + " is not part of Alphabet.");
+        }
+        return result;
+    }
+
+    /** Returns the indices of the characters of S, each of which must be
+     *  in the alphabet. */
+    int[] toInts(String s) {
+        int[] result = s.codePoints().toArray();
+        for (int i = 0; i < result.length; i++) {
+            result[i] = toInt(result[i]);
+        }
+        return result;
+    }
+
+    /** Returns the index of KEY in this alphabet, or -1 if it is absent. */
+    private int index(int key) {
+        if (_dense != null) {
+            int k = key - _base;
+            return k >= 0 && k < _dense.length ? _dense[k] : -1;
+        }
+        for (int h = mix(key) & _mask;; h = (h + 1) & _mask) {
+            if (_keys[h] == key) {
+                return _values[h];
+            } else if (_values[h] == -1) {
+                return -1;
+            }
+        }
     }
 
-    /**
-     * Checks if the characters in chars are unique,
-     *  disregarding the character repeats in exception.
-     * @param chars The string for which testing is done
-     * @param exception All characters in exception can be repeated in chars
-     * @return True if condition is met
-     */
-    public static boolean areCharactersUnique(String chars, String exception) {
-        boolean uniqueChars = true;
-        for (int i = 0; i < chars.length(); i++) {
-            for (int j = 1 + i; j < chars.length(); j++) {
-                if (chars.charAt(i) == chars.charAt(j)
-                        && exception.indexOf(chars.charAt(i)) == -1) {
-                    uniqueChars = false;
+    /** Build the lookup table for _chars, whose characters lie between
+     *  MIN and MAX inclusive, rejecting duplicated characters. */
+    private void buildIndex(int min, int max) {
+        int n = size();
+        if (n == 0) {
+            _dense = new int[0];
+            return;
+        }
+        if (max - min < Math.max(DENSE_SPAN, 4 * n)) {
+            _base = min;
+            _dense = new int[max - min + 1];
+            Arrays.fill(_dense, -1);
+        } else {
+            int capacity = Integer.highestOneBit(2 * n - 1) << 1;
+            _mask = capacity - 1;
+            _keys = new int[capacity];
+            _values = new int[capacity];
+            Arrays.fill(_values, -1);
+        }
+        for (int i = 0; i < n; i++) {
+            int c = _chars[i];
+            if (index(c) != -1) {
+                throw new EnigmaException("Bad input for Alphabet, repeated"
+                        + "characters or invalid characters found");
+            }
+            if (_dense != null) {
+                _dense[c - _base] = i;
+            } else {
+                int h = mix(c) & _mask;
+                while (_values[h] != -1) {
+                    h = (h + 1) & _mask;
                 }
+                _keys[h] = c;
+                _values[h] = i;
             }
         }
-        return uniqueChars;
     }
 
-    /** Represents the characters of the Alphabet. */
-    private String _chars;
+    /** Return a well-spread hash of KEY. */
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Characters that may not appear in an alphabet. */
+    private static final String FORBIDDEN = " \t\n\u000B\f\r*()";
+
+    /** Alphabets whose characters span fewer than this many code points
+     *  always use a dense lookup table. */
+    private static final int DENSE_SPAN = 4096;
+
+    /** Represents the characters of the Alphabet, as code points. */
+    private final int[] _chars;
+
+    /** True iff all of _chars are in the Basic Multilingual Plane. */
+    private final boolean _bmp;
+
+    /** When non-null, _dense[c - _base] is the index of character c, or
+     *  -1 if c is absent. */
+    private int[] _dense;
+
+    /** The smallest character of a densely indexed alphabet. */
+    private int _base;
+
+    /** Keys of the open-addressing table used when _dense is null. */
+    private int[] _keys;
+
+    /** Values of the open-addressing table; -1 marks an empty slot. */
+    private int[] _values;
+
+    /** Capacity of the open-addressing table minus one. */
+    private int _mask;
 
 }
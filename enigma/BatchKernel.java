@@ -0,0 +1,12 @@
+package enigma;
+
+/** The inner loop of a BatchedMachine.
+ *  @author Mridang Sheth
+ */
+interface BatchKernel {
+
+    /** Advance sessions FROM .. TO-1 of BATCH as for one key press, and
+     *  set OUT[s] to session s's conversion of IN[s] for each of them. */
+    void convert(BatchedMachine batch, int[] in, int[] out, int from,
+                 int to);
+}
@@ -0,0 +1,271 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** Many independent sessions with the same rotor order, each with its own
+ *  rotor settings, Ringstellungs and plugboard, converted together one
+ *  character per session at a time.  Session state is kept in
+ *  struct-of-arrays form: for each moving rotor, one array of offsets
+ *  (setting less Ringstellung) and one of notch table bases, indexed by
+ *  session; and per-session tables for the plugboard and for the
+ *  reflector together with the non-moving rotors.  The shifted tables of
+ *  the moving rotors are shared by all sessions.
+ *
+ *  The conversion itself is done by a BatchKernel: VectorBatchKernel,
+ *  which processes as many sessions at once as a vector register holds,
+ *  using gathers from the jdk.incubator.vector module, when its classes
+ *  (built separately, by vector/Makefile) are on the class path and that
+ *  module is present (the JVM must be run with
+ *  --add-modules jdk.incubator.vector); otherwise a scalar loop over the
+ *  sessions.  Either way, each session converts exactly as a Machine
+ *  with the same configuration does.
+ *  @author Mridang Sheth
+ */
+final class BatchedMachine {
+
+    /** A batch of SESSIONS sessions, using ROTORS (as returned by
+     *  Machine.selectRotors or RotorCatalog.selectRotors) over ALPHABET,
+     *  converted by the vector kernel iff VECTORIZE and it is available.
+     *  Each session starts with all rotors at setting and Ringstellung 0
+     *  and no plugboard. */
+    BatchedMachine(Alphabet alphabet, Rotor[] rotors, int sessions,
+                   boolean vectorize) {
+        int n = alphabet.size();
+        int m = 0;
+        while (m < rotors.length && rotors[rotors.length - 1 - m].rotates()) {
+            m++;
+        }
+        if (rotors.length - m < 1) {
+            throw error("batched machine needs a reflector");
+        }
+        if (n > Permutation.MAX_SHIFTED) {
+            throw error("batched machine needs an alphabet of at most %d"
+                        + " symbols", Permutation.MAX_SHIFTED);
+        }
+        _alphabet = alphabet;
+        _rotors = rotors.clone();
+        _size = n;
+        _moving = m;
+        _sessions = sessions;
+        _fwd = new int[m][];
+        _bwd = new int[m][];
+        _notch = new int[m][];
+        _offsets = new int[m][sessions];
+        _ringBases = new int[m][sessions];
+        int first = rotors.length - m;
+        for (int k = 0; k < m; k++) {
+            Rotor r = rotors[first + k];
+            _fwd[k] = r.permutation().shiftedForward();
+            _bwd[k] = r.permutation().shiftedInverse();
+            _notch[k] = new int[n * n];
+            for (int ring = 0; ring < n; ring++) {
+                for (int off = 0; off < n; off++) {
+                    if (r.notchAt((off + ring) % n)) {
+                        _notch[k][ring * n + off] = 1;
+                    }
+                }
+            }
+        }
+        _sessionBases = new int[sessions];
+        _reflect = new int[sessions * n];
+        _plugIn = new int[sessions * n];
+        _plugOut = new int[sessions * n];
+        int[] zeros = new int[rotors.length];
+        for (int s = 0; s < sessions; s++) {
+            _sessionBases[s] = s * n;
+            configure(s, zeros, zeros, null);
+        }
+        BatchKernel kernel = vectorize ? vectorKernel() : null;
+        _kernel = kernel == null ? new ScalarKernel() : kernel;
+    }
+
+    /** A batch of SESSIONS sessions using ROTORS over ALPHABET, converted
+     *  by the vector kernel if it is available. */
+    BatchedMachine(Alphabet alphabet, Rotor[] rotors, int sessions) {
+        this(alphabet, rotors, sessions, true);
+    }
+
+    /** Return true iff the vector kernel can be used in this JVM. */
+    static boolean vectorAvailable() {
+        return vectorKernel() != null;
+    }
+
+    /** Return a new VectorBatchKernel, or null if it or the vector
+     *  module is not present.  The kernel is loaded by name so that this
+     *  package compiles and runs without the module. */
+    private static BatchKernel vectorKernel() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+            return null;
+        }
+        try {
+            return (BatchKernel) Class.forName("enigma.VectorBatchKernel")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return null;
+        }
+    }
+
+    /** Return true iff I convert with the vector kernel. */
+    boolean vectorized() {
+        return !(_kernel instanceof ScalarKernel);
+    }
+
+    /** Return the number of sessions I hold. */
+    int sessions() {
+        return _sessions;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Configure session S with rotor SETTINGS and Ringstellungs RINGS
+     *  (per rotor slot, reflector first) and plugboard PLUGBOARD (null if
+     *  none). */
+    void configure(int s, int[] settings, int[] rings,
+                   Permutation plugboard) {
+        int n = _size;
+        int first = _rotors.length - _moving;
+        for (int k = 0; k < _moving; k++) {
+            int ring = rings[first + k];
+            _ringBases[k][s] = ring * n;
+            _offsets[k][s] = Math.floorMod(settings[first + k] - ring, n);
+        }
+        int[] reflect =
+            CompiledMachine.reflection(_rotors, first, settings, rings);
+        System.arraycopy(reflect, 0, _reflect, s * n, n);
+        for (int c = 0; c < n; c++) {
+            _plugIn[s * n + c] = plugboard == null ? c : plugboard.permute(c);
+            _plugOut[s * n + c] = plugboard == null ? c : plugboard.invert(c);
+        }
+    }
+
+    /** Configure session S to be in the current state of MACHINE, which
+     *  must have the same rotors as I do. */
+    void configure(int s, Machine machine) {
+        Rotor[] rotors = machine.rotors();
+        if (rotors == null || rotors.length != _rotors.length) {
+            throw error("machine does not match the batch's rotors");
+        }
+        for (int i = 0; i < rotors.length; i++) {
+            if (rotors[i] != _rotors[i]) {
+                throw error("machine does not match the batch's rotors");
+            }
+        }
+        configure(s, machine.settings(), machine.ringSettings(),
+                  machine.plugboard());
+    }
+
+    /** Return the setting of moving rotor #K (the leftmost being 0) of
+     *  session S. */
+    int position(int s, int k) {
+        return (_offsets[k][s] + _ringBases[k][s] / _size) % _size;
+    }
+
+    /** Advance every session as for one key press, and then set OUT[s]
+     *  to session s's conversion of IN[s], for each session s (as
+     *  alphabet indices). */
+    void convert(int[] in, int[] out) {
+        if (in.length < _sessions || out.length < _sessions) {
+            throw error("batch conversion needs one character per session");
+        }
+        _kernel.convert(this, in, out, 0, _sessions);
+    }
+
+    /** Convert TEXTS[s] in place with session s, for every session.  All
+     *  the texts (as alphabet indices) must have the same length. */
+    void convert(int[][] texts) {
+        int length = texts.length == 0 ? 0 : texts[0].length;
+        int[] column = new int[_sessions];
+        for (int s = 0; s < _sessions; s++) {
+            if (texts[s].length != length) {
+                throw error("batch conversion needs texts of equal length");
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            for (int s = 0; s < _sessions; s++) {
+                column[s] = texts[s][i];
+            }
+            convert(column, column);
+            for (int s = 0; s < _sessions; s++) {
+                texts[s][i] = column[s];
+            }
+        }
+    }
+
+    /** The scalar kernel: one session at a time. */
+    static final class ScalarKernel implements BatchKernel {
+        @Override
+        public void convert(BatchedMachine b, int[] in, int[] out,
+                            int from, int to) {
+            int n = b._size, m = b._moving;
+            int[][] offsets = b._offsets;
+            for (int s = from; s < to; s++) {
+                boolean here = false;
+                for (int k = 0; k < m; k++) {
+                    boolean right = k + 1 < m
+                        && b._notch[k + 1][b._ringBases[k + 1][s]
+                                           + offsets[k + 1][s]] != 0;
+                    if (k == m - 1 || right || here) {
+                        int off = offsets[k][s] + 1;
+                        offsets[k][s] = off == n ? 0 : off;
+                    }
+                    here = right;
+                }
+                int base = s * n;
+                int c = b._plugIn[base + in[s]];
+                for (int k = m - 1; k >= 0; k--) {
+                    c = b._fwd[k][offsets[k][s] * n + c];
+                }
+                c = b._reflect[base + c];
+                for (int k = 0; k < m; k++) {
+                    c = b._bwd[k][offsets[k][s] * n + c];
+                }
+                out[s] = b._plugOut[base + c];
+            }
+        }
+    }
+
+    /** Name of the module providing the Vector API. */
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+
+    /** My rotors, reflector first. */
+    private final Rotor[] _rotors;
+
+    /** The kernel that does my conversions. */
+    private final BatchKernel _kernel;
+
+    /** Size of my alphabet, number of moving rotors, and number of
+     *  sessions. */
+    final int _size, _moving, _sessions;
+
+    /** Shifted forward and inverse tables of the moving rotors, leftmost
+     *  first, shared by all sessions. */
+    final int[][] _fwd, _bwd;
+
+    /** _notch[k][r * size + d] is 1 iff moving rotor #k, with
+     *  Ringstellung r, is at a notch when its offset is d, and 0
+     *  otherwise. */
+    final int[][] _notch;
+
+    /** _offsets[k][s] is the offset of moving rotor #k in session s. */
+    final int[][] _offsets;
+
+    /** _ringBases[k][s] is the start of the row of _notch[k] for the
+     *  Ringstellung of moving rotor #k in session s. */
+    final int[][] _ringBases;
+
+    /** _sessionBases[s] is s * size, the start of session s's rows of
+     *  the per-session tables. */
+    final int[] _sessionBases;
+
+    /** Combined reflector and non-moving rotors of each session. */
+    final int[] _reflect;
+
+    /** Plugboard of each session, in each direction. */
+    final int[] _plugIn, _plugOut;
+}
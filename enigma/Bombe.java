@@ -0,0 +1,436 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static enigma.EnigmaException.*;
+
+/** A simulation of the Turing-Welchman bombe.  Given a crib (a guess at
+ *  the plaintext of part of a message), it finds the rotor orders and
+ *  positions at which the crib is consistent with some plugboard.
+ *
+ *  The crib and the ciphertext beneath it form a menu: for each crib
+ *  position i, plain letter p and cipher letter c, an edge between p and
+ *  c labeled i.  If the scrambler (the machine less its plugboard) at
+ *  position i is S_i, then any plugboard that fits must have
+ *  stecker(c) = S_i(stecker(p)).  At each rotor position, the bombe
+ *  assumes that the most connected menu letter t is steckered to some
+ *  letter g, and closes that hypothesis under the menu's implications
+ *  and under the symmetry of the plugboard (the "diagonal board": if x
+ *  is steckered to y, then y is steckered to x).  A closure that implies
+ *  two partners for any letter is impossible, as are all hypotheses
+ *  inside it; any hypothesis whose closure is consistent is a stop,
+ *  reported with the steckers it implies.
+ *
+ *  The hypotheses about each letter are a bit set in a long, so the
+ *  alphabet may have at most 64 letters.  The scramblers are read from
+ *  tables, computed once per rotor order and non-moving rotor setting,
+ *  that hold the scrambler for every combination of moving rotor
+ *  positions; where that would be too large, they are computed afresh at
+ *  each position.  Ringstellungs are taken to be at the first letter, so
+ *  a turnover within the crib can move a true stop, as on the real
+ *  bombe.  Rotor orders and non-moving rotor settings are searched in
+ *  parallel on a ForkJoinPool.
+ *  @author Mridang Sheth
+ */
+final class Bombe {
+
+    /** A bombe for machines built from CATALOG, testing rotor ORDERS
+     *  (each as returned by CATALOG.selectRotors) against ciphertext
+     *  CIPHER whose letters OFFSET .. OFFSET + CRIB.length - 1 are
+     *  supposed to encipher CRIB (all as alphabet indices). */
+    Bombe(RotorCatalog catalog, List<Rotor[]> orders, int[] cipher,
+          int[] crib, int offset) {
+        _alphabet = catalog.alphabet();
+        _size = _alphabet.size();
+        if (_size > Long.SIZE) {
+            throw error("bombe alphabets are limited to %d letters",
+                        Long.SIZE);
+        }
+        if (crib.length == 0 || offset < 0
+            || offset + crib.length > cipher.length) {
+            throw error("crib does not lie within the ciphertext");
+        }
+        _orders = orders.toArray(new Rotor[orders.size()][]);
+        _slots = catalog.numRotors();
+        _moving = catalog.numPawls();
+        _length = crib.length;
+        int[][] edges = new int[_size][];
+        int[] degree = new int[_size];
+        for (int i = 0; i < _length; i++) {
+            int p = crib[i], c = cipher[offset + i];
+            if (p == c) {
+                throw error("crib letter %c at position %d enciphers to "
+                            + "itself", _alphabet.toChar(p), offset + i);
+            }
+            degree[p] += 1;
+            degree[c] += 1;
+        }
+        for (int x = 0; x < _size; x++) {
+            edges[x] = new int[2 * degree[x]];
+            degree[x] = 0;
+        }
+        for (int i = 0; i < _length; i++) {
+            int p = crib[i], c = cipher[offset + i];
+            addEdge(edges, degree, p, c, i);
+            addEdge(edges, degree, c, p, i);
+        }
+        _edges = edges;
+        int test = 0;
+        for (int x = 1; x < _size; x++) {
+            if (edges[x].length > edges[test].length) {
+                test = x;
+            }
+        }
+        _test = test;
+        long states = 1;
+        for (int k = 0; k <= _moving && states <= MAX_TABLE; k++) {
+            states *= _size;
+        }
+        _tabulate = states <= MAX_TABLE;
+        _fixedSettings = (int) power(_slots - 1 - _moving);
+        _allLetters = -1L >>> (Long.SIZE - _size);
+    }
+
+    /** Add to EDGES[FROM] the edge to TO at crib position I, where
+     *  COUNT[FROM] entries are already used. */
+    private static void addEdge(int[][] edges, int[] count, int from,
+                                int to, int i) {
+        edges[from][count[from]++] = to;
+        edges[from][count[from]++] = i;
+    }
+
+    /** Run the bombe on POOL, returning its stops in order of rotor order
+     *  and position. */
+    List<Stop> run(ForkJoinPool pool) {
+        return pool.invoke(new Search(0, _orders.length * _fixedSettings));
+    }
+
+    /** A rotor order and position at which the crib fits, with the
+     *  steckers it implies. */
+    final class Stop {
+
+        /** A stop for ROTORS with SETTINGS (per rotor slot) at the first
+         *  crib letter, implying the plugboard PLUG, in which PLUG[x] is
+         *  the partner of x, or -1 if it is not determined. */
+        private Stop(Rotor[] rotors, int[] settings, int[] plug) {
+            _rotors = rotors;
+            _stopSettings = settings;
+            _plug = plug;
+        }
+
+        /** Return the names of my rotors, reflector first. */
+        String[] rotors() {
+            String[] result = new String[_rotors.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = _rotors[i].name();
+            }
+            return result;
+        }
+
+        /** Return the settings of my rotors (other than the reflector),
+         *  as they are just before the first crib letter is converted. */
+        String setting() {
+            char[] result = new char[_slots - 1];
+            for (int i = 1; i < _slots; i++) {
+                result[i - 1] = _alphabet.toChar(_stopSettings[i]);
+            }
+            return new String(result);
+        }
+
+        /** Return the steckered pairs I imply, as plugboard cycles. */
+        String steckers() {
+            StringBuilder result = new StringBuilder();
+            for (int x = 0; x < _size; x++) {
+                if (_plug[x] > x) {
+                    if (result.length() > 0) {
+                        result.append(' ');
+                    }
+                    result.append('(').append(_alphabet.toChar(x))
+                        .append(_alphabet.toChar(_plug[x])).append(')');
+                }
+            }
+            return result.toString();
+        }
+
+        /** Return the letter implied to be steckered to C, which is C if
+         *  it is unsteckered, or -1 if the menu does not determine it. */
+        int partner(int c) {
+            return _plug[c];
+        }
+
+        /** Return me as a settings line, which is valid for the whole
+         *  message when the crib starts at its first letter. */
+        @Override
+        public String toString() {
+            String steckers = steckers();
+            return "* " + String.join(" ", rotors()) + " " + setting()
+                + (steckers.isEmpty() ? "" : " " + steckers);
+        }
+
+        /** Rotors, reflector first. */
+        private final Rotor[] _rotors;
+        /** Setting of each rotor slot. */
+        private final int[] _stopSettings;
+        /** Implied partner of each letter, or -1. */
+        private final int[] _plug;
+    }
+
+    /** Searches the rotor orders and non-moving rotor settings numbered
+     *  LO .. HI-1, where number u is order u / _fixedSettings with
+     *  non-moving settings given by the digits of u % _fixedSettings. */
+    private final class Search extends RecursiveTask<List<Stop>> {
+
+        /** A search of units LO .. HI-1. */
+        Search(int lo, int hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected List<Stop> compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                Search left = new Search(_lo, mid);
+                left.fork();
+                List<Stop> right = new Search(mid, _hi).compute();
+                List<Stop> result = left.join();
+                result.addAll(right);
+                return result;
+            }
+            ArrayList<Stop> result = new ArrayList<Stop>();
+            if (_hi > _lo) {
+                searchUnit(_lo, result);
+            }
+            return result;
+        }
+
+        /** Range of units. */
+        private final int _lo, _hi;
+    }
+
+    /** Add to RESULT the stops for unit U (see Search). */
+    private void searchUnit(int u, List<Stop> result) {
+        Rotor[] rotors = _orders[u / _fixedSettings];
+        int first = _slots - _moving;
+        int[] settings = new int[_slots];
+        int rest = u % _fixedSettings;
+        for (int i = first - 1; i >= 1; i--) {
+            settings[i] = rest % _size;
+            rest /= _size;
+        }
+        CompiledMachine engine = new CompiledMachine(_alphabet, rotors,
+                settings, new int[_slots], null);
+        int[] table = _tabulate ? scramblerTable(engine) : null;
+        int[] scramblers = new int[_length * _size];
+        long[] rows = new long[_size];
+        int[] work = new int[2 * _size * _size];
+        int positions = (int) power(_moving);
+        for (int p = 0; p < positions; p++) {
+            int code = p;
+            for (int k = _moving - 1; k >= 0; k--) {
+                settings[first + k] = code % _size;
+                code /= _size;
+            }
+            for (int k = 0; k < _moving; k++) {
+                engine.setPosition(k, settings[first + k]);
+            }
+            for (int i = 0; i < _length; i++) {
+                engine.step();
+                if (table != null) {
+                    System.arraycopy(table, state(engine) * _size,
+                                     scramblers, i * _size, _size);
+                } else {
+                    for (int c = 0; c < _size; c++) {
+                        scramblers[i * _size + c] = engine.substitute(c);
+                    }
+                }
+            }
+            testPosition(rotors, settings, scramblers, rows, work, result);
+        }
+    }
+
+    /** Add to RESULT the stops, if any, for ROTORS at SETTINGS, whose
+     *  scrambler at crib position i is SCRAMBLERS[i * _size ..].  ROWS
+     *  and WORK are scratch space. */
+    private void testPosition(Rotor[] rotors, int[] settings,
+                              int[] scramblers, long[] rows, int[] work,
+                              List<Stop> result) {
+        long refuted = 0;
+        for (int g = 0; g < _size; g++) {
+            if ((refuted & (1L << g)) != 0) {
+                continue;
+            }
+            boolean consistent =
+                close(_test, g, scramblers, rows, work);
+            refuted |= rows[_test];
+            if (consistent) {
+                int[] plug = new int[_size];
+                for (int x = 0; x < _size; x++) {
+                    plug[x] = rows[x] == 0 ? -1
+                        : Long.numberOfTrailingZeros(rows[x]);
+                }
+                result.add(new Stop(rotors, settings.clone(), plug));
+            }
+        }
+    }
+
+    /** Set ROWS to the closure of the hypothesis that X is steckered to
+     *  Y, where ROWS[a] has bit b set iff a is implied to be steckered
+     *  to b, given the scramblers SCRAMBLERS.  Return true iff no letter
+     *  is implied to have two partners.  WORK is scratch space for the
+     *  pairs yet to be propagated.  Once every hypothesis about the test
+     *  letter is refuted, the closure is abandoned, as on the real
+     *  bombe. */
+    private boolean close(int x, int y, int[] scramblers, long[] rows,
+                          int[] work) {
+        Arrays.fill(rows, 0);
+        int top = 0;
+        rows[x] |= 1L << y;
+        work[top++] = x;
+        work[top++] = y;
+        if (x != y) {
+            rows[y] |= 1L << x;
+            work[top++] = y;
+            work[top++] = x;
+        }
+        while (top > 0) {
+            int b = work[--top], a = work[--top];
+            int[] edges = _edges[a];
+            for (int e = 0; e < edges.length; e += 2) {
+                int z = edges[e];
+                int w = scramblers[edges[e + 1] * _size + b];
+                if ((rows[z] & (1L << w)) == 0) {
+                    rows[z] |= 1L << w;
+                    work[top++] = z;
+                    work[top++] = w;
+                }
+                if ((rows[w] & (1L << z)) == 0) {
+                    rows[w] |= 1L << z;
+                    work[top++] = w;
+                    work[top++] = z;
+                }
+            }
+            if (rows[_test] == _allLetters) {
+                return false;
+            }
+        }
+        for (long row : rows) {
+            if (Long.bitCount(row) > 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the scramblers of ENGINE at every combination of positions
+     *  of its moving rotors: the scrambler for state s (see state) is at
+     *  s * _size.  ENGINE's positions are changed. */
+    private int[] scramblerTable(CompiledMachine engine) {
+        int states = (int) power(_moving);
+        int[] table = new int[states * _size];
+        for (int s = 0; s < states; s++) {
+            int code = s;
+            for (int k = _moving - 1; k >= 0; k--) {
+                engine.setPosition(k, code % _size);
+                code /= _size;
+            }
+            for (int c = 0; c < _size; c++) {
+                table[s * _size + c] = engine.substitute(c);
+            }
+        }
+        return table;
+    }
+
+    /** Return the number of the current combination of positions of the
+     *  moving rotors of ENGINE, the leftmost being most significant. */
+    private int state(CompiledMachine engine) {
+        int result = 0;
+        for (int k = 0; k < _moving; k++) {
+            result = result * _size + engine.position(k);
+        }
+        return result;
+    }
+
+    /** Return _size to the power K. */
+    private long power(int k) {
+        long result = 1;
+        for (int i = 0; i < k; i++) {
+            result *= _size;
+        }
+        return result;
+    }
+
+    /** Run the bombe as specified by ARGS: ARGS[0] names a configuration
+     *  file, ARGS[1] a file of ciphertext in its alphabet (blanks and line
+     *  breaks are ignored), ARGS[2] is the crib, and the optional ARGS[3]
+     *  the position in the ciphertext of its first letter (default 0).
+     *  Any further ARGS each give a rotor order to try, such as
+     *  "B Beta III IV I"; by default, all are tried.  Prints each stop. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 3) {
+                throw error("Usage: java enigma.Bombe CONFIG CIPHERTEXT CRIB"
+                            + " [OFFSET [ORDER ...]]");
+            }
+            RotorCatalog catalog = Main.readCatalog(args[0]);
+            Alphabet alphabet = catalog.alphabet();
+            int[] cipher = KeySearch.readText(alphabet, args[1]);
+            int[] crib = new int[args[2].length()];
+            for (int i = 0; i < crib.length; i++) {
+                crib[i] = alphabet.toInt(args[2].charAt(i));
+            }
+            int offset = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+            List<Rotor[]> orders;
+            if (args.length > 4) {
+                orders = new ArrayList<Rotor[]>();
+                for (int i = 4; i < args.length; i++) {
+                    orders.add(catalog.selectRotors(
+                            args[i].trim().split("\\s+")));
+                }
+            } else {
+                orders = KeySearch.allOrders(catalog);
+            }
+            long start = System.nanoTime();
+            List<Stop> stops = new Bombe(catalog, orders, cipher, crib,
+                                         offset)
+                .run(ForkJoinPool.commonPool());
+            double seconds = (System.nanoTime() - start) / 1e9;
+            for (Stop stop : stops) {
+                System.out.println(stop);
+            }
+            System.out.printf("%d stops in %.3f s%n", stops.size(), seconds);
+        } catch (EnigmaException | NumberFormatException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Most entries in a table of scramblers. */
+    private static final long MAX_TABLE = 1 << 22;
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+    /** Size of _alphabet. */
+    private final int _size;
+    /** Rotor orders to try. */
+    private final Rotor[][] _orders;
+    /** Number of rotor slots, and of moving rotors. */
+    private final int _slots, _moving;
+    /** Number of letters in the crib. */
+    private final int _length;
+    /** The menu: _edges[x] holds pairs (z, i) for each edge from x to z
+     *  at crib position i. */
+    private final int[][] _edges;
+    /** The test register's letter. */
+    private final int _test;
+    /** True iff scramblers are tabulated per rotor order. */
+    private final boolean _tabulate;
+    /** Number of combinations of settings of the non-moving rotors. */
+    private final int _fixedSettings;
+    /** The set of all letters. */
+    private final long _allLetters;
+}
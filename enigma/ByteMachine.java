@@ -0,0 +1,438 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import static enigma.EnigmaException.*;
+
+/** An Enigma machine over bytes, for binary data.  Its alphabet has 256
+ *  symbols, symbol #b standing for byte b; as alphabets may not contain
+ *  blanks or parentheses, BYTES uses the 256 Braille patterns
+ *  (U+2800 .. U+28FF), whose dots are the bits of b.  Configurations are
+ *  written in hexadecimal (see readCatalog and parseSettings).
+ *
+ *  Conversion works in place on ByteBuffers.  While only the rightmost
+ *  rotor moves, everything to its left, with the reflector, is one fixed
+ *  permutation, which I keep as a 256-entry table, rebuilt whenever
+ *  another rotor moves (on average once every 256 / (notches) bytes).
+ *  So each byte costs three table lookups: through the rightmost rotor
+ *  (whose tables also hold the plugboard), through that table, and back.
+ *  The table is composed from another, for the rotors left of the next
+ *  one and the reflector, which changes far less often.  The rotor tables
+ *  are bytes, so that all of them fit in cache.
+ *  @author Mridang Sheth
+ */
+final class ByteMachine {
+
+    /** An engine in the current state of MACHINE, whose alphabet must
+     *  have SYMBOLS symbols, which converts exactly as MACHINE does.  It
+     *  is independent of MACHINE afterwards. */
+    ByteMachine(Machine machine) {
+        Rotor[] rotors = machine.rotors();
+        if (rotors == null) {
+            throw error("No rotors inserted into the machine");
+        }
+        if (machine.alphabet().size() != SYMBOLS) {
+            throw error("byte machines need an alphabet of %d symbols",
+                        SYMBOLS);
+        }
+        int m = 0;
+        while (m < rotors.length && rotors[rotors.length - 1 - m].rotates()) {
+            m++;
+        }
+        int fixed = rotors.length - m;
+        if (fixed < 1) {
+            throw error("byte machine needs a reflector");
+        }
+        int[] settings = machine.settings();
+        int[] rings = machine.ringSettings();
+        int[] reflect =
+            CompiledMachine.reflection(rotors, fixed, settings, rings);
+        Permutation plugboard = machine.plugboard();
+
+        _fwd = new byte[m][];
+        _bwd = new byte[m][];
+        _notch = new boolean[m][];
+        _offsets = new int[m];
+        for (int k = 0; k < m; k++) {
+            Rotor r = rotors[fixed + k];
+            int ring = rings[fixed + k];
+            int[] fwd = r.permutation().shiftedForward();
+            int[] bwd = r.permutation().shiftedInverse();
+            _fwd[k] = new byte[SYMBOLS * SYMBOLS];
+            _bwd[k] = new byte[SYMBOLS * SYMBOLS];
+            for (int row = 0; row < fwd.length; row += SYMBOLS) {
+                for (int c = 0; c < SYMBOLS; c++) {
+                    int x = k == m - 1 && plugboard != null
+                        ? plugboard.permute(c) : c;
+                    int y = bwd[row + c];
+                    _fwd[k][row + c] = (byte) fwd[row + x];
+                    _bwd[k][row + c] = (byte) (k == m - 1 && plugboard != null
+                                               ? plugboard.invert(y) : y);
+                }
+            }
+            _offsets[k] = (settings[fixed + k] - ring) & BYTE;
+            _notch[k] = new boolean[SYMBOLS];
+            for (int off = 0; off < SYMBOLS; off++) {
+                _notch[k][off] = r.notchAt((off + ring) & BYTE);
+            }
+        }
+        if (m == 0 && plugboard != null) {
+            int[] folded = new int[SYMBOLS];
+            for (int c = 0; c < SYMBOLS; c++) {
+                folded[c] = plugboard.invert(reflect[plugboard.permute(c)]);
+            }
+            reflect = folded;
+        }
+        _reflect = new byte[SYMBOLS];
+        for (int c = 0; c < SYMBOLS; c++) {
+            _reflect[c] = (byte) reflect[c];
+        }
+        boolean[] notch = m > 1 ? _notch[m - 1] : new boolean[SYMBOLS];
+        _runs = new int[SYMBOLS];
+        for (int i = 2 * SYMBOLS - 1, run = SYMBOLS; i >= 0; i--) {
+            run = notch[i & BYTE] ? 0 : Math.min(SYMBOLS, run + 1);
+            _runs[i & BYTE] = run;
+        }
+        _left = new byte[SYMBOLS];
+        _inner = new byte[SYMBOLS];
+        rebuild(true);
+    }
+
+    /** Convert the bytes of BUF between its position and its limit in
+     *  place, leaving its position and limit as they are.  The bytes of a
+     *  direct buffer are converted a chunk at a time in a small array,
+     *  which stays in cache and is faster to index than the buffer. */
+    void convert(ByteBuffer buf) {
+        int from = buf.position(), to = buf.limit();
+        if (buf.hasArray()) {
+            convert(buf.array(), buf.arrayOffset() + from,
+                    buf.arrayOffset() + to);
+            return;
+        }
+        byte[] chunk = _chunk;
+        for (int i = from; i < to; i += chunk.length) {
+            int n = Math.min(chunk.length, to - i);
+            buf.get(i, chunk, 0, n);
+            convert(chunk, 0, n);
+            buf.put(i, chunk, 0, n);
+        }
+    }
+
+    /** Convert DATA[FROM .. TO-1] in place. */
+    void convert(byte[] data, int from, int to) {
+        int m = _offsets.length;
+        if (m == 0) {
+            for (int i = from; i < to; i++) {
+                data[i] = _inner[data[i] & BYTE];
+            }
+            return;
+        }
+        int f = m - 1;
+        byte[] fwd = _fwd[f], bwd = _bwd[f], inner = _inner;
+        int[] runs = _runs;
+        int off = _offsets[f];
+        for (int i = from; i < to;) {
+            int stop;
+            if (_slowNotch || runs[off] == 0) {
+                _offsets[f] = off;
+                step();
+                off = _offsets[f];
+                int row = off << Byte.SIZE;
+                data[i] = bwd[row | inner[fwd[row | data[i] & BYTE] & BYTE]
+                              & BYTE];
+                i += 1;
+                continue;
+            }
+            for (stop = (int) Math.min(to, (long) i + runs[off]); i < stop;
+                 i++) {
+                off = (off + 1) & BYTE;
+                int row = off << Byte.SIZE;
+                data[i] = bwd[row | inner[fwd[row | data[i] & BYTE] & BYTE]
+                              & BYTE];
+            }
+        }
+        _offsets[f] = off;
+    }
+
+    /** Convert the contents of the file IN into the file OUT, which may
+     *  be IN itself, replacing OUT's contents.  Returns the number of
+     *  bytes converted. */
+    long convert(Path in, Path out) {
+        try (FileChannel src = FileChannel.open(in);
+             FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long posn = 0;
+            while (true) {
+                buf.clear();
+                int n = src.read(buf, posn);
+                if (n < 0) {
+                    break;
+                }
+                buf.flip();
+                convert(buf);
+                while (buf.hasRemaining()) {
+                    dst.write(buf, posn + buf.position());
+                }
+                posn += n;
+            }
+            dst.truncate(posn);
+            return posn;
+        } catch (IOException excp) {
+            throw error("could not convert %s to %s: %s", in, out,
+                        excp.getMessage());
+        }
+    }
+
+    /** Advance my moving rotors as for one key press in which some rotor
+     *  other than the rightmost moves, and rebuild _inner. */
+    private void step() {
+        int[] offsets = _offsets;
+        int m = offsets.length;
+        boolean here = false, left = false;
+        for (int k = 0; k < m; k++) {
+            boolean right = k + 1 < m && _notch[k + 1][offsets[k + 1]];
+            if (k == m - 1 || right || here) {
+                offsets[k] = (offsets[k] + 1) & BYTE;
+                left |= k < m - 2;
+            }
+            here = right;
+        }
+        rebuild(left);
+    }
+
+    /** Recompute _inner and _slowNotch from the offsets of my rotors other
+     *  than the rightmost, first recomputing _left if LEFT.  Each table is
+     *  built a whole stage at a time, so that the lookups for different
+     *  entries do not wait on each other. */
+    private void rebuild(boolean left) {
+        int f = _offsets.length - 1;
+        _slowNotch = false;
+        for (int k = 1; k < f; k++) {
+            _slowNotch |= _notch[k][_offsets[k]];
+        }
+        if (f <= 0) {
+            System.arraycopy(_reflect, 0, _inner, 0, SYMBOLS);
+            return;
+        }
+        byte[] t = _left;
+        if (left) {
+            for (int c = 0; c < SYMBOLS; c++) {
+                t[c] = (byte) c;
+            }
+            for (int k = f - 2; k >= 0; k--) {
+                apply(_fwd[k], _offsets[k] << Byte.SIZE, t);
+            }
+            apply(_reflect, 0, t);
+            for (int k = 0; k < f - 1; k++) {
+                apply(_bwd[k], _offsets[k] << Byte.SIZE, t);
+            }
+        }
+        byte[] fwd = _fwd[f - 1], bwd = _bwd[f - 1], inner = _inner;
+        int row = _offsets[f - 1] << Byte.SIZE;
+        for (int c = 0; c < SYMBOLS; c++) {
+            inner[c] = bwd[row | t[fwd[row | c] & BYTE] & BYTE];
+        }
+    }
+
+    /** Replace each entry x of T by TABLE[ROW + x]. */
+    private static void apply(byte[] table, int row, byte[] t) {
+        for (int c = 0; c < SYMBOLS; c++) {
+            t[c] = table[row | t[c] & BYTE];
+        }
+    }
+
+    /** Return the rotors described by the configuration file FILE, over
+     *  the alphabet BYTES.  The file has the form of Main's
+     *  configuration files, except that its first word is "BYTES" in
+     *  place of an alphabet; that notches follow M as pairs of hex
+     *  digits (as in M00F1 for notches at bytes 0 and 0xF1); and that
+     *  each rotor's wiring is given in place of its cycles as the images
+     *  of bytes 0 .. 255, in order, as 512 hex digits, with blanks and
+     *  newlines allowed between pairs. */
+    static RotorCatalog readCatalog(Path file) {
+        String[] words;
+        try {
+            words = new String(Files.readAllBytes(file),
+                               StandardCharsets.US_ASCII).trim()
+                .split("\\s+");
+        } catch (IOException excp) {
+            throw error("could not read %s: %s", file, excp.getMessage());
+        }
+        if (words.length < 3 || !words[0].equals("BYTES")) {
+            throw error("Bad byte config file, must start with BYTES");
+        }
+        int numRotors, pawls;
+        try {
+            numRotors = Integer.parseInt(words[1]);
+            pawls = Integer.parseInt(words[2]);
+        } catch (NumberFormatException excp) {
+            throw error("Bad byte config file, bad numbers of rotors or"
+                        + " pawls");
+        }
+        ArrayList<Rotor> rotors = new ArrayList<Rotor>();
+        int w = 3;
+        while (w < words.length) {
+            if (w + 2 >= words.length) {
+                throw error("Bad byte config file, rotor %s truncated",
+                            words[w]);
+            }
+            String name = words[w], type = words[w + 1];
+            StringBuilder hex = new StringBuilder();
+            for (w += 2; w < words.length && hex.length() < 2 * SYMBOLS;
+                 w++) {
+                hex.append(words[w]);
+            }
+            if (hex.length() != 2 * SYMBOLS) {
+                throw error("Bad byte config file, wiring of %s is not %d"
+                            + " bytes", name, SYMBOLS);
+            }
+            Permutation wiring = Permutation.fromTable(
+                BYTES.toInts(symbols(hex.toString())), BYTES);
+            switch (type.charAt(0)) {
+            case 'M':
+                rotors.add(new MovingRotor(name, wiring,
+                                           symbols(type.substring(1))));
+                break;
+            case 'N':
+                rotors.add(new FixedRotor(name, wiring));
+                break;
+            case 'R':
+                rotors.add(new Reflector(name, wiring));
+                break;
+            default:
+                throw error("Invalid Rotor type, " + type.charAt(0));
+            }
+        }
+        return new RotorCatalog(BYTES, numRotors, pawls, rotors);
+    }
+
+    /** Return the configuration given by the settings line SETTINGS for
+     *  machines built from CATALOG, an optional "*" followed by the rotor
+     *  names, the rotor settings as hex pairs, optionally the
+     *  Ringstellungs as hex pairs, and the plugboard as cycles of hex
+     *  pairs, as in "(0A1B) (FF00)". */
+    static Settings parseSettings(RotorCatalog catalog, String settings) {
+        settings = settings.trim();
+        if (settings.startsWith("*")) {
+            settings = settings.substring(1).trim();
+        }
+        int paren = settings.indexOf('(');
+        String cycles = paren == -1 ? "" : settings.substring(paren);
+        String[] words = (paren == -1 ? settings
+                          : settings.substring(0, paren)).trim().split("\\s+");
+        int n = catalog.numRotors();
+        if (words.length != n + 1 && words.length != n + 2) {
+            throw error("Invalid settings line");
+        }
+        String[] names = new String[n];
+        System.arraycopy(words, 0, names, 0, n);
+        StringBuilder plugboard = new StringBuilder();
+        for (String cycle : cycles.split("\\s+")) {
+            if (cycle.isEmpty()) {
+                continue;
+            }
+            if (!cycle.startsWith("(") || !cycle.endsWith(")")) {
+                throw error("Invalid plugboard cycle %s", cycle);
+            }
+            plugboard.append('(')
+                .append(symbols(cycle.substring(1, cycle.length() - 1)))
+                .append(')');
+        }
+        return new Settings(catalog.selectRotors(names), symbols(words[n]),
+                            words.length == n + 2 ? symbols(words[n + 1])
+                            : null,
+                            plugboard.length() == 0 ? null
+                            : new Permutation(plugboard.toString(), BYTES));
+    }
+
+    /** Return the symbols of BYTES for the bytes written in hex in HEX,
+     *  two digits per byte. */
+    static String symbols(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw error("odd number of hex digits in %s", hex);
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < hex.length(); i += 2) {
+            int hi = Character.digit(hex.charAt(i), 16);
+            int lo = Character.digit(hex.charAt(i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw error("bad hex digits in %s", hex);
+            }
+            result.append(BYTES.toChar(hi << 4 | lo));
+        }
+        return result.toString();
+    }
+
+    /** Number of symbols of a byte machine. */
+    static final int SYMBOLS = 1 << Byte.SIZE;
+
+    /** First of the Braille patterns. */
+    private static final int BRAILLE = 0x2800;
+
+    /** The alphabet of byte machines. */
+    static final Alphabet BYTES;
+
+    static {
+        char[] chars = new char[SYMBOLS];
+        for (int b = 0; b < SYMBOLS; b++) {
+            chars[b] = (char) (BRAILLE + b);
+        }
+        BYTES = new Alphabet(new String(chars));
+    }
+
+    /** Mask of the bits of a byte. */
+    private static final int BYTE = SYMBOLS - 1;
+
+    /** Size of the chunks in which direct buffers are converted. */
+    private static final int CHUNK = 1 << 13;
+
+    /** Size of the buffer through which files are converted. */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** Shifted tables of my moving rotors, as for CompiledMachine, as
+     *  bytes, the rightmost's including the plugboard. */
+    private final byte[][] _fwd, _bwd;
+
+    /** _notch[k][d] is true iff moving rotor #k is at a notch when its
+     *  offset is d. */
+    private final boolean[][] _notch;
+
+    /** _runs[d] is the number of key presses, from offset d of my
+     *  rightmost moving rotor, that move only that rotor (ignoring the
+     *  other rotors' notches), at most SYMBOLS: 0 if it is at a notch at
+     *  d, unless it is my only moving rotor (so that there is no rotor
+     *  for it to carry). */
+    private final int[] _runs;
+
+    /** Array through which direct buffers are converted. */
+    private final byte[] _chunk = new byte[CHUNK];
+
+    /** The reflector and non-moving rotors, as a table, with the
+     *  plugboard if I have no moving rotors. */
+    private final byte[] _reflect;
+
+    /** My moving rotors but the two rightmost, with the reflector and
+     *  non-moving rotors, as a table, at the current offsets. */
+    private final byte[] _left;
+
+    /** Everything but my rightmost moving rotor, as a table, at the
+     *  current offsets: or everything, if I have no moving rotors. */
+    private final byte[] _inner;
+
+    /** True iff one of my moving rotors other than the leftmost and the
+     *  rightmost is at a notch, so the next step moves more than the
+     *  rightmost. */
+    private boolean _slowNotch;
+
+    /** Current offsets (setting less Ringstellung) of my moving
+     *  rotors. */
+    private final int[] _offsets;
+}
@@ -0,0 +1,311 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** A snapshot of Main's progress through an input file, from which an
+ *  interrupted run can resume: the state of its machine (rotor order,
+ *  positions, the Ringstellung of every rotor of the catalog, since those
+ *  persist from one settings line to the next, and plugboard), whether a
+ *  settings line has been read, and how many bytes of input had been
+ *  read and of output written when it was taken.
+ *
+ *  The layout, all numbers big-endian, is: MAGIC, VERSION, the alphabet
+ *  size n, flags (CONFIGURED and PLUGGED), and the input and output
+ *  offsets as longs; the number of rotors in the catalog and, for each,
+ *  its name (an int length and that many chars) and Ringstellung; the
+ *  number of rotors inserted (0 if none) and, for each, its name and
+ *  setting; the plugboard, if PLUGGED, as the n images of 0 .. n-1; and
+ *  the CRC-32 of all of that.  A checkpoint is written to a temporary
+ *  file that then replaces the old one, so a reader sees either the old
+ *  checkpoint or the new one, whole.
+ *  @author Mridang Sheth
+ */
+final class Checkpoint {
+
+    /** A checkpoint of MACHINE, which has been configured by a settings
+     *  line iff CONFIGURED, taken after INPUT bytes of input were read and
+     *  OUTPUT bytes of output written. */
+    Checkpoint(Machine machine, boolean configured, long input,
+               long output) {
+        _size = machine.alphabet().size();
+        _configured = configured;
+        _input = input;
+        _output = output;
+        _rings = new TreeMap<String, Integer>();
+        for (String name : machine.catalog().rotors().keySet()) {
+            _rings.put(name, machine.ring(name));
+        }
+        Rotor[] rotors = machine.rotors();
+        int k = rotors == null ? 0 : rotors.length;
+        _rotors = new String[k];
+        _settings = k == 0 ? new int[0] : machine.settings();
+        for (int i = 0; i < k; i++) {
+            _rotors[i] = rotors[i].name();
+        }
+        Permutation plugboard = machine.plugboard();
+        if (plugboard == null) {
+            _plugboard = null;
+        } else {
+            _plugboard = new int[_size];
+            for (int c = 0; c < _size; c++) {
+                _plugboard[c] = plugboard.permute(c);
+            }
+        }
+    }
+
+    /** The checkpoint stored in DATA, from FILE. */
+    private Checkpoint(ByteBuffer data, Path file) {
+        if (data.remaining() < HEADER + Integer.BYTES
+            || data.getInt() != MAGIC || data.getInt() != VERSION) {
+            throw notACheckpoint(file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate().position(0)
+                   .limit(data.limit() - Integer.BYTES));
+        if ((int) crc.getValue() != data.getInt(data.limit()
+                                                - Integer.BYTES)) {
+            throw error("%s is damaged", file);
+        }
+        try {
+            _size = data.getInt();
+            int flags = data.getInt();
+            _configured = (flags & CONFIGURED) != 0;
+            _input = data.getLong();
+            _output = data.getLong();
+            _rings = new TreeMap<String, Integer>();
+            for (int i = data.getInt(); i > 0; i -= 1) {
+                _rings.put(getString(data), data.getInt());
+            }
+            int k = data.getInt();
+            _rotors = new String[k];
+            _settings = new int[k];
+            for (int i = 0; i < k; i++) {
+                _rotors[i] = getString(data);
+                _settings[i] = data.getInt();
+            }
+            if ((flags & PLUGGED) == 0) {
+                _plugboard = null;
+            } else {
+                _plugboard = new int[_size];
+                for (int c = 0; c < _size; c++) {
+                    _plugboard[c] = data.getInt();
+                }
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException
+                 | OutOfMemoryError excp) {
+            throw notACheckpoint(file);
+        }
+        if (data.remaining() != Integer.BYTES || _input < 0
+            || _output < 0) {
+            throw notACheckpoint(file);
+        }
+    }
+
+    /** Return the checkpoint stored in FILE. */
+    static Checkpoint read(Path file) {
+        try {
+            return new Checkpoint(ByteBuffer.wrap(Files.readAllBytes(file)),
+                                  file);
+        } catch (IOException excp) {
+            throw error("could not read %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Store me in FILE, replacing its contents only once all of me has
+     *  been written to the device. */
+    void write(Path file) {
+        ByteBuffer data = ByteBuffer.allocate(bytes());
+        data.putInt(MAGIC).putInt(VERSION).putInt(_size)
+            .putInt((_configured ? CONFIGURED : 0)
+                    | (_plugboard != null ? PLUGGED : 0))
+            .putLong(_input).putLong(_output);
+        data.putInt(_rings.size());
+        for (Map.Entry<String, Integer> e : _rings.entrySet()) {
+            putString(data, e.getKey());
+            data.putInt(e.getValue());
+        }
+        data.putInt(_rotors.length);
+        for (int i = 0; i < _rotors.length; i++) {
+            putString(data, _rotors[i]);
+            data.putInt(_settings[i]);
+        }
+        if (_plugboard != null) {
+            for (int c : _plugboard) {
+                data.putInt(c);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate().flip());
+        data.putInt((int) crc.getValue()).flip();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw error("could not write %s: %s", temp, excp.getMessage());
+        }
+        try {
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw error("could not replace %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Put MACHINE, which must be built from the catalog of the machine I
+     *  was taken from, in the state I record. */
+    void restore(Machine machine) {
+        RotorCatalog catalog = machine.catalog();
+        if (_size != catalog.alphabet().size()
+            || !_rings.keySet().equals(catalog.rotors().keySet())
+            || (_rotors.length != 0
+                && _rotors.length != catalog.numRotors())) {
+            throw mismatch();
+        }
+        for (Map.Entry<String, Integer> e : _rings.entrySet()) {
+            int ring = e.getValue();
+            if (ring < 0 || ring >= _size) {
+                throw mismatch();
+            }
+            machine.setRing(e.getKey(), ring);
+        }
+        if (_rotors.length != 0) {
+            for (int i = 1; i < _rotors.length; i++) {
+                if (_settings[i] < 0 || _settings[i] >= _size) {
+                    throw mismatch();
+                }
+            }
+            machine.insertRotors(_rotors);
+            machine.setRotors(Arrays.copyOfRange(_settings, 1,
+                                                 _settings.length));
+        }
+        machine.setPlugboard(_plugboard == null ? null
+                             : Permutation.fromTable(_plugboard,
+                                                     catalog.alphabet()));
+    }
+
+    /** Return true iff a settings line had been read when I was
+     *  taken. */
+    boolean configured() {
+        return _configured;
+    }
+
+    /** Return the number of bytes of input read when I was taken. */
+    long input() {
+        return _input;
+    }
+
+    /** Return the number of bytes of output written when I was taken. */
+    long output() {
+        return _output;
+    }
+
+    /** Return the number of bytes I occupy in a file. */
+    private int bytes() {
+        int result = HEADER + 2 * Integer.BYTES + Integer.BYTES;
+        for (String name : _rings.keySet()) {
+            result += stringBytes(name) + Integer.BYTES;
+        }
+        for (String name : _rotors) {
+            result += stringBytes(name) + Integer.BYTES;
+        }
+        if (_plugboard != null) {
+            result += _size * Integer.BYTES;
+        }
+        return result;
+    }
+
+    /** Return the number of bytes used to store S. */
+    private static int stringBytes(String s) {
+        return Integer.BYTES + 2 * s.length();
+    }
+
+    /** Store S at the position of BUF. */
+    private static void putString(ByteBuffer buf, String s) {
+        buf.putInt(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf.putChar(s.charAt(i));
+        }
+    }
+
+    /** Return the string stored at the position of BUF. */
+    private static String getString(ByteBuffer buf) {
+        char[] result = new char[buf.getInt()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = buf.getChar();
+        }
+        return new String(result);
+    }
+
+    /** Return an exception reporting that FILE is not a checkpoint of
+     *  this version. */
+    private static EnigmaException notACheckpoint(Path file) {
+        return error("%s is not a version %d checkpoint", file, VERSION);
+    }
+
+    /** Return an exception reporting that I was taken from a machine
+     *  with other rotors. */
+    private static EnigmaException mismatch() {
+        return error("checkpoint was written for a different"
+                     + " configuration");
+    }
+
+    /** First int of a checkpoint: "ECKP". */
+    static final int MAGIC = 0x45434b50;
+
+    /** Version of the layout described above. */
+    static final int VERSION = 1;
+
+    /** Size of the fixed fields before the rotors. */
+    static final int HEADER = 4 * Integer.BYTES + 2 * Long.BYTES;
+
+    /** Flag set iff a settings line had been read. */
+    private static final int CONFIGURED = 1;
+
+    /** Flag set iff the machine had a plugboard. */
+    private static final int PLUGGED = 2;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** True iff a settings line had been read. */
+    private final boolean _configured;
+
+    /** Bytes of input read and of output written. */
+    private final long _input, _output;
+
+    /** Ringstellung of each rotor of the catalog, by name. */
+    private final TreeMap<String, Integer> _rings;
+
+    /** Names of the rotors inserted, reflector first; empty if none. */
+    private final String[] _rotors;
+
+    /** Settings of the rotors inserted. */
+    private final int[] _settings;
+
+    /** Images of 0 .. _size - 1 under the plugboard, or null if there is
+     *  none. */
+    private final int[] _plugboard;
+}
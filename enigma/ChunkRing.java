@@ -0,0 +1,116 @@
+package enigma;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static enigma.EnigmaException.*;
+
+/** A bounded ring of reusable chunks, passed from one producing thread to
+ *  one consuming thread.  The chunks are made once and circulate: the
+ *  producer claims the next free chunk, fills it and publishes it; the
+ *  consumer takes the next published chunk, uses it and releases it back
+ *  to the producer.  The only shared state is a pair of counters, each
+ *  written by one side only, so neither side takes a lock.  A side that
+ *  must wait spins briefly, then yields, then parks for short intervals.
+ *  @author Mridang Sheth
+ */
+final class ChunkRing<T> {
+
+    /** A ring circulating CHUNKS, whose length must be a power of 2. */
+    ChunkRing(T[] chunks) {
+        if (chunks.length == 0 || (chunks.length & (chunks.length - 1)) != 0) {
+            throw error("ring size %d is not a power of 2", chunks.length);
+        }
+        _chunks = chunks.clone();
+        _mask = chunks.length - 1;
+    }
+
+    /** Return the next chunk for the producer to fill, waiting until the
+     *  consumer has released it. */
+    T claim() {
+        long head = _head.get();
+        for (int spins = 0; head - _tail.get() > _mask; spins++) {
+            pause(spins);
+        }
+        return _chunks[(int) head & _mask];
+    }
+
+    /** Pass the chunk returned by the last claim to the consumer. */
+    void publish() {
+        _head.lazySet(_head.get() + 1);
+    }
+
+    /** Note that the producer will publish no more chunks. */
+    void close() {
+        _closed = true;
+    }
+
+    /** Return the next chunk published, waiting until there is one, or
+     *  null if the ring is closed and every chunk published has been
+     *  taken. */
+    T take() {
+        long tail = _tail.get();
+        for (int spins = 0; tail == _head.get(); spins++) {
+            if (_closed && tail == _head.get()) {
+                return null;
+            }
+            pause(spins);
+        }
+        return _chunks[(int) tail & _mask];
+    }
+
+    /** Return the chunk returned by the last take to the producer. */
+    void release() {
+        _tail.lazySet(_tail.get() + 1);
+    }
+
+    /** Abandon the ring: calls of claim and take that wait now or later
+     *  throw CancellationException. */
+    void cancel() {
+        _cancelled = true;
+    }
+
+    /** Wait a little, SPINS being the number of times I have already
+     *  waited for the same thing. */
+    private void pause(int spins) {
+        if (_cancelled) {
+            throw new CancellationException();
+        }
+        if (spins < SPINS) {
+            Thread.onSpinWait();
+        } else if (spins < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /** Number of times to spin before yielding. */
+    private static final int SPINS = 100;
+
+    /** Number of times to yield before parking. */
+    private static final int YIELDS = 10;
+
+    /** Nanoseconds to park for at a time. */
+    private static final long PARK_NANOS = 50_000;
+
+    /** The chunks, chunk #i being used for the i-th publication modulo
+     *  their number. */
+    private final T[] _chunks;
+
+    /** Number of chunks less 1. */
+    private final int _mask;
+
+    /** Number of chunks published, written only by the producer. */
+    private final AtomicLong _head = new AtomicLong();
+
+    /** Number of chunks released, written only by the consumer. */
+    private final AtomicLong _tail = new AtomicLong();
+
+    /** True once the producer has published its last chunk. */
+    private volatile boolean _closed;
+
+    /** True once the ring has been abandoned. */
+    private volatile boolean _cancelled;
+}
@@ -0,0 +1,273 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A flattened encryption engine equivalent to a configured Machine.  The
+ *  reflector and all non-moving rotors are folded into one static
+ *  permutation, the plugboard is folded into the entry and exit tables of
+ *  the rightmost moving rotor, and the moving rotors are reduced to their
+ *  shifted tables, notch tables and primitive offsets.  For alphabets too
+ *  large for shifted tables (see Permutation.hasShiftedTables), the
+ *  moving rotors compute the same entries from their offsets, and the
+ *  plugboard is applied on its own.  Converting a character allocates
+ *  nothing.
+ *  @author Mridang Sheth
+ */
+final class CompiledMachine {
+
+    /** An engine for ROTORS (ROTORS[0] being the reflector, followed by
+     *  the non-moving rotors and then the moving rotors, as installed by
+     *  Machine.insertRotors) in which rotor #k has setting SETTINGS[k] and
+     *  Ringstellung RINGS[k], with plugboard PLUGBOARD (null if none). */
+    CompiledMachine(Alphabet alphabet, Rotor[] rotors, int[] settings,
+                    int[] rings, Permutation plugboard) {
+        int n = alphabet.size();
+        int m = 0;
+        while (m < rotors.length && rotors[rotors.length - 1 - m].rotates()) {
+            m++;
+        }
+        int fixed = rotors.length - m;
+        if (fixed < 1) {
+            throw error("compiled machine needs a reflector");
+        }
+        _alphabet = alphabet;
+        _size = n;
+        _tables = n <= Permutation.MAX_SHIFTED;
+        _wirings = new Permutation[m];
+        _fwd = new int[m][];
+        _bwd = new int[m][];
+        _notch = new boolean[m][];
+        _rings = new int[m];
+        _offsets = new int[m];
+        for (int k = 0; k < m; k++) {
+            Rotor r = rotors[fixed + k];
+            _wirings[k] = r.permutation();
+            if (_tables) {
+                _fwd[k] = r.permutation().shiftedForward();
+                _bwd[k] = r.permutation().shiftedInverse();
+            }
+            _rings[k] = rings[fixed + k];
+            _offsets[k] = wrap(settings[fixed + k] - _rings[k]);
+            _notch[k] = new boolean[n];
+            for (int off = 0; off < n; off++) {
+                _notch[k][off] = r.notchAt(wrap(off + _rings[k]));
+            }
+        }
+
+        _reflect = reflection(rotors, fixed, settings, rings);
+
+        _plugboard = _tables || m == 0 ? null : plugboard;
+        if (plugboard != null && _plugboard == null) {
+            if (m == 0) {
+                int[] reflect = new int[n];
+                for (int c = 0; c < n; c++) {
+                    int x = _reflect[plugboard.permute(c)];
+                    reflect[c] = plugboard.invert(x);
+                }
+                _reflect = reflect;
+            } else {
+                int[] fwd = new int[n * n], bwd = new int[n * n];
+                int[] fwd0 = _fwd[m - 1], bwd0 = _bwd[m - 1];
+                for (int row = 0; row < n * n; row += n) {
+                    for (int c = 0; c < n; c++) {
+                        fwd[row + c] = fwd0[row + plugboard.permute(c)];
+                        bwd[row + c] = plugboard.invert(bwd0[row + c]);
+                    }
+                }
+                _fwd[m - 1] = fwd;
+                _bwd[m - 1] = bwd;
+            }
+        }
+    }
+
+    /** A copy of ORIGINAL that shares its tables but has its own rotor
+     *  offsets. */
+    private CompiledMachine(CompiledMachine original) {
+        _alphabet = original._alphabet;
+        _size = original._size;
+        _tables = original._tables;
+        _wirings = original._wirings;
+        _plugboard = original._plugboard;
+        _fwd = original._fwd;
+        _bwd = original._bwd;
+        _notch = original._notch;
+        _rings = original._rings;
+        _reflect = original._reflect;
+        _offsets = original._offsets.clone();
+    }
+
+    /** Return an independent engine in my current state that shares my
+     *  tables. */
+    CompiledMachine copy() {
+        return new CompiledMachine(this);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of moving rotors I have. */
+    int numMoving() {
+        return _offsets.length;
+    }
+
+    /** Return the setting of moving rotor #K, counting from the leftmost
+     *  moving rotor as 0. */
+    int position(int k) {
+        return wrap(_offsets[k] + _rings[k]);
+    }
+
+    /** Set moving rotor #K (counting from the leftmost moving rotor as 0)
+     *  to setting POSN. */
+    void setPosition(int k, int posn) {
+        _offsets[k] = wrap(posn - _rings[k]);
+    }
+
+    /** Returns the result of converting the input character C (as an
+     *  index in the range 0..alphabet size - 1), after first advancing
+     *  the machine, exactly as Machine.convert(int) does. */
+    int convert(int c) {
+        step();
+        return substitute(c);
+    }
+
+    /** Convert the characters TEXT[START .. END-1] in place, passing
+     *  blanks, tabs and newlines through unchanged, as
+     *  Machine.convert(String) does.  My alphabet must consist of single
+     *  chars. */
+    void convert(char[] text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char ch = text[i];
+            if (ch != ' ' && ch != '\t' && ch != '\n') {
+                text[i] = _alphabet.toChar(convert(_alphabet.toInt(ch)));
+            }
+        }
+    }
+
+    /** Advance my moving rotors as for one key press. */
+    void step() {
+        int[] offsets = _offsets;
+        int m = offsets.length;
+        if (m == 0) {
+            return;
+        }
+        boolean here = false;
+        for (int k = 0; k < m; k++) {
+            boolean right = k + 1 < m && _notch[k + 1][offsets[k + 1]];
+            if (k == m - 1 || right || here) {
+                int off = offsets[k] + 1;
+                offsets[k] = off == _size ? 0 : off;
+            }
+            here = right;
+        }
+    }
+
+    /** Return the image of C under my current substitution, without
+     *  advancing. */
+    int substitute(int c) {
+        if (!_tables) {
+            return substituteWithoutTables(c);
+        }
+        int n = _size;
+        int[] offsets = _offsets;
+        for (int k = offsets.length - 1; k >= 0; k--) {
+            c = _fwd[k][offsets[k] * n + c];
+        }
+        c = _reflect[c];
+        for (int k = 0; k < offsets.length; k++) {
+            c = _bwd[k][offsets[k] * n + c];
+        }
+        return c;
+    }
+
+    /** Return substitute(C) for an alphabet without shifted tables. */
+    private int substituteWithoutTables(int c) {
+        int[] offsets = _offsets;
+        if (_plugboard != null) {
+            c = _plugboard.permute(c);
+        }
+        for (int k = offsets.length - 1; k >= 0; k--) {
+            c = _wirings[k].shiftForward(offsets[k], c);
+        }
+        c = _reflect[c];
+        for (int k = 0; k < offsets.length; k++) {
+            c = _wirings[k].shiftInverse(offsets[k], c);
+        }
+        if (_plugboard != null) {
+            c = _plugboard.invert(c);
+        }
+        return c;
+    }
+
+    /** Return the combined permutation, as a table, of the reflector
+     *  ROTORS[0] and the non-moving rotors ROTORS[1 .. FIXED-1], where
+     *  rotor #i has setting SETTINGS[i] and Ringstellung RINGS[i]: the
+     *  path from the rightmost of them to the reflector and back. */
+    static int[] reflection(Rotor[] rotors, int fixed, int[] settings,
+                            int[] rings) {
+        int n = rotors[0].size();
+        int[] result = new int[n];
+        for (int c = 0; c < n; c++) {
+            int x = c;
+            for (int i = fixed - 1; i >= 0; i--) {
+                x = fixedTable(rotors[i], settings[i], rings[i], true, x);
+            }
+            for (int i = 1; i < fixed; i++) {
+                x = fixedTable(rotors[i], settings[i], rings[i], false, x);
+            }
+            result[c] = x;
+        }
+        return result;
+    }
+
+    /** Return the image of X passing through non-moving rotor R at setting
+     *  SETTING and Ringstellung RING, in the FORWARD direction or back. */
+    private static int fixedTable(Rotor r, int setting, int ring,
+                                  boolean forward, int x) {
+        int d = Math.floorMod(setting - ring, r.size());
+        return forward ? r.permutation().shiftForward(d, x)
+            : r.permutation().shiftInverse(d, x);
+    }
+
+    /** Return P modulo my alphabet size. */
+    private int wrap(int p) {
+        int r = p % _size;
+        return r < 0 ? r + _size : r;
+    }
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** True iff my moving rotors use shifted tables. */
+    private final boolean _tables;
+
+    /** Permutations of my moving rotors, leftmost first. */
+    private final Permutation[] _wirings;
+
+    /** The plugboard, when it is not folded into my tables, or null. */
+    private final Permutation _plugboard;
+
+    /** Shifted forward tables of my moving rotors, leftmost first, or
+     *  nulls if !_tables. */
+    private final int[][] _fwd;
+
+    /** Shifted inverse tables of my moving rotors, leftmost first. */
+    private final int[][] _bwd;
+
+    /** _notch[k][d] is true iff moving rotor #k is at a notch when its
+     *  offset is d. */
+    private final boolean[][] _notch;
+
+    /** Ringstellungs of my moving rotors. */
+    private final int[] _rings;
+
+    /** The combined permutation of my reflector and non-moving rotors. */
+    private int[] _reflect;
+
+    /** Current offsets (setting less Ringstellung) of my moving rotors. */
+    private final int[] _offsets;
+}
@@ -0,0 +1,341 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static enigma.EnigmaException.*;
+
+/** An index of the places where cribs may lie in a large corpus of
+ *  ciphertext.  Since an Enigma never enciphers a letter to itself, a
+ *  crib cannot lie at any position where one of its letters is above the
+ *  same ciphertext letter; every other position is admissible.
+ *
+ *  The corpus is a file of letters of a given alphabet, which must
+ *  consist of single-byte (ISO-8859-1) characters; whitespace is
+ *  ignored, and positions count letters only.  The file is memory-mapped
+ *  and split into chunks that are scanned in parallel.  Each chunk is
+ *  encoded as letter indices, and for each letter x a bit set records
+ *  the positions at which x occurs.  For a crib k, the inadmissible
+ *  positions are then the OR, over i, of the bit set of letter k[i]
+ *  shifted down by i, which takes about length(k) / 64 word operations
+ *  per letter of text.
+ *  @author Mridang Sheth
+ */
+final class CribIndex {
+
+    /** A crib CRIB (as an index among the cribs searched for) that may
+     *  lie at letter POSITION of the corpus. */
+    static final class Alignment {
+
+        /** An alignment of crib #CRIB at POSITION. */
+        Alignment(int crib, long position) {
+            _crib = crib;
+            _position = position;
+        }
+
+        /** Return the index of my crib. */
+        int crib() {
+            return _crib;
+        }
+
+        /** Return the position in the corpus, counting letters from 0, of
+         *  my crib's first letter. */
+        long position() {
+            return _position;
+        }
+
+        @Override
+        public String toString() {
+            return _position + " " + _crib;
+        }
+
+        /** Index of my crib. */
+        private final int _crib;
+        /** Position of my crib. */
+        private final long _position;
+    }
+
+    /** An index of the corpus in the file CORPUS, whose letters are in
+     *  ALPHABET. */
+    CribIndex(Alphabet alphabet, Path corpus) {
+        _alphabet = alphabet;
+        _codes = new byte[BYTE_VALUES];
+        Arrays.fill(_codes, INVALID);
+        for (char ch : new char[] { ' ', '\t', '\n', '\r', '\f' }) {
+            _codes[ch] = BLANK;
+        }
+        if (alphabet.size() > Byte.MAX_VALUE) {
+            throw error("crib index alphabets are limited to %d letters",
+                        Byte.MAX_VALUE);
+        }
+        for (int c = 0; c < alphabet.size(); c++) {
+            char ch = alphabet.toChar(c);
+            if (ch >= BYTE_VALUES) {
+                throw error("crib index alphabets must be ISO-8859-1");
+            }
+            _codes[ch] = (byte) c;
+        }
+        try (FileChannel channel = FileChannel.open(corpus)) {
+            _size = channel.size();
+            int segments = (int) ((_size + SEGMENT - 1) / SEGMENT);
+            _segments = new MappedByteBuffer[segments];
+            for (int s = 0; s < segments; s++) {
+                long start = (long) s * SEGMENT;
+                _segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        start, Math.min(SEGMENT, _size - start));
+            }
+        } catch (IOException excp) {
+            throw error("could not map %s: %s", corpus, excp.getMessage());
+        }
+        int chunks = (int) ((_size + CHUNK - 1) / CHUNK);
+        long[] starts = new long[chunks + 1];
+        IntStream.range(0, chunks).parallel()
+            .forEach(c -> starts[c + 1] = countLetters(c));
+        for (int c = 0; c < chunks; c++) {
+            starts[c + 1] += starts[c];
+        }
+        _starts = starts;
+    }
+
+    /** Return the number of letters in my corpus. */
+    long length() {
+        return _starts[_starts.length - 1];
+    }
+
+    /** Return the admissible alignments of CRIBS (each as alphabet
+     *  indices), ordered by position and then by crib.  The corpus is
+     *  scanned, in parallel, as the result is consumed. */
+    Stream<Alignment> admissible(List<int[]> cribs) {
+        int[][] all = cribs.toArray(new int[cribs.size()][]);
+        int longest = 0;
+        for (int[] crib : all) {
+            if (crib.length == 0) {
+                throw error("empty crib");
+            }
+            for (int c : crib) {
+                if (c < 0 || c >= _alphabet.size()) {
+                    throw error("crib letter out of range");
+                }
+            }
+            longest = Math.max(longest, crib.length);
+        }
+        int maxLength = longest;
+        return IntStream.range(0, _starts.length - 1).parallel()
+            .mapToObj(c -> scan(c, all, maxLength))
+            .flatMap(codes -> Arrays.stream(codes).mapToObj(
+                    code -> new Alignment((int) (code % all.length),
+                                          code / all.length)));
+    }
+
+    /** Return the alignments of CRIBS, the longest having MAXLENGTH
+     *  letters, starting in chunk #C, each coded as position * number of
+     *  cribs + crib index, in increasing order. */
+    private long[] scan(int c, int[][] cribs, int maxLength) {
+        long first = (long) c * CHUNK;
+        long end = Math.min(_size, first + CHUNK);
+        int letters = (int) (_starts[c + 1] - _starts[c]);
+        int padWords = (maxLength >>> 6) + 2;
+        int words = ((letters + maxLength + 63) >>> 6) + padWords;
+        long[][] occurs = new long[_alphabet.size()][words];
+        MappedByteBuffer segment = _segments[(int) (first / SEGMENT)];
+        int base = (int) (first % SEGMENT);
+        int count = (int) (end - first);
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            int code = _codes[segment.get(base + i) & (BYTE_VALUES - 1)];
+            if (code >= 0) {
+                occurs[code][total >>> 6] |= 1L << total;
+                total += 1;
+            }
+        }
+        for (long p = end; p < _size && total < letters + maxLength - 1;
+             p++) {
+            int code = code(p);
+            if (code >= 0) {
+                occurs[code][total >>> 6] |= 1L << total;
+                total += 1;
+            }
+        }
+
+        int chunkWords = (letters + 63) >>> 6;
+        long[][] admissible = new long[cribs.length][];
+        long[] any = new long[chunkWords];
+        for (int k = 0; k < cribs.length; k++) {
+            int[] crib = cribs[k];
+            long[] blocked = new long[chunkWords];
+            for (int i = 0; i < crib.length; i++) {
+                long[] bits = occurs[crib[i]];
+                int skip = i >>> 6, shift = i & 63;
+                if (shift == 0) {
+                    for (int w = 0; w < chunkWords; w++) {
+                        blocked[w] |= bits[w + skip];
+                    }
+                } else {
+                    for (int w = 0; w < chunkWords; w++) {
+                        blocked[w] |= (bits[w + skip] >>> shift)
+                            | (bits[w + skip + 1] << (64 - shift));
+                    }
+                }
+            }
+            int limit = Math.min(letters, total - crib.length + 1);
+            for (int w = 0; w < chunkWords; w++) {
+                blocked[w] = ~blocked[w] & validBits(w, limit);
+                any[w] |= blocked[w];
+            }
+            admissible[k] = blocked;
+        }
+
+        int found = 0;
+        for (int k = 0; k < cribs.length; k++) {
+            for (long word : admissible[k]) {
+                found += Long.bitCount(word);
+            }
+        }
+        long[] result = new long[found];
+        int n = 0;
+        long start = _starts[c];
+        for (int w = 0; w < chunkWords; w++) {
+            for (long bits = any[w]; bits != 0; bits &= bits - 1) {
+                int b = Long.numberOfTrailingZeros(bits);
+                long position = start + (w << 6) + b;
+                for (int k = 0; k < cribs.length; k++) {
+                    if ((admissible[k][w] & (1L << b)) != 0) {
+                        result[n++] = position * cribs.length + k;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the mask of positions in word W that are less than
+     *  LIMIT. */
+    private static long validBits(int w, int limit) {
+        int below = limit - (w << 6);
+        if (below <= 0) {
+            return 0;
+        } else if (below >= 64) {
+            return -1L;
+        }
+        return (1L << below) - 1;
+    }
+
+    /** Return the number of letters in chunk #C, checking that it holds
+     *  only letters and whitespace. */
+    private long countLetters(int c) {
+        long first = (long) c * CHUNK;
+        int count = (int) (Math.min(_size, first + CHUNK) - first);
+        MappedByteBuffer segment = _segments[(int) (first / SEGMENT)];
+        int base = (int) (first % SEGMENT);
+        long result = 0;
+        for (int i = 0; i < count; i++) {
+            int code = _codes[segment.get(base + i) & (BYTE_VALUES - 1)];
+            if (code >= 0) {
+                result += 1;
+            } else if (code == INVALID) {
+                throw invalid(first + i);
+            }
+        }
+        return result;
+    }
+
+    /** Return the alphabet index of the byte at offset P of the corpus,
+     *  or BLANK if it is whitespace. */
+    private int code(long p) {
+        byte b = _segments[(int) (p / SEGMENT)].get((int) (p % SEGMENT));
+        int code = _codes[b & (BYTE_VALUES - 1)];
+        if (code == INVALID) {
+            throw invalid(p);
+        }
+        return code;
+    }
+
+    /** Return an exception reporting the invalid byte at offset P of the
+     *  corpus. */
+    private EnigmaException invalid(long p) {
+        byte b = _segments[(int) (p / SEGMENT)].get((int) (p % SEGMENT));
+        return error("character %c at byte %d of corpus is not part of"
+                     + " the alphabet", (char) (b & (BYTE_VALUES - 1)), p);
+    }
+
+    /** Print the admissible alignments in a corpus, as specified by ARGS:
+     *  ARGS[0] names a configuration file, whose alphabet is used,
+     *  ARGS[1] the corpus file, and the remaining ARGS are the cribs.
+     *  Each alignment is printed as its position followed by the
+     *  crib. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 3) {
+                throw error("Usage: java enigma.CribIndex CONFIG CORPUS"
+                            + " CRIB ...");
+            }
+            Alphabet alphabet = Main.readCatalog(args[0]).alphabet();
+            long start = System.nanoTime();
+            CribIndex index = new CribIndex(alphabet, Paths.get(args[1]));
+            List<int[]> cribs = new ArrayList<int[]>();
+            for (int i = 2; i < args.length; i++) {
+                int[] crib = new int[args[i].length()];
+                for (int j = 0; j < crib.length; j++) {
+                    crib[j] = alphabet.toInt(args[i].charAt(j));
+                }
+                cribs.add(crib);
+            }
+            GroupingWriter out =
+                new GroupingWriter(Channels.newChannel(System.out),
+                                   Charset.defaultCharset());
+            long[] found = new long[1];
+            index.admissible(cribs).forEachOrdered(a -> {
+                out.writeText(a.position() + " " + args[2 + a.crib()]);
+                found[0] += 1;
+            });
+            out.flush();
+            System.err.printf("%d admissible alignments in %d letters,"
+                              + " %.3f s%n", found[0], index.length(),
+                              (System.nanoTime() - start) / 1e9);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Bytes of the corpus per chunk. */
+    static final int CHUNK = 1 << 20;
+
+    /** Bytes of the corpus per mapped segment, a multiple of CHUNK. */
+    private static final long SEGMENT = 1L << 30;
+
+    /** Number of distinct byte values. */
+    private static final int BYTE_VALUES = 256;
+
+    /** Code of bytes that are whitespace. */
+    private static final byte BLANK = -1;
+
+    /** Code of bytes that may not appear in the corpus. */
+    private static final byte INVALID = -2;
+
+    /** The alphabet of the corpus. */
+    private final Alphabet _alphabet;
+
+    /** _codes[b] is the alphabet index of byte b, or BLANK or INVALID. */
+    private final byte[] _codes;
+
+    /** Size of the corpus in bytes. */
+    private final long _size;
+
+    /** The corpus, mapped in segments of SEGMENT bytes. */
+    private final MappedByteBuffer[] _segments;
+
+    /** _starts[c] is the number of letters before chunk #c; the last
+     *  element is the total. */
+    private final long[] _starts;
+}
@@ -0,0 +1,93 @@
+package enigma;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/** A Reader that delivers the conversion by a Machine of the characters
+ *  read from another Reader.  Blanks, tabs and newlines pass through
+ *  unchanged.  The machine's state carries over from one read to the
+ *  next, so the result does not depend on how reads are sized.  The
+ *  machine's metrics are flushed when a multi-character read reaches
+ *  the end of a line, and on close.
+ *  @author Mridang Sheth
+ */
+class EnigmaReader extends FilterReader {
+
+    /** A Reader delivering the conversion of the characters of IN by
+     *  MACHINE, which is advanced as characters are read. */
+    EnigmaReader(Reader in, Machine machine) {
+        super(in);
+        _machine = machine;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int c = in.read();
+        return c == -1 ? -1 : _machine.convertChar((char) c);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        int n = in.read(cbuf, off, len);
+        boolean newline = false;
+        for (int i = off; i < off + n; i++) {
+            cbuf[i] = _machine.convertChar(cbuf[i]);
+            newline |= cbuf[i] == '\n';
+        }
+        if (newline) {
+            _machine.flushMetrics();
+        }
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            _machine.flushMetrics();
+        }
+    }
+
+    /** Skip up to N characters.  Skipped characters still advance the
+     *  machine, so they are read and converted, then discarded. */
+    @Override
+    public long skip(long n) throws IOException {
+        if (n < 0) {
+            throw new IllegalArgumentException("skip value is negative");
+        }
+        char[] buffer = new char[(int) Math.min(n, SKIP_BUFFER_SIZE)];
+        long skipped = 0;
+        while (skipped < n) {
+            int k = read(buffer, 0, (int) Math.min(n - skipped,
+                                                   buffer.length));
+            if (k == -1) {
+                break;
+            }
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+
+    /** Largest buffer used by skip. */
+    private static final int SKIP_BUFFER_SIZE = 8192;
+
+    /** The machine converting my input. */
+    private final Machine _machine;
+}
@@ -0,0 +1,269 @@
+package enigma;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+
+import static enigma.EnigmaException.*;
+
+/** A local encryption service.  Each connection is a session with a
+ *  machine built from one shared RotorCatalog, and speaks the language
+ *  of Main's input files: a line starting with '*' configures the
+ *  session, an empty line is echoed, and any other line is converted and
+ *  sent back in groups of five.  An error (for example a bad settings
+ *  line, or a message before any settings) is reported on a line of its
+ *  own starting with "Error: ", after which the connection is closed.
+ *
+ *  Each connection is handled by one blocking thread: a virtual thread
+ *  when the Java runtime provides them, and otherwise a pooled platform
+ *  thread.  A connection reads through a fixed buffer, refuses over-long
+ *  lines, and stops reading while its output cannot be sent, so a slow
+ *  client holds back only itself.  Replies are sent whenever no further
+ *  complete line is waiting to be converted.  At most a fixed number of
+ *  sessions run at once; beyond that, new connections wait in the
+ *  listen queue.
+ *  @author Mridang Sheth
+ */
+final class EnigmaServer {
+
+    /** A server for machines built from CATALOG that runs at most
+     *  MAXSESSIONS sessions at once. */
+    EnigmaServer(RotorCatalog catalog, int maxSessions) {
+        this(catalog, maxSessions, null);
+    }
+
+    /** A server for machines built from CATALOG that runs at most
+     *  MAXSESSIONS sessions at once, all of which take keystream tables
+     *  from KEYSTREAMS (none if null). */
+    EnigmaServer(RotorCatalog catalog, int maxSessions,
+                 KeystreamCache keystreams) {
+        _catalog = catalog;
+        _sessions = new Semaphore(maxSessions);
+        _settingsCache = new ConcurrentHashMap<String, Settings[]>();
+        _keystreams = keystreams;
+    }
+
+    /** Return the address denoted by ADDRESS: the loopback interface at
+     *  that port if ADDRESS is a number, and otherwise the Unix domain
+     *  socket with that path. */
+    static SocketAddress address(String address) {
+        if (PORT.matcher(address).matches()) {
+            int port = Integer.parseInt(address);
+            if (port > MAX_PORT) {
+                throw error("invalid port number: %s", address);
+            }
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                         port);
+        }
+        return UnixDomainSocketAddress.of(address);
+    }
+
+    /** Listen at ADDRESS (see address(String)) and serve connections
+     *  until the listening channel is closed or fails.  A Unix domain
+     *  socket file is removed when the JVM exits. */
+    void serve(String address) {
+        SocketAddress local = address(address);
+        ServerSocketChannel server;
+        try {
+            if (local instanceof UnixDomainSocketAddress) {
+                server =
+                    ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            } else {
+                server = ServerSocketChannel.open();
+                server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            }
+            server.bind(local, BACKLOG);
+        } catch (IOException excp) {
+            throw error("could not listen at %s: %s", address,
+                        excp.getMessage());
+        }
+        if (local instanceof UnixDomainSocketAddress) {
+            Path path = ((UnixDomainSocketAddress) local).getPath();
+            Runtime.getRuntime().addShutdownHook(
+                new Thread(() -> removeSocket(path)));
+        }
+        serve(server);
+    }
+
+    /** Remove the Unix domain socket file at PATH, if it is still
+     *  there, so that the address can be used again. */
+    private static void removeSocket(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException excp) {
+            /* Nothing more to do. */
+        }
+    }
+
+    /** Serve connections accepted from SERVER until it is closed or
+     *  fails. */
+    void serve(ServerSocketChannel server) {
+        ExecutorService executor = newExecutor();
+        try {
+            while (true) {
+                _sessions.acquireUninterruptibly();
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException excp) {
+                    _sessions.release();
+                    return;
+                } catch (IOException excp) {
+                    _sessions.release();
+                    throw error("could not accept connection: %s",
+                                excp.getMessage());
+                }
+                executor.execute(() -> {
+                    try {
+                        handle(client);
+                    } finally {
+                        _sessions.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** Run the session for CLIENT, closing it when done. */
+    private void handle(SocketChannel client) {
+        try (client) {
+            if (client.getLocalAddress() instanceof InetSocketAddress) {
+                client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            LineReader in = new LineReader(client, CHARSET, MAX_LINE,
+                                           BUFFER_SIZE);
+            GroupingWriter out = new GroupingWriter(client, CHARSET,
+                                                    BUFFER_SIZE);
+            try {
+                converse(in, out);
+                out.flush();
+            } catch (EnigmaException excp) {
+                out.writeText("Error: " + excp.getMessage());
+                out.flush();
+            }
+        } catch (IOException | EnigmaException excp) {
+            /* The client has gone; there is no one to tell. */
+        }
+    }
+
+    /** Process the lines from IN, sending replies to OUT, as Main
+     *  processes its input. */
+    private void converse(LineReader in, GroupingWriter out) {
+        Session session = _catalog.newSession(_keystreams);
+        MachineMetrics metrics = MachineMetrics.current();
+        for (String line = in.readLine(); line != null;
+             line = in.readLine()) {
+            line = line.trim();
+            long start = metrics == null ? 0 : System.nanoTime();
+            if (line.isEmpty()) {
+                out.writeLine("");
+            } else if (line.charAt(0) == '*') {
+                session.setUp(settings(line.substring(1).trim()));
+                if (metrics != null) {
+                    metrics.settings(System.nanoTime() - start);
+                }
+            } else if (session.configured()) {
+                String converted = session.convert(line);
+                if (metrics != null) {
+                    metrics.message(letters(line), System.nanoTime() - start,
+                                    true);
+                }
+                out.writeLine(converted);
+            } else {
+                throw error("Machine not configured yet,"
+                        + "possibly because no settings line provided.");
+            }
+            if (!in.lineBuffered()) {
+                out.flush();
+            }
+        }
+    }
+
+    /** Return the number of characters of LINE that are not blanks,
+     *  tabs or newlines. */
+    private static int letters(String line) {
+        int result = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (ch != ' ' && ch != '\t' && ch != '\n') {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return the parsed form of settings line SETTINGS, remembering
+     *  the first Main.SETTINGS_CACHE_SIZE distinct lines seen. */
+    private Settings[] settings(String settings) {
+        Settings[] parsed = _settingsCache.get(settings);
+        if (parsed == null) {
+            parsed = Main.parseSettings(_catalog, settings);
+            if (_settingsCache.size() < Main.SETTINGS_CACHE_SIZE) {
+                _settingsCache.putIfAbsent(settings, parsed);
+            }
+        }
+        return parsed;
+    }
+
+    /** Return an executor that runs each task on a new virtual thread, or,
+     *  where the runtime has none, on a pooled platform thread. */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /** Default limit on the number of simultaneous sessions. */
+    static final int MAX_SESSIONS = 10000;
+
+    /** Character set used on connections. */
+    static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    /** Greatest length in bytes of a line sent to the server. */
+    static final int MAX_LINE = 1 << 20;
+
+    /** Size of each connection's input and output buffers. */
+    private static final int BUFFER_SIZE = 1 << 12;
+
+    /** Length of the queue of connections waiting to be accepted. */
+    private static final int BACKLOG = 1024;
+
+    /** Greatest TCP port number. */
+    private static final int MAX_PORT = 65535;
+
+    /** Pattern matching a port number. */
+    private static final Pattern PORT = Pattern.compile("\\d{1,5}");
+
+    /** The rotors shared by all sessions. */
+    private final RotorCatalog _catalog;
+
+    /** Permits for sessions not yet started. */
+    private final Semaphore _sessions;
+
+    /** Settings lines seen, with their parsed forms. */
+    private final ConcurrentHashMap<String, Settings[]> _settingsCache;
+
+    /** Keystream tables shared by all sessions, or null if none. */
+    private final KeystreamCache _keystreams;
+}
@@ -0,0 +1,83 @@
+package enigma;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/** A Writer that passes on the conversion by a Machine of the characters
+ *  written to it.  Blanks, tabs and newlines pass through unchanged.
+ *  Conversion goes through one fixed-size buffer, so writing allocates
+ *  nothing and never modifies the caller's arrays.  The machine's state
+ *  carries over from one write to the next.  The machine's metrics are
+ *  flushed by flush and close.
+ *  @author Mridang Sheth
+ */
+class EnigmaWriter extends FilterWriter {
+
+    /** A Writer sending the conversion by MACHINE of the characters
+     *  written to it on to OUT. */
+    EnigmaWriter(Writer out, Machine machine) {
+        super(out);
+        _machine = machine;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        out.write(_machine.convertChar((char) c));
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, _buffer.length);
+            for (int i = 0; i < n; i++) {
+                _buffer[i] = _machine.convertChar(cbuf[off + i]);
+            }
+            out.write(_buffer, 0, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, _buffer.length);
+            str.getChars(off, off + n, _buffer, 0);
+            for (int i = 0; i < n; i++) {
+                _buffer[i] = _machine.convertChar(_buffer[i]);
+            }
+            out.write(_buffer, 0, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        try {
+            super.flush();
+        } finally {
+            _machine.flushMetrics();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            _machine.flushMetrics();
+        }
+    }
+
+    /** Size of the conversion buffer. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The machine converting my output. */
+    private final Machine _machine;
+
+    /** Holds converted characters on their way to the underlying
+     *  Writer. */
+    private final char[] _buffer = new char[BUFFER_SIZE];
+}
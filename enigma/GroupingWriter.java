@@ -0,0 +1,140 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import static enigma.EnigmaException.*;
+
+/** Writes message lines in groups of five characters, as Main prints
+ *  them.  Lines are formatted into one reusable character buffer, which
+ *  is encoded into one reusable direct byte buffer and written to a
+ *  channel in large blocks.
+ *  @author Mridang Sheth
+ */
+class GroupingWriter {
+
+    /** A writer sending its output to OUT, encoded in CHARSET. */
+    GroupingWriter(WritableByteChannel out, Charset charset) {
+        this(out, charset, BUFFER_SIZE);
+    }
+
+    /** A writer sending its output to OUT, encoded in CHARSET, that
+     *  buffers up to BUFFERSIZE characters. */
+    GroupingWriter(WritableByteChannel out, Charset charset,
+                   int bufferSize) {
+        _out = out;
+        _encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _chars = CharBuffer.allocate(bufferSize);
+        _bytes = ByteBuffer.allocateDirect(
+            (int) (bufferSize * _encoder.maxBytesPerChar()));
+    }
+
+    /** Write MSG, less its blanks, tabs and newlines, in groups of five
+     *  characters (code points) separated by single blanks (the last
+     *  group may have fewer), and end the line. */
+    void writeLine(CharSequence msg) {
+        int letters = 0;
+        for (int i = 0; i < msg.length(); i++) {
+            char c = msg.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n') {
+                continue;
+            }
+            if (Character.isLowSurrogate(c) && i > 0
+                && Character.isHighSurrogate(msg.charAt(i - 1))) {
+                put(c);
+                continue;
+            }
+            if (letters != 0 && letters % GROUP == 0) {
+                put(' ');
+            }
+            put(c);
+            letters++;
+        }
+        for (int i = 0; i < LINE_SEPARATOR.length(); i++) {
+            put(LINE_SEPARATOR.charAt(i));
+        }
+    }
+
+    /** Write TEXT as it is, followed by a line separator. */
+    void writeText(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            put(text.charAt(i));
+        }
+        for (int i = 0; i < LINE_SEPARATOR.length(); i++) {
+            put(LINE_SEPARATOR.charAt(i));
+        }
+    }
+
+    /** Write out everything buffered so far. */
+    void flush() {
+        _chars.flip();
+        try {
+            while (true) {
+                CoderResult result = _encoder.encode(_chars, _bytes, false);
+                drain();
+                if (result.isUnderflow()) {
+                    break;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+        _chars.compact();
+    }
+
+    /** Flush me and close my channel. */
+    void close() {
+        flush();
+        try {
+            _out.close();
+        } catch (IOException excp) {
+            throw error("could not close output: %s", excp.getMessage());
+        }
+    }
+
+    /** Buffer C, writing out the buffer first if it is full. */
+    private void put(char c) {
+        if (!_chars.hasRemaining()) {
+            flush();
+        }
+        _chars.put(c);
+    }
+
+    /** Write the contents of _bytes to _out. */
+    private void drain() throws IOException {
+        _bytes.flip();
+        while (_bytes.hasRemaining()) {
+            _out.write(_bytes);
+        }
+        _bytes.clear();
+    }
+
+    /** Number of characters in a group. */
+    private static final int GROUP = 5;
+
+    /** Characters buffered before encoding. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Ends each line, as for PrintStream.println. */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /** Destination of output. */
+    private final WritableByteChannel _out;
+
+    /** Converts my characters to bytes. */
+    private final CharsetEncoder _encoder;
+
+    /** Characters formatted but not yet encoded. */
+    private final CharBuffer _chars;
+
+    /** Encoded bytes not yet written. */
+    private final ByteBuffer _bytes;
+}
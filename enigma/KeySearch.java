@@ -0,0 +1,654 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only search for the key of an Enigma message, in three
+ *  stages, each spread over a ForkJoinPool.
+ *
+ *  1. Every given rotor order is tried at every combination of settings
+ *     of its rotors (the reflector aside), with all Ringstellungs at the
+ *     first letter and no plugboard.  Each trial decrypts the text and
+ *     scores the result by its index of coincidence (IoC), normalized
+ *     so that random text scores about 1.  The best trials are kept.
+ *     A trial is abandoned once a prefix of the text scores so far below
+ *     the worst score still kept that, allowing for the sampling noise in
+ *     a prefix of that length, it is not worth finishing.  This pruning
+ *     is a heuristic; it can only lose keys whose prefixes look random.
+ *  2. For each kept key, the Ringstellungs of the two rightmost moving
+ *     rotors are varied together with their settings so that the
+ *     starting substitution is unchanged but the turnovers move.
+ *  3. For each key, the plugboard is found by hill climbing: pairs of
+ *     letters are plugged, unplugged or re-paired while the IoC rises.
+ *
+ *  Decryptions use CompiledMachine engines, whose tables come from the
+ *  shared rotors of a RotorCatalog; the rotors themselves are not
+ *  touched.
+ *  @author Mridang Sheth
+ */
+final class KeySearch {
+
+    /** Search for the key of a message in the alphabet of CATALOG whose
+     *  ciphertext is the TEXT (as alphabet indices), trying the rotor
+     *  ORDERS (each as returned by CATALOG.selectRotors), and reporting
+     *  the TOPK best keys. */
+    KeySearch(RotorCatalog catalog, List<Rotor[]> orders, int[] text,
+              int topK) {
+        if (text.length < 2) {
+            throw error("ciphertext too short to score");
+        }
+        if (orders.isEmpty()) {
+            throw error("no rotor orders to search");
+        }
+        _alphabet = catalog.alphabet();
+        _size = _alphabet.size();
+        _orders = orders.toArray(new Rotor[orders.size()][]);
+        _slots = catalog.numRotors();
+        _moving = catalog.numPawls();
+        _text = text.clone();
+        _topK = topK;
+        _candidates = Math.max(CANDIDATES_PER_RESULT * topK, MIN_CANDIDATES);
+        _maxSteckers = Math.min(_size / 2, MAX_STECKERS);
+        if (text.length >= MIN_PRUNE_PREFIX * PRUNE_FRACTION) {
+            _pruneAt = text.length / PRUNE_FRACTION;
+            _pruneMargin =
+                PRUNE_SIGMAS * Math.sqrt(2.0 * (_size - 1)) / _pruneAt;
+        } else {
+            _pruneAt = 0;
+            _pruneMargin = 0;
+        }
+        long positions = 1;
+        for (int i = 1; i < _slots; i++) {
+            positions = multiply(positions, _size);
+        }
+        _positions = positions;
+        _trials = multiply(positions, _orders.length);
+    }
+
+    /** Return every valid choice of rotors for machines built from
+     *  CATALOG, each in the form returned by CATALOG.selectRotors. */
+    static List<Rotor[]> allOrders(RotorCatalog catalog) {
+        ArrayList<String> reflectors = new ArrayList<String>();
+        ArrayList<String> fixed = new ArrayList<String>();
+        ArrayList<String> moving = new ArrayList<String>();
+        for (Rotor r : catalog.rotors().values()) {
+            if (r.reflecting()) {
+                reflectors.add(r.name());
+            } else if (r.rotates()) {
+                moving.add(r.name());
+            } else {
+                fixed.add(r.name());
+            }
+        }
+        Collections.sort(reflectors);
+        Collections.sort(fixed);
+        Collections.sort(moving);
+        int numFixed = catalog.numRotors() - 1 - catalog.numPawls();
+        ArrayList<Rotor[]> result = new ArrayList<Rotor[]>();
+        String[] names = new String[catalog.numRotors()];
+        for (String reflector : reflectors) {
+            names[0] = reflector;
+            arrange(catalog, names, 1, numFixed, fixed, moving, result);
+        }
+        return result;
+    }
+
+    /** Add to RESULT every valid rotor choice for CATALOG that begins
+     *  with NAMES[0 .. K-1], drawing the slots before NUMFIXED + 1 from
+     *  FIXED and the rest from MOVING. */
+    private static void arrange(RotorCatalog catalog, String[] names, int k,
+                                int numFixed, List<String> fixed,
+                                List<String> moving, List<Rotor[]> result) {
+        if (k == names.length) {
+            result.add(catalog.selectRotors(names));
+            return;
+        }
+        List<String> pool = k <= numFixed ? fixed : moving;
+        for (String name : pool) {
+            if (!Arrays.asList(names).subList(1, k).contains(name)) {
+                names[k] = name;
+                arrange(catalog, names, k + 1, numFixed, fixed, moving,
+                        result);
+            }
+        }
+        names[k] = null;
+    }
+
+    /** Run the search on POOL, returning the best keys found, best
+     *  first.  Each search starts afresh: the counts and the pruning
+     *  threshold of earlier searches are discarded. */
+    List<Key> search(ForkJoinPool pool) {
+        long start = System.nanoTime();
+        _threshold.set(0);
+        _tried.reset();
+        _pruned.reset();
+        TopList found = pool.invoke(new Scan(0, _trials));
+        Key[] candidates = found.sorted();
+        pool.invoke(new Refine(candidates, 0, candidates.length));
+        Arrays.sort(candidates, BY_SCORE);
+        _elapsed = System.nanoTime() - start;
+        ArrayList<Key> result = new ArrayList<Key>();
+        for (int i = 0; i < candidates.length && i < _topK; i++) {
+            result.add(candidates[i]);
+        }
+        return result;
+    }
+
+    /** Return the number of keys scored (fully or partly) by the last
+     *  search. */
+    long keysTried() {
+        return _tried.sum();
+    }
+
+    /** Return the number of keys abandoned early by the last search. */
+    long keysPruned() {
+        return _pruned.sum();
+    }
+
+    /** Return the duration of the last search, in nanoseconds. */
+    long elapsedNanos() {
+        return _elapsed;
+    }
+
+    /** A candidate key and the score of the text it decrypts. */
+    final class Key {
+
+        /** A key using ROTORS, SETTINGS and RINGS (per rotor slot) and
+         *  plugboard PLUG (a map of alphabet indices), that scores
+         *  SCORE. */
+        private Key(Rotor[] rotors, int[] settings, int[] rings, int[] plug,
+                    double score) {
+            _rotors = rotors;
+            _keySettings = settings;
+            _rings = rings;
+            _plug = plug;
+            _score = score;
+        }
+
+        /** Return the normalized index of coincidence of my
+         *  decryption. */
+        double score() {
+            return _score;
+        }
+
+        /** Return my decryption of the ciphertext. */
+        String decrypt() {
+            CompiledMachine engine = engine(_rotors, _keySettings, _rings);
+            StringBuilder result = new StringBuilder();
+            for (int c : _text) {
+                result.append(_alphabet.toChar(
+                        _plug[engine.convert(_plug[c])]));
+            }
+            return result.toString();
+        }
+
+        /** Return me as a settings line, as accepted by Main. */
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder("*");
+            for (Rotor r : _rotors) {
+                result.append(' ').append(r.name());
+            }
+            result.append(' ');
+            for (int i = 1; i < _slots; i++) {
+                result.append(_alphabet.toChar(_keySettings[i]));
+            }
+            result.append(' ');
+            for (int i = 1; i < _slots; i++) {
+                result.append(_alphabet.toChar(_rings[i]));
+            }
+            for (int c = 0; c < _size; c++) {
+                if (_plug[c] > c) {
+                    result.append(" (").append(_alphabet.toChar(c))
+                        .append(_alphabet.toChar(_plug[c])).append(')');
+                }
+            }
+            return result.toString();
+        }
+
+        /** Rotors, reflector first. */
+        private final Rotor[] _rotors;
+        /** Setting of each rotor slot. */
+        private final int[] _keySettings;
+        /** Ringstellung of each rotor slot. */
+        private final int[] _rings;
+        /** Plugboard: _plug[c] is the letter plugged to c. */
+        private final int[] _plug;
+        /** Score of my decryption. */
+        private final double _score;
+    }
+
+    /** Orders keys best first. */
+    private static final Comparator<Key> BY_SCORE =
+        (k1, k2) -> Double.compare(k2.score(), k1.score());
+
+    /** The best keys seen by one task, up to a fixed number. */
+    private final class TopList {
+
+        /** Return the lowest score that offer might still accept. */
+        double floor() {
+            return _keys.size() < _candidates ? -1 : _keys.peek().score();
+        }
+
+        /** Keep KEY if it is among my best. */
+        void offer(Key key) {
+            if (key.score() <= floor()) {
+                return;
+            }
+            _keys.add(key);
+            if (_keys.size() > _candidates) {
+                _keys.poll();
+            }
+            if (_keys.size() == _candidates) {
+                raiseThreshold(_keys.peek().score());
+            }
+        }
+
+        /** Keep the best of my keys and those of OTHER; return me. */
+        TopList merge(TopList other) {
+            for (Key key : other._keys) {
+                offer(key);
+            }
+            return this;
+        }
+
+        /** Return my keys, best first. */
+        Key[] sorted() {
+            Key[] result = _keys.toArray(new Key[_keys.size()]);
+            Arrays.sort(result, BY_SCORE);
+            return result;
+        }
+
+        /** My keys, worst at the head. */
+        private final PriorityQueue<Key> _keys =
+            new PriorityQueue<Key>(BY_SCORE.reversed());
+    }
+
+    /** Stage 1 over trials LO .. HI-1, where trial t is order
+     *  t / _positions with settings given by the base-_size digits of
+     *  t % _positions, slot 1 most significant. */
+    private final class Scan extends RecursiveTask<TopList> {
+
+        /** A scan of trials LO .. HI-1. */
+        Scan(long lo, long hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected TopList compute() {
+            if (_hi - _lo > SCAN_GRAIN) {
+                long mid = (_lo + _hi) >>> 1;
+                Scan left = new Scan(_lo, mid);
+                left.fork();
+                TopList right = new Scan(mid, _hi).compute();
+                return left.join().merge(right);
+            }
+            TopList best = new TopList();
+            int[] counts = new int[_size];
+            int[] settings = new int[_slots];
+            int[] rings = new int[_slots];
+            int[] plug = identity();
+            long perEngine = power(_moving);
+            CompiledMachine engine = null;
+            long engineKey = -1;
+            for (long t = _lo; t < _hi; t++) {
+                int order = (int) (t / _positions);
+                long rest = t % _positions;
+                for (int i = _slots - 1; i >= 1; i--) {
+                    settings[i] = (int) (rest % _size);
+                    rest /= _size;
+                }
+                long key = t / perEngine;
+                if (engine == null || key != engineKey) {
+                    engine = engine(_orders[order], settings, rings);
+                    engineKey = key;
+                } else {
+                    setPositions(engine, settings);
+                }
+                double score = score(engine, plug, counts, true);
+                _tried.increment();
+                if (score < 0) {
+                    _pruned.increment();
+                } else if (score > best.floor()) {
+                    best.offer(new Key(_orders[order], settings.clone(),
+                                       rings.clone(), plug, score));
+                }
+            }
+            return best;
+        }
+
+        /** Range of trials. */
+        private final long _lo, _hi;
+    }
+
+    /** Stages 2 and 3 for KEYS[LO .. HI-1], replacing each with its
+     *  refinement. */
+    private final class Refine extends RecursiveAction {
+
+        /** A refinement of KEYS[LO .. HI-1]. */
+        Refine(Key[] keys, int lo, int hi) {
+            _keys = keys;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Refine(_keys, _lo, mid),
+                          new Refine(_keys, mid, _hi));
+            } else if (_hi > _lo) {
+                _keys[_lo] = climbPlugboard(searchRings(_keys[_lo]));
+            }
+        }
+
+        /** Keys to refine. */
+        private final Key[] _keys;
+        /** Range of keys. */
+        private final int _lo, _hi;
+    }
+
+    /** Return the best variant of KEY with the Ringstellungs of its two
+     *  rightmost moving rotors changed, and their settings changed by as
+     *  much. */
+    private Key searchRings(Key key) {
+        int[] counts = new int[_size];
+        int last = _slots - 1;
+        int tuned = Math.min(2, _moving);
+        int combinations = tuned == 2 ? _size * _size : tuned == 1 ? _size : 1;
+        Key best = key;
+        for (int r = 1; r < combinations; r++) {
+            int[] settings = key._keySettings.clone();
+            int[] rings = key._rings.clone();
+            int ring = r % _size, ring2 = r / _size;
+            rings[last] = ring;
+            settings[last] = (settings[last] + ring) % _size;
+            if (tuned == 2) {
+                rings[last - 1] = ring2;
+                settings[last - 1] = (settings[last - 1] + ring2) % _size;
+            }
+            CompiledMachine engine = engine(key._rotors, settings, rings);
+            double score = score(engine, key._plug, counts, false);
+            _tried.increment();
+            if (score > best.score()) {
+                best = new Key(key._rotors, settings, rings, key._plug,
+                               score);
+            }
+        }
+        return best;
+    }
+
+    /** Return KEY with the plugboard that hill climbing finds for it. */
+    private Key climbPlugboard(Key key) {
+        int[] counts = new int[_size];
+        int[] plug = key._plug.clone();
+        int[] saved = new int[_size];
+        CompiledMachine engine =
+            engine(key._rotors, key._keySettings, key._rings);
+        double best = key.score();
+        int steckers = 0;
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int a = 0; a < _size; a++) {
+                for (int b = a + 1; b < _size; b++) {
+                    System.arraycopy(plug, 0, saved, 0, _size);
+                    int added = toggle(plug, a, b);
+                    if (steckers + added > _maxSteckers) {
+                        System.arraycopy(saved, 0, plug, 0, _size);
+                        continue;
+                    }
+                    setPositions(engine, key._keySettings);
+                    double score = score(engine, plug, counts, false);
+                    _tried.increment();
+                    if (score > best) {
+                        best = score;
+                        steckers += added;
+                        improved = true;
+                    } else {
+                        System.arraycopy(saved, 0, plug, 0, _size);
+                    }
+                }
+            }
+        }
+        return new Key(key._rotors, key._keySettings, key._rings, plug,
+                       best);
+    }
+
+    /** Modify the plugboard PLUG so that A and B are unplugged if they
+     *  are plugged together, and are otherwise plugged together after
+     *  unplugging their partners.  Return the change in the number of
+     *  plugged pairs. */
+    private static int toggle(int[] plug, int a, int b) {
+        int pa = plug[a], pb = plug[b];
+        if (pa == b) {
+            plug[a] = a;
+            plug[b] = b;
+            return -1;
+        }
+        int before = (pa != a ? 1 : 0) + (pb != b ? 1 : 0);
+        plug[pa] = pa;
+        plug[pb] = pb;
+        plug[a] = b;
+        plug[b] = a;
+        return 1 - before;
+    }
+
+    /** Return the normalized IoC of the decryption of my text by ENGINE
+     *  (from its current state) with plugboard PLUG, using COUNTS as
+     *  scratch space.  If PRUNE, return -1 instead if the decryption of
+     *  a prefix of the text scores too low to be worth finishing. */
+    private double score(CompiledMachine engine, int[] plug, int[] counts,
+                         boolean prune) {
+        Arrays.fill(counts, 0);
+        int[] text = _text;
+        int i = 0;
+        if (prune && _pruneAt > 0) {
+            for (; i < _pruneAt; i++) {
+                counts[plug[engine.convert(plug[text[i]])]] += 1;
+            }
+            if (ioc(counts, _pruneAt) + _pruneMargin < threshold()) {
+                return -1;
+            }
+        }
+        for (; i < text.length; i++) {
+            counts[plug[engine.convert(plug[text[i]])]] += 1;
+        }
+        return ioc(counts, text.length);
+    }
+
+    /** Return the normalized index of coincidence of a text of LENGTH
+     *  letters in which letter c occurs COUNTS[c] times. */
+    private double ioc(int[] counts, int length) {
+        long pairs = 0;
+        for (int c : counts) {
+            pairs += (long) c * (c - 1);
+        }
+        return (double) _size * pairs / ((double) length * (length - 1));
+    }
+
+    /** Return the lowest score among the best keys kept by any one
+     *  task; no key scoring less can be among the final candidates. */
+    private double threshold() {
+        return Double.longBitsToDouble(_threshold.get());
+    }
+
+    /** Note that some task keeps a full list of keys scoring at least
+     *  SCORE. */
+    private void raiseThreshold(double score) {
+        long bits = Double.doubleToLongBits(score);
+        _threshold.accumulateAndGet(bits, Math::max);
+    }
+
+    /** Return an engine for ROTORS with SETTINGS and RINGS (per rotor
+     *  slot) and no plugboard. */
+    private CompiledMachine engine(Rotor[] rotors, int[] settings,
+                                   int[] rings) {
+        return new CompiledMachine(_alphabet, rotors, settings, rings, null);
+    }
+
+    /** Set the moving rotors of ENGINE to their positions in SETTINGS
+     *  (per rotor slot). */
+    private void setPositions(CompiledMachine engine, int[] settings) {
+        int first = _slots - _moving;
+        for (int k = 0; k < _moving; k++) {
+            engine.setPosition(k, settings[first + k]);
+        }
+    }
+
+    /** Return _size to the power K. */
+    private long power(int k) {
+        long result = 1;
+        for (int i = 0; i < k; i++) {
+            result *= _size;
+        }
+        return result;
+    }
+
+    /** Return the identity plugboard. */
+    private int[] identity() {
+        int[] result = new int[_size];
+        for (int c = 0; c < _size; c++) {
+            result[c] = c;
+        }
+        return result;
+    }
+
+    /** Return A * B, reporting overflow as an error. */
+    private static long multiply(long a, long b) {
+        try {
+            return Math.multiplyExact(a, b);
+        } catch (ArithmeticException excp) {
+            throw error("key space too large");
+        }
+    }
+
+    /** Search for the key of a message as specified by ARGS: ARGS[0]
+     *  names a configuration file, ARGS[1] a file of ciphertext in its
+     *  alphabet (blanks and line breaks are ignored), and the optional
+     *  ARGS[2] the number of keys to report (default 10).  Any further
+     *  ARGS each give a rotor order to try, such as "B Beta III IV I";
+     *  by default, all are tried. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 2) {
+                throw error("Usage: java enigma.KeySearch CONFIG CIPHERTEXT"
+                            + " [TOPK [ORDER ...]]");
+            }
+            RotorCatalog catalog = Main.readCatalog(args[0]);
+            int[] text = readText(catalog.alphabet(), args[1]);
+            int topK = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+            List<Rotor[]> orders;
+            if (args.length > 3) {
+                orders = new ArrayList<Rotor[]>();
+                for (int i = 3; i < args.length; i++) {
+                    orders.add(catalog.selectRotors(
+                            args[i].trim().split("\\s+")));
+                }
+            } else {
+                orders = allOrders(catalog);
+            }
+            KeySearch search = new KeySearch(catalog, orders, text, topK);
+            for (Key key : search.search(ForkJoinPool.commonPool())) {
+                System.out.printf("%.4f %s%n", key.score(), key);
+            }
+            double seconds = search.elapsedNanos() / 1e9;
+            System.out.printf("%d keys (%d pruned) in %.3f s:"
+                              + " %.0f keys/s%n",
+                              search.keysTried(), search.keysPruned(),
+                              seconds, search.keysTried() / seconds);
+        } catch (EnigmaException | NumberFormatException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return the letters of the file named NAME as indices in
+     *  ALPHABET, skipping whitespace. */
+    static int[] readText(Alphabet alphabet, String name) {
+        String contents;
+        try {
+            contents = new String(Files.readAllBytes(Paths.get(name)),
+                                  Charset.defaultCharset());
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+        int[] result = new int[contents.length()];
+        int n = 0;
+        for (int i = 0; i < contents.length(); i++) {
+            char ch = contents.charAt(i);
+            if (!Character.isWhitespace(ch)) {
+                result[n++] = alphabet.toInt(ch);
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Stage 1 trials per leaf task. */
+    private static final long SCAN_GRAIN = 1 << 12;
+
+    /** Candidates kept from stage 1 per key reported. */
+    private static final int CANDIDATES_PER_RESULT = 4;
+
+    /** Fewest candidates kept from stage 1. */
+    private static final int MIN_CANDIDATES = 32;
+
+    /** Most plugged pairs tried, as on the wartime machines. */
+    private static final int MAX_STECKERS = 10;
+
+    /** Pruning looks at the first 1/PRUNE_FRACTION of the text. */
+    private static final int PRUNE_FRACTION = 4;
+
+    /** Shortest prefix on which pruning is done. */
+    private static final int MIN_PRUNE_PREFIX = 50;
+
+    /** Standard deviations of random noise in a prefix's score by which
+     *  it must fall short before its key is abandoned. */
+    private static final double PRUNE_SIGMAS = 2;
+
+    /** My alphabet, and its size. */
+    private final Alphabet _alphabet;
+    /** Size of _alphabet. */
+    private final int _size;
+    /** Rotor orders to try. */
+    private final Rotor[][] _orders;
+    /** Number of rotor slots, and of moving rotors. */
+    private final int _slots, _moving;
+    /** The ciphertext. */
+    private final int[] _text;
+    /** Number of keys to report, and of candidates kept from stage 1. */
+    private final int _topK, _candidates;
+    /** Most plugged pairs to try. */
+    private final int _maxSteckers;
+    /** Length of the prefix scored before pruning, or 0 for none. */
+    private final int _pruneAt;
+    /** Allowance for noise in the score of a prefix. */
+    private final double _pruneMargin;
+    /** Number of setting combinations per rotor order, and of stage 1
+     *  trials. */
+    private final long _positions, _trials;
+    /** Bits of the current pruning threshold (see threshold()). */
+    private final AtomicLong _threshold = new AtomicLong();
+    /** Numbers of keys tried, and pruned. */
+    private final LongAdder _tried = new LongAdder(),
+        _pruned = new LongAdder();
+    /** Duration of the last search. */
+    private long _elapsed;
+}
@@ -0,0 +1,170 @@
+package enigma;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A cache of KeystreamTables, keyed by machine configuration: the
+ *  rotors, their settings and Ringstellungs, and the plugboard.  The
+ *  total size of the tables held is bounded; when adding a table would
+ *  exceed the bound, the least recently used tables are evicted.  A
+ *  configuration whose table would not fit at all, or whose alphabet is
+ *  too large, is not cached.  The cache may be shared by any number of
+ *  threads.  Tables are built outside the cache's lock, so two threads
+ *  missing on the same configuration at once may both build it.  A cache
+ *  may be backed by a TableStore, whose tables are used (and counted as
+ *  hits) in preference to building new ones, and take no heap space.
+ *  @author Mridang Sheth
+ */
+final class KeystreamCache {
+
+    /** A cache holding tables of at most CAPACITY bytes in all. */
+    KeystreamCache(long capacity) {
+        this(capacity, null);
+    }
+
+    /** A cache holding tables of at most CAPACITY bytes in all, besides
+     *  those in STORE (none if null). */
+    KeystreamCache(long capacity, TableStore store) {
+        _capacity = capacity;
+        _store = store;
+        _tables = new LinkedHashMap<String, KeystreamTable>(INITIAL, LOAD,
+                                                             true);
+    }
+
+    /** Return the table for a machine over ALPHABET with ROTORS (as
+     *  installed by Machine.insertRotors), rotor #i having setting
+     *  SETTINGS[i] and Ringstellung RINGS[i], and plugboard PLUGBOARD
+     *  (null if none), starting from that state.  Returns null if the
+     *  table cannot be cached. */
+    KeystreamTable table(Alphabet alphabet, Rotor[] rotors, int[] settings,
+                         int[] rings, Permutation plugboard) {
+        String key = key(alphabet, rotors, settings, rings, plugboard);
+        synchronized (this) {
+            KeystreamTable table =
+                _store == null ? null : _store.table(key);
+            if (table == null) {
+                table = _tables.get(key);
+            }
+            if (table != null) {
+                _hits += 1;
+                return table;
+            }
+            _misses += 1;
+        }
+        int n = alphabet.size();
+        if (n > KeystreamTable.MAX_SYMBOLS) {
+            return null;
+        }
+        SteppingSchedule schedule = SteppingSchedule.of(n, rotors, settings);
+        long entries = KeystreamTable.entries(n, schedule);
+        if (entries > KeystreamTable.MAX_ENTRIES || entries > _capacity) {
+            return null;
+        }
+        KeystreamTable table = new KeystreamTable(
+            new CompiledMachine(alphabet, rotors, settings, rings, plugboard),
+            schedule);
+        synchronized (this) {
+            KeystreamTable other = _tables.get(key);
+            if (other != null) {
+                return other;
+            }
+            _tables.put(key, table);
+            _bytes += table.bytes();
+            Iterator<KeystreamTable> eldest = _tables.values().iterator();
+            while (_bytes > _capacity) {
+                _bytes -= eldest.next().bytes();
+                eldest.remove();
+                _evictions += 1;
+            }
+        }
+        return table;
+    }
+
+    /** Return the key identifying the configuration described by the
+     *  arguments (see table). */
+    static String key(Alphabet alphabet, Rotor[] rotors, int[] settings,
+                      int[] rings, Permutation plugboard) {
+        StringBuilder key = new StringBuilder();
+        for (Rotor r : rotors) {
+            key.append(r.name()).append(' ');
+        }
+        for (int i = 1; i < rotors.length; i++) {
+            key.appendCodePoint(alphabet.toCodePoint(settings[i]));
+        }
+        for (int i = 1; i < rotors.length; i++) {
+            key.appendCodePoint(alphabet.toCodePoint(rings[i]));
+        }
+        if (plugboard != null) {
+            for (int c = 0; c < alphabet.size(); c++) {
+                key.appendCodePoint(
+                    alphabet.toCodePoint(plugboard.permute(c)));
+            }
+        }
+        return key.toString();
+    }
+
+    /** Return a copy of my tables, by key, least recently used
+     *  first. */
+    synchronized Map<String, KeystreamTable> snapshot() {
+        return new LinkedHashMap<String, KeystreamTable>(_tables);
+    }
+
+    /** Return the number of lookups that found their table. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that did not find their table. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Return the number of tables evicted to make room for others. */
+    synchronized long evictions() {
+        return _evictions;
+    }
+
+    /** Return the number of tables held. */
+    synchronized int size() {
+        return _tables.size();
+    }
+
+    /** Return the total size in bytes of the tables held. */
+    synchronized long bytes() {
+        return _bytes;
+    }
+
+    /** Return my bound on bytes(). */
+    long capacity() {
+        return _capacity;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d tables, %d bytes; %d hits, %d misses,"
+                             + " %d evictions", _tables.size(), _bytes,
+                             _hits, _misses, _evictions);
+    }
+
+    /** Initial capacity of the map of tables. */
+    private static final int INITIAL = 16;
+
+    /** Load factor of the map of tables. */
+    private static final float LOAD = 0.75f;
+
+    /** Bound on the total size of my tables. */
+    private final long _capacity;
+
+    /** Tables to use before my own, or null. */
+    private final TableStore _store;
+
+    /** My tables, by key, least recently used first. */
+    private final Map<String, KeystreamTable> _tables;
+
+    /** Total size of my tables. */
+    private long _bytes;
+
+    /** Counts of hits, misses and evictions. */
+    private long _hits, _misses, _evictions;
+}
@@ -0,0 +1,125 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+
+import static enigma.EnigmaException.*;
+
+/** The substitution performed by a configured machine at each key press,
+ *  tabulated over one full stepping cycle.  Once the moving rotors are
+ *  past the transient of their SteppingSchedule, their settings repeat
+ *  with its period, and so does the substitution; a table of transient +
+ *  period rows, one per key press, therefore gives the conversion of any
+ *  character at any press without stepping.  Rows are stored as bytes, so
+ *  the alphabet may have at most 256 symbols, in a buffer that is either
+ *  on the heap or mapped from a TableStore.
+ *  @author Mridang Sheth
+ */
+final class KeystreamTable {
+
+    /** The table for ENGINE from its current state, whose moving rotors
+     *  step as described by SCHEDULE (which must start from the same
+     *  state).  ENGINE is not changed.  The table must not have more than
+     *  MAX_ENTRIES entries (see entries). */
+    KeystreamTable(CompiledMachine engine, SteppingSchedule schedule) {
+        long entries = entries(engine.alphabet().size(), schedule);
+        if (engine.alphabet().size() > MAX_SYMBOLS
+            || entries > MAX_ENTRIES) {
+            throw error("keystream table too large");
+        }
+        int n = engine.alphabet().size();
+        _size = n;
+        _transient = schedule.transientLength();
+        _period = schedule.period();
+        _rows = ByteBuffer.allocate((int) entries);
+        CompiledMachine e = engine.copy();
+        for (int row = 0; row < entries; row += n) {
+            e.step();
+            for (int c = 0; c < n; c++) {
+                _rows.put(row + c, (byte) e.substitute(c));
+            }
+        }
+    }
+
+    /** A table over an alphabet of SIZE symbols for rotors with the given
+     *  TRANSIENT and PERIOD, whose entries are ROWS (which I use as is),
+     *  as returned by buffer(). */
+    KeystreamTable(int size, long transientLength, long period,
+                   ByteBuffer rows) {
+        if (rows.capacity() != (transientLength + period) * size) {
+            throw error("keystream table has the wrong length");
+        }
+        _size = size;
+        _transient = transientLength;
+        _period = period;
+        _rows = rows;
+    }
+
+    /** Return the number of entries in the table for a machine over an
+     *  alphabet of SIZE symbols whose rotors step according to SCHEDULE,
+     *  or Long.MAX_VALUE if that overflows. */
+    static long entries(int size, SteppingSchedule schedule) {
+        long rows = schedule.transientLength() + schedule.period();
+        if (rows < 0 || rows > Long.MAX_VALUE / size) {
+            return Long.MAX_VALUE;
+        }
+        return rows * size;
+    }
+
+    /** Return the conversion of character C (an alphabet index) at key
+     *  press STEP, counting from 0 at my starting state. */
+    int convert(long step, int c) {
+        if (step >= _transient + _period) {
+            step = _transient + (step - _transient) % _period;
+        }
+        return _rows.get((int) step * _size + c) & BYTE_MASK;
+    }
+
+    /** Return the size of my alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the length of my rotors' stepping transient. */
+    long transientLength() {
+        return _transient;
+    }
+
+    /** Return my rotors' stepping period. */
+    long period() {
+        return _period;
+    }
+
+    /** Return a read-only view of my entries: the conversion of c at key
+     *  press p is at index p * size() + c. */
+    ByteBuffer buffer() {
+        return _rows.asReadOnlyBuffer();
+    }
+
+    /** Return the number of rows, hence key presses, I tabulate. */
+    long rows() {
+        return _transient + _period;
+    }
+
+    /** Return the number of bytes my table occupies. */
+    long bytes() {
+        return _rows.capacity();
+    }
+
+    /** Largest alphabet size a table can hold. */
+    static final int MAX_SYMBOLS = 256;
+
+    /** Largest number of entries in a table. */
+    static final long MAX_ENTRIES = Integer.MAX_VALUE - 8;
+
+    /** Mask selecting the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** Transient and period of my rotors' stepping. */
+    private final long _transient, _period;
+
+    /** Entry p * size + c is the conversion of c at key press p. */
+    private final ByteBuffer _rows;
+}
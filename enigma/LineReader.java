@@ -0,0 +1,117 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Reads lines from a channel through one fixed buffer, refusing lines
+ *  longer than a given limit, so that the memory a reader uses does not
+ *  depend on what is sent to it.  Lines end at '\n', so the character
+ *  set must encode '\n' as that single byte, as US-ASCII, UTF-8 and
+ *  ISO-8859-1 do.
+ *  @author Mridang Sheth
+ */
+class LineReader {
+
+    /** A reader of lines of at most MAXLINE bytes from IN, encoded in
+     *  CHARSET, reading BUFFERSIZE bytes at a time. */
+    LineReader(ReadableByteChannel in, Charset charset, int maxLine,
+               int bufferSize) {
+        _in = in;
+        _charset = charset;
+        _maxLine = maxLine;
+        _buffer = ByteBuffer.allocate(bufferSize);
+        _buffer.flip();
+        _line = new byte[Math.min(maxLine, bufferSize)];
+    }
+
+    /** Return the next line, without its terminating "\n" or "\r\n", or
+     *  null if the input is exhausted.  A final line need not be
+     *  terminated. */
+    String readLine() {
+        int length = 0;
+        boolean any = false;
+        while (true) {
+            if (!_buffer.hasRemaining() && !fill()) {
+                if (!any) {
+                    return null;
+                }
+                break;
+            }
+            any = true;
+            byte b = _buffer.get();
+            _position += 1;
+            if (b == '\n') {
+                break;
+            }
+            if (length == _maxLine) {
+                throw error("input line longer than %d bytes", _maxLine);
+            }
+            if (length == _line.length) {
+                _line = Arrays.copyOf(_line,
+                        (int) Math.min(_maxLine, 2L * _line.length));
+            }
+            _line[length++] = b;
+        }
+        if (length > 0 && _line[length - 1] == '\r') {
+            length -= 1;
+        }
+        return new String(_line, 0, length, _charset);
+    }
+
+    /** Return true iff a whole line is already buffered, so that the
+     *  next readLine will not wait for input. */
+    boolean lineBuffered() {
+        for (int i = _buffer.position(); i < _buffer.limit(); i++) {
+            if (_buffer.get(i) == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the number of bytes consumed by the lines read so far. */
+    long position() {
+        return _position;
+    }
+
+    /** Read more input into my empty buffer, returning false if there is
+     *  no more. */
+    private boolean fill() {
+        _buffer.clear();
+        try {
+            int n;
+            do {
+                n = _in.read(_buffer);
+            } while (n == 0);
+            _buffer.flip();
+            return n > 0;
+        } catch (IOException excp) {
+            _buffer.flip();
+            throw error("could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /** Source of input. */
+    private final ReadableByteChannel _in;
+
+    /** Character set of the input. */
+    private final Charset _charset;
+
+    /** Greatest number of bytes in a line. */
+    private final int _maxLine;
+
+    /** Input read but not yet consumed, between its position and
+     *  limit. */
+    private final ByteBuffer _buffer;
+
+    /** Bytes of the line being read. */
+    private byte[] _line;
+
+    /** Number of bytes consumed so far. */
+    private long _position;
+}
@@ -1,7 +1,9 @@
 package enigma;
 
-import java.util.HashMap;
+import java.nio.CharBuffer;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 
 import static enigma.EnigmaException.*;
 
@@ -15,89 +17,139 @@ class Machine {
      *  available rotors. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
+        this(new RotorCatalog(alpha, numRotors, pawls, allRotors));
+    }
 
-        if (numRotors <= 0) {
-            throw new EnigmaException("Number of rotors less than 1");
-        }
+    /** A new Enigma machine whose alphabet, rotor slots, pawls and
+     *  available rotors are those of CATALOG. */
+    Machine(RotorCatalog catalog) {
+        _catalog = catalog;
+        _alphabet = catalog.alphabet();
+        _rings = new HashMap<String, Integer>();
+        _plugboard = null;
+        setMetrics(MachineMetrics.current());
+    }
 
-        if (!(pawls < numRotors && pawls >= 0)) {
-            throw new EnigmaException("0 <= PAWLS < NUMROTORS not satisfied");
+    /** Record my work in METRICS from now on, or in none if METRICS is
+     *  null.  Machines record in MachineMetrics.current() by default. */
+    void setMetrics(MachineMetrics metrics) {
+        if (_recorder != null) {
+            _recorder.flush();
         }
+        _recorder = metrics == null ? null : metrics.recorder(numRotors());
+    }
 
-        _alphabet = alpha;
-        _numRotors = numRotors;
-        _pawls = pawls;
-        _allRotors = new HashMap<String, Rotor>();
-        _plugboard = null;
-        for (Rotor rotor : allRotors) {
-            _allRotors.put(rotor.name(), rotor);
+    /** Add the counts I have recorded to my metrics, if any, now rather
+     *  than at my next flush. */
+    void flushMetrics() {
+        if (_recorder != null) {
+            _recorder.flush();
         }
     }
 
+    /** Return the catalog of rotors from which I am built. */
+    RotorCatalog catalog() {
+        return _catalog;
+    }
+
     /** Return the number of rotor slots I have. */
     int numRotors() {
-        return _numRotors;
+        return _catalog.numRotors();
     }
 
     /** Return the number pawls (and thus rotating rotors) I have. */
     int numPawls() {
-        return _pawls;
+        return _catalog.numPawls();
     }
 
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
+        insertRotors(selectRotors(rotors));
+    }
 
-        if (rotors.length != numRotors()) {
-            throw error("Invalid number of rotors, tried to assign "
-                    + rotors.length + " but configured : " + numRotors());
+    /** Set my rotor slots to ROTORS, which must have come from
+     *  selectRotors, here or on my catalog.  Initially, all rotors are
+     *  set at their 0 setting, with the Ringstellungs I keep for them. */
+    void insertRotors(Rotor[] rotors) {
+        int[] shifts = new int[rotors.length];
+        for (int i = 0; i < rotors.length; i++) {
+            if (_catalog.rotors().get(rotors[i].name()) != rotors[i]) {
+                throw error("%s is not a rotor of my catalog", rotors[i]);
+            }
+            shifts[i] = wrap(-ring(rotors[i].name()));
         }
+        _schedule = null;
+        _myRotors = rotors.clone();
+        _settings = new int[rotors.length];
+        _shifts = shifts;
+    }
 
-        int moving = 0;
-        _myRotors = new Rotor[rotors.length];
+    /** Return the rotors named ROTORS from my set of available rotors
+     *  (ROTORS[0] names the reflector), checking that they form a valid
+     *  choice for my rotor slots. */
+    Rotor[] selectRotors(String[] rotors) {
+        return _catalog.selectRotors(rotors);
+    }
 
-        for (int i = 0; i < rotors.length; i++) {
-            if (!_allRotors.containsKey(rotors[i])) {
-                throw error("Rotor with the name "
-                        + rotors[i] + " does not exist.");
-            }
-            if (i == 0 && !_allRotors.get(rotors[i]).reflecting()) {
-                throw error("First rotor not reflector.");
-            }
-            if (i < _numRotors - _pawls && i != 0) {
-                if (_allRotors.get(rotors[i]).rotates()) {
-                    throw error("Rotor at position "
-                            + (i + 1) + " should be fixed");
+    /** Return the Ringstellung I keep for the rotor of my catalog named
+     *  NAME, which is 0 if none has been configured. */
+    int ring(String name) {
+        Integer ring = _rings.get(name);
+        return ring == null ? 0 : ring;
+    }
+
+    /** Set the Ringstellung I keep for the rotor of my catalog named
+     *  NAME to RING, which applies to that rotor from now on. */
+    void setRing(String name, int ring) {
+        if (ring == 0) {
+            _rings.remove(name);
+        } else {
+            _rings.put(name, ring);
+        }
+        if (_myRotors != null) {
+            for (int i = 0; i < _myRotors.length; i++) {
+                if (_myRotors[i].name().equals(name)) {
+                    _shifts[i] = wrap(_settings[i] - ring);
                 }
             }
-            if (containsRotor(_allRotors.get(rotors[i]))) {
-                throw error("Rotor with the name "
-                        + rotors[i] + " repeated");
-            }
-            _myRotors[i] = _allRotors.get(rotors[i]);
-            if (_myRotors[i].rotates()) {
-                moving++;
-            }
-        }
-        if (moving != _pawls) {
-            throw error("Invalid number of moving rotors, found : "
-                    + moving + " but configured : " + numPawls());
         }
     }
 
-    /**
-     * Returns true iff Rotor r is contained in _myrotors.
-     * @param r : The rotor to be tested
-     * @return True/False depending on condition
-     */
-    private boolean containsRotor(Rotor r) {
-        for (Rotor rotor : _myRotors) {
-            if (rotor != null && r.name().equals(rotor.name())) {
-                return true;
-            }
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return my rotors, reflector first, or null if none have been
+     *  inserted.  The result is a copy. */
+    Rotor[] rotors() {
+        return _myRotors == null ? null : _myRotors.clone();
+    }
+
+    /** Return the settings of my rotors, reflector first, or null if
+     *  none have been inserted.  The result is a copy. */
+    int[] settings() {
+        return _myRotors == null ? null : _settings.clone();
+    }
+
+    /** Return the Ringstellungs of my rotors, reflector first, or null
+     *  if none have been inserted. */
+    int[] ringSettings() {
+        if (_myRotors == null) {
+            return null;
+        }
+        int[] result = new int[_myRotors.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = wrap(_settings[i] - _shifts[i]);
         }
-        return false;
+        return result;
+    }
+
+    /** Return my plugboard, or null if I have none. */
+    Permutation plugboard() {
+        return _plugboard;
     }
 
     /** Set my rotors according to SETTING, which must be a string of
@@ -105,14 +157,21 @@ class Machine {
      *  to the leftmost rotor setting (not counting the reflector).  */
 
     void setRotors(String setting) {
-        if (setting.length() != numRotors() - 1) {
+        setRotors(_alphabet.toInts(setting));
+    }
+
+    /** Set my rotors other than the reflector, leftmost first, to the
+     *  settings POSNS, each in the range 0..alphabet size - 1. */
+    void setRotors(int[] posns) {
+        if (posns.length != numRotors() - 1) {
             throw new EnigmaException("Invalid "
                     + "setting passed in Machine.setRotors");
         }
 
         for (int i = 1; i < numRotors(); i++) {
-            _myRotors[i].set(setting.charAt(i - 1));
+            set(i, posns[i - 1]);
         }
+        _schedule = null;
     }
 
     /** Override of setrotors to account for the existence of Ringstellungs.
@@ -120,16 +179,43 @@ class Machine {
      * @param ringSetting : Setting for the ringstellung. */
     void setRotors(String setting, String ringSetting) {
         setRotors(setting);
-        if (ringSetting.length() != numRotors() - 1) {
+        int[] rings = _alphabet.toInts(ringSetting);
+        if (rings.length != numRotors() - 1) {
             throw new EnigmaException("Invalid "
                     + "setting passed in Machine.setRotors");
         }
         for (int i = 1; i < numRotors(); i++) {
-            _myRotors[i].configureRing(true,
-                    _alphabet.toInt(ringSetting.charAt(i - 1)));
+            setRing(_myRotors[i].name(), rings[i - 1]);
         }
     }
 
+    /** Set rotor #I to setting POSN, keeping its Ringstellung. */
+    private void set(int i, int posn) {
+        int ring = _settings[i] - _shifts[i];
+        _settings[i] = posn;
+        _shifts[i] = wrap(posn - ring);
+    }
+
+    /** Advance rotor #I one position, if it can move. */
+    private void advance(int i) {
+        if (_myRotors[i].rotates()) {
+            int n = _alphabet.size();
+            _settings[i] = _settings[i] + 1 == n ? 0 : _settings[i] + 1;
+            _shifts[i] = _shifts[i] + 1 == n ? 0 : _shifts[i] + 1;
+        }
+    }
+
+    /** Return true iff rotor #I is positioned to allow the rotor to its
+     *  left to advance. */
+    private boolean atNotch(int i) {
+        return _myRotors[i].notchAt(_settings[i]);
+    }
+
+    /** Return P modulo the size of my alphabet. */
+    private int wrap(int p) {
+        return Math.floorMod(p, _alphabet.size());
+    }
+
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
         _plugboard = plugboard;
@@ -137,25 +223,26 @@ class Machine {
 
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
-     *  the machine. */
+     *  the machine.  Allocates nothing. */
     int convert(int c) {
+        _pressesSinceSchedule += 1;
 
-        boolean[] movesThisCycle = new boolean[_myRotors.length];
-        movesThisCycle[_myRotors.length - 1] = true;
-        for (int i = _myRotors.length - 1; i > 0; i--) {
+        MachineMetrics.Recorder recorder = _recorder;
+        int last = _myRotors.length - 1;
+        for (int i = 0; i <= last; i++) {
             Rotor currentRotor = _myRotors[i];
-            Rotor leftRotor = _myRotors[i - 1];
-
-            if (currentRotor.atNotch() && leftRotor.rotates()) {
-                movesThisCycle[i] = true;
-                movesThisCycle[i - 1] = true;
+            boolean moves = i == last
+                || (atNotch(i + 1) && currentRotor.rotates())
+                || (i > 0 && atNotch(i) && _myRotors[i - 1].rotates());
+            if (moves) {
+                advance(i);
+                if (recorder != null) {
+                    recorder.advanced(i);
+                }
             }
         }
-
-        for (int i = 0; i < _myRotors.length; i++) {
-            if (movesThisCycle[i]) {
-                _myRotors[i].advance();
-            }
+        if (recorder != null) {
+            recorder.converted(_plugboard != null);
         }
 
         if (_plugboard != null) {
@@ -163,10 +250,10 @@ class Machine {
         }
 
         for (int i = _myRotors.length - 1; i >= 0; i--) {
-            c = _myRotors[i].convertForward(c);
+            c = _myRotors[i].convertForward(_shifts[i], c);
         }
         for (int i = 1; i < _myRotors.length; i++) {
-            c = _myRotors[i].convertBackward(c);
+            c = _myRotors[i].convertBackward(_shifts[i], c);
         }
 
         if (_plugboard != null) {
@@ -175,36 +262,198 @@ class Machine {
         return c;
     }
 
+    /** Return the settings that my rotors (other than the reflector) will
+     *  have after converting N more characters, in the form accepted by
+     *  setRotors.  Computed from the notches without stepping, so the
+     *  cost does not depend on N.  I am not changed. */
+    String stateAt(long n) {
+        int[] positions = schedule().positionsAt(_pressesSinceSchedule + n);
+        StringBuilder result = new StringBuilder();
+        int first = _myRotors.length - positions.length;
+        for (int i = 1; i < _myRotors.length; i++) {
+            int posn = i < first ? _settings[i]
+                : positions[i - first];
+            result.appendCodePoint(_alphabet.toCodePoint(posn));
+        }
+        return result.toString();
+    }
+
+    /** Put my rotors in the state they would have after converting N more
+     *  characters, without converting them. */
+    void advanceBy(long n) {
+        if (n < 0) {
+            throw error("Cannot step a machine backwards");
+        }
+        int[] positions = schedule().positionsAt(_pressesSinceSchedule + n);
+        int first = _myRotors.length - positions.length;
+        for (int k = 0; k < positions.length; k++) {
+            set(first + k, positions[k]);
+        }
+        _pressesSinceSchedule += n;
+    }
+
+    /** Return the number of characters after which the settings of my
+     *  rotors repeat, starting from their current settings (after any
+     *  initial transient; see SteppingSchedule). */
+    long steppingPeriod() {
+        return schedule().period();
+    }
+
+    /** Return the number of characters converted since the state from
+     *  which schedule() starts. */
+    long pressesSinceSchedule() {
+        schedule();
+        return _pressesSinceSchedule;
+    }
+
+    /** Return a SteppingSchedule for my moving rotors, starting from the
+     *  state pressesSinceSchedule() characters ago. */
+    SteppingSchedule schedule() {
+        if (_myRotors == null) {
+            throw error("No rotors inserted into the machine");
+        }
+        if (_schedule == null) {
+            _schedule = SteppingSchedule.of(_alphabet.size(), _myRotors,
+                                            settings());
+            _pressesSinceSchedule = 0;
+        }
+        return _schedule;
+    }
+
+    /** Return a CompiledMachine that starts in my current state and
+     *  converts exactly as I do.  The result is independent of me:
+     *  neither advancing it nor reconfiguring me affects the other. */
+    CompiledMachine compile() {
+        if (_myRotors == null) {
+            throw error("No rotors inserted into the machine");
+        }
+        return new CompiledMachine(_alphabet, _myRotors, settings(),
+                ringSettings(), _plugboard);
+    }
+
     /** Returns the encoding/decoding of MSG, updating the state of
-     *  the rotors accordingly. */
+     *  the rotors accordingly.  The result is the only object
+     *  allocated, once my scratch buffer is as long as MSG, unless my
+     *  alphabet has characters outside the Basic Multilingual Plane. */
     String convert(String msg) {
-        char[] convertedMsg = new char[msg.length()];
-        for (int i = 0; i < msg.length(); i++) {
-            if ("\t\n ".indexOf(msg.charAt(i)) == -1) {
-                convertedMsg[i] = _alphabet.toChar(
-                        convert(_alphabet.toInt(msg.charAt(i))));
+        if (!_alphabet.bmp()) {
+            return convertCodePoints(msg);
+        }
+        int n = msg.length();
+        if (_scratch.length < n) {
+            _scratch = new char[Math.max(n, 2 * _scratch.length)];
+        }
+        char[] convertedMsg = _scratch;
+        for (int i = 0; i < n; i++) {
+            convertedMsg[i] = convertChar(msg.charAt(i));
+        }
+        flushMetrics();
+        return new String(convertedMsg, 0, n);
+    }
+
+    /** Returns convert(MSG), converting MSG one code point at a time. */
+    private String convertCodePoints(String msg) {
+        StringBuilder result = new StringBuilder(msg.length());
+        for (int i = 0, c; i < msg.length(); i += Character.charCount(c)) {
+            c = msg.codePointAt(i);
+            if (c == ' ' || c == '\t' || c == '\n') {
+                result.append((char) c);
             } else {
-                convertedMsg[i] = msg.charAt(i);
+                result.appendCodePoint(
+                    _alphabet.toCodePoint(convert(_alphabet.toInt(c))));
             }
         }
-        return new String(convertedMsg);
+        flushMetrics();
+        return result.toString();
     }
 
-    /** Common alphabet of my rotors. */
-    private final Alphabet _alphabet;
+    /** Convert characters from SRC into DST until SRC is exhausted or DST
+     *  is full, advancing the positions of both and updating the state of
+     *  the rotors accordingly.  Blanks, tabs and newlines are copied
+     *  unchanged, as in convert(String).  My alphabet must consist of
+     *  single chars.  DST may share storage with SRC
+     *  (for example, DST may be SRC.duplicate()), so that a buffer can be
+     *  converted in place. */
+    void convert(CharBuffer src, CharBuffer dst) {
+        int n = Math.min(src.remaining(), dst.remaining());
+        for (int i = 0; i < n; i++) {
+            dst.put(convertChar(src.get()));
+        }
+        flushMetrics();
+    }
+
+    /** Convert TEXT[START .. END-1] in place, as convert(String) would.
+     *  My alphabet must consist of single chars. */
+    void convert(char[] text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            text[i] = convertChar(text[i]);
+        }
+        flushMetrics();
+    }
+
+    /** Returns the encoding/decoding of the message character CH, which
+     *  is CH itself if it is a blank, tab or newline. */
+    char convertChar(char ch) {
+        if ("\t\n ".indexOf(ch) == -1) {
+            return _alphabet.toChar(convert(_alphabet.toInt(ch)));
+        }
+        return ch;
+    }
+
+    /** Returns the encoding/decoding of MSG exactly as convert(MSG), but
+     *  splitting long messages into chunks converted concurrently on
+     *  POOL.  If MSG contains characters outside my alphabet, reports
+     *  the error without changing my state. */
+    String convertParallel(String msg, ForkJoinPool pool) {
+        if (msg.length() < 2 * ParallelConversion.CHUNK
+            || !_alphabet.bmp()) {
+            return convert(msg);
+        }
+        return ParallelConversion.convert(this, msg, pool);
+    }
 
-    /** Number of rotors in this machine. */
-    private int _numRotors;
+    /** Returns convertParallel(MSG, ForkJoinPool.commonPool()). */
+    String convertParallel(String msg) {
+        return convertParallel(msg, ForkJoinPool.commonPool());
+    }
 
-    /** Number of moving rotors in this machine. */
-    private int _pawls;
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
 
-    /** Hashmap of all possible rotors in this machine. */
-    private HashMap<String, Rotor> _allRotors;
+    /** The rotors available to this machine, and its dimensions. */
+    private final RotorCatalog _catalog;
 
     /** Array of rotors present in this machine. */
     private Rotor[] _myRotors;
 
+    /** Current settings of my rotors, reflector first. */
+    private int[] _settings;
+
+    /** Current settings less Ringstellungs of my rotors, modulo the
+     *  size of my alphabet, reflector first. */
+    private int[] _shifts;
+
+    /** Ringstellungs of the rotors of my catalog, by name, which carry
+     *  over from one configuration to the next.  Rotors with none have
+     *  no entry. */
+    private final HashMap<String, Integer> _rings;
+
     /** plugboard of this machine. */
     private Permutation _plugboard;
+
+    /** Stepping schedule of my moving rotors from some earlier state, or
+     *  null if not yet computed for the current rotors and settings. */
+    private SteppingSchedule _schedule;
+
+    /** Number of characters converted since the state _schedule starts
+     *  from. */
+    private long _pressesSinceSchedule;
+
+    /** Where my per-character work is counted, or null if metrics are
+     *  off. */
+    private MachineMetrics.Recorder _recorder;
+
+    /** Buffer for the result of convert(String), reused between
+     *  calls. */
+    private char[] _scratch = new char[0];
 }
@@ -0,0 +1,266 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import static enigma.EnigmaException.*;
+
+/** Counters and latency histograms of the work done by Machines, Main and
+ *  EnigmaServer, published through JMX.  Metrics are off unless enabled,
+ *  either by the system property PROPERTY being "true" or by Main's
+ *  --metrics option; when off, the hot paths test one null reference.
+ *
+ *  All totals are LongAdders, so that any number of threads may update
+ *  them without contending.  The per-character counts (characters,
+ *  plugboard use and rotor advances) are not added to them on every
+ *  character: each Machine keeps them in a Recorder of plain counters,
+ *  confined to its thread, and flushes that into the totals after each
+ *  message and every FLUSH_INTERVAL characters, so JMX readers see them
+ *  slightly late.
+ *  @author Mridang Sheth
+ */
+final class MachineMetrics implements MachineMetricsMBean {
+
+    /** Counts of per-character events for one Machine, added to my
+     *  totals when flushed.  Not thread-safe. */
+    final class Recorder {
+
+        /** A recorder for a machine with SLOTS rotor slots. */
+        Recorder(int slots) {
+            _advances = new long[slots];
+            _advanceTotals = advanceTotals(slots);
+        }
+
+        /** Record the advance of the rotor in slot SLOT. */
+        void advanced(int slot) {
+            _advances[slot] += 1;
+        }
+
+        /** Record the conversion of one character, with a plugboard iff
+         *  PLUGGED. */
+        void converted(boolean plugged) {
+            _characters += 1;
+            if (plugged) {
+                _plugged += 1;
+            }
+            if (_characters == FLUSH_INTERVAL) {
+                flush();
+            }
+        }
+
+        /** Add my counts to the totals, and reset them. */
+        void flush() {
+            if (_characters != 0) {
+                _charactersConverted.add(_characters);
+                _plugboardCharacters.add(_plugged);
+                _characters = _plugged = 0;
+            }
+            for (int i = 0; i < _advances.length; i++) {
+                if (_advances[i] != 0) {
+                    _advanceTotals[i].add(_advances[i]);
+                    _advances[i] = 0;
+                }
+            }
+        }
+
+        /** Characters converted, and those with a plugboard, since the
+         *  last flush. */
+        private long _characters, _plugged;
+
+        /** Rotor advances per slot since the last flush. */
+        private final long[] _advances;
+
+        /** Totals to which _advances is added. */
+        private final LongAdder[] _advanceTotals;
+    }
+
+    /** A new set of metrics, all zero, not registered with JMX. */
+    MachineMetrics() {
+        for (int b = 0; b < _latencies.length; b++) {
+            _latencies[b] = new LongAdder();
+        }
+    }
+
+    /** Return the metrics enabled for this JVM, or null if they are
+     *  off. */
+    static MachineMetrics current() {
+        return _current;
+    }
+
+    /** Turn on metrics for this JVM, registering them with the platform
+     *  MBean server as NAME, and return them.  Machines created
+     *  afterwards record into them.  Has no further effect if metrics are
+     *  already on. */
+    static synchronized MachineMetrics enable() {
+        if (_current == null) {
+            MachineMetrics metrics = new MachineMetrics();
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(metrics, new ObjectName(NAME));
+            } catch (JMException excp) {
+                throw error("could not register metrics: %s",
+                            excp.getMessage());
+            }
+            _current = metrics;
+        }
+        return _current;
+    }
+
+    /** Return a new recorder for a machine with SLOTS rotor slots. */
+    Recorder recorder(int slots) {
+        return new Recorder(slots);
+    }
+
+    /** Record the conversion of a message line of LENGTH characters that
+     *  took NANOS nanoseconds, where the characters themselves are
+     *  recorded here iff COUNTCHARACTERS (they are not if a Recorder has
+     *  counted them). */
+    void message(int length, long nanos, boolean countCharacters) {
+        _messagesProcessed.increment();
+        _encryptNanos.add(nanos);
+        _latencies[bucket(nanos)].increment();
+        if (countCharacters) {
+            _charactersConverted.add(length);
+        }
+    }
+
+    /** Record the application of a settings line that took NANOS
+     *  nanoseconds to parse and apply. */
+    void settings(long nanos) {
+        _settingsChanges.increment();
+        _parseNanos.add(nanos);
+    }
+
+    /** Return the histogram bucket for a time of NANOS nanoseconds. */
+    private static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /** Return the totals of rotor advances for at least SLOTS slots. */
+    private synchronized LongAdder[] advanceTotals(int slots) {
+        if (_rotorAdvances.length < slots) {
+            LongAdder[] totals = new LongAdder[slots];
+            System.arraycopy(_rotorAdvances, 0, totals, 0,
+                             _rotorAdvances.length);
+            for (int i = _rotorAdvances.length; i < slots; i++) {
+                totals[i] = new LongAdder();
+            }
+            _rotorAdvances = totals;
+        }
+        return _rotorAdvances;
+    }
+
+    @Override
+    public long getCharactersConverted() {
+        return _charactersConverted.sum();
+    }
+
+    @Override
+    public long getMessagesProcessed() {
+        return _messagesProcessed.sum();
+    }
+
+    @Override
+    public long getSettingsChanges() {
+        return _settingsChanges.sum();
+    }
+
+    @Override
+    public long[] getRotorAdvances() {
+        LongAdder[] totals = _rotorAdvances;
+        long[] result = new long[totals.length];
+        for (int i = 0; i < totals.length; i++) {
+            result[i] = totals[i].sum();
+        }
+        return result;
+    }
+
+    @Override
+    public long getPlugboardCharacters() {
+        return _plugboardCharacters.sum();
+    }
+
+    @Override
+    public long getParseNanos() {
+        return _parseNanos.sum();
+    }
+
+    @Override
+    public long getEncryptNanos() {
+        return _encryptNanos.sum();
+    }
+
+    @Override
+    public long[] getMessageLatencyHistogram() {
+        long[] result = new long[_latencies.length];
+        for (int b = 0; b < result.length; b++) {
+            result[b] = _latencies[b].sum();
+        }
+        return result;
+    }
+
+    @Override
+    public long getMessageLatencyP50Nanos() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public long getMessageLatencyP99Nanos() {
+        return percentile(0.99);
+    }
+
+    /** Return the upper bound of the histogram bucket holding the
+     *  FRACTION quantile of message latencies, or 0 if there are none. */
+    private long percentile(double fraction) {
+        long[] counts = getMessageLatencyHistogram();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        long rank = (long) Math.ceil(fraction * total), seen = 0;
+        for (int b = 0; b < counts.length; b++) {
+            seen += counts[b];
+            if (total > 0 && seen >= rank) {
+                return b == Long.SIZE - 1 ? Long.MAX_VALUE : 1L << b;
+            }
+        }
+        return 0;
+    }
+
+    /** System property that enables metrics when "true". */
+    static final String PROPERTY = "enigma.metrics";
+
+    /** JMX name of the enabled metrics. */
+    static final String NAME = "enigma:type=MachineMetrics";
+
+    /** Number of characters a Recorder counts before flushing. */
+    static final int FLUSH_INTERVAL = 1 << 12;
+
+    /** The metrics enabled for this JVM, or null. */
+    private static volatile MachineMetrics _current;
+
+    static {
+        if (Boolean.getBoolean(PROPERTY)) {
+            enable();
+        }
+    }
+
+    /** Totals of characters, messages, settings lines and plugboard
+     *  characters. */
+    private final LongAdder _charactersConverted = new LongAdder(),
+        _messagesProcessed = new LongAdder(),
+        _settingsChanges = new LongAdder(),
+        _plugboardCharacters = new LongAdder();
+
+    /** Total parsing and conversion times. */
+    private final LongAdder _parseNanos = new LongAdder(),
+        _encryptNanos = new LongAdder();
+
+    /** Message latency histogram (see getMessageLatencyHistogram). */
+    private final LongAdder[] _latencies = new LongAdder[Long.SIZE];
+
+    /** Rotor advance totals per slot. */
+    private volatile LongAdder[] _rotorAdvances = new LongAdder[0];
+}
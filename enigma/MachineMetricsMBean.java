@@ -0,0 +1,48 @@
+package enigma;
+
+/** The management interface of MachineMetrics, as seen through JMX (for
+ *  example in jconsole, under enigma:type=MachineMetrics).  It is public
+ *  only because JMX requires standard MBean interfaces to be.
+ *  @author Mridang Sheth
+ */
+public interface MachineMetricsMBean {
+
+    /** Return the number of characters converted (not counting blanks
+     *  passed through). */
+    long getCharactersConverted();
+
+    /** Return the number of message lines converted. */
+    long getMessagesProcessed();
+
+    /** Return the number of settings lines applied. */
+    long getSettingsChanges();
+
+    /** Return, for each rotor slot (the reflector's being 0), the number
+     *  of times the rotor in that slot has advanced. */
+    long[] getRotorAdvances();
+
+    /** Return the number of characters converted by machines with a
+     *  plugboard. */
+    long getPlugboardCharacters();
+
+    /** Return the total time spent parsing and applying settings lines,
+     *  in nanoseconds. */
+    long getParseNanos();
+
+    /** Return the total time spent converting message lines, in
+     *  nanoseconds. */
+    long getEncryptNanos();
+
+    /** Return the histogram of the time taken to convert each message
+     *  line: element b counts the lines that took at least 2**(b-1) and
+     *  less than 2**b nanoseconds. */
+    long[] getMessageLatencyHistogram();
+
+    /** Return an upper bound on the median time to convert a message
+     *  line, in nanoseconds. */
+    long getMessageLatencyP50Nanos();
+
+    /** Return an upper bound on the 99th percentile of the time to
+     *  convert a message line, in nanoseconds. */
+    long getMessageLatencyP99Nanos();
+}
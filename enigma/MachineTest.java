@@ -0,0 +1,655 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Machine class and the engines
+ *  derived from it.
+ *  @author Mridang Sheth
+ */
+public class MachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the naval rotors, with the notches of the real machines. */
+    static ArrayList<Rotor> navalRotors() {
+        ArrayList<Rotor> result = new ArrayList<>();
+        String[][] moving = {
+            {"I", "Q"}, {"II", "E"}, {"III", "V"}, {"IV", "J"}, {"V", "Z"},
+            {"VI", "ZM"}, {"VII", "ZM"}, {"VIII", "ZM"},
+        };
+        for (String[] r : moving) {
+            result.add(new MovingRotor(r[0],
+                    new Permutation(NAVALA.get(r[0]), UPPER), r[1]));
+        }
+        for (String name : new String[] {"Beta", "Gamma"}) {
+            result.add(new FixedRotor(name,
+                    new Permutation(NAVALA.get(name), UPPER)));
+        }
+        for (String name : new String[] {"B", "C"}) {
+            result.add(new Reflector(name,
+                    new Permutation(NAVALA.get(name), UPPER)));
+        }
+        return result;
+    }
+
+    /** Return a five-rotor, three-pawl naval machine with rotors ROTORS,
+     *  settings SETTING, ring settings RINGS (null for none) and plugboard
+     *  CYCLES. */
+    static Machine navalMachine(String[] rotors, String setting,
+                                String rings, String cycles) {
+        Machine m = new Machine(UPPER, 5, 3, navalRotors());
+        m.insertRotors(rotors);
+        if (rings == null) {
+            m.setRotors(setting);
+        } else {
+            m.setRotors(setting, rings);
+        }
+        m.setPlugboard(new Permutation(cycles, UPPER));
+        return m;
+    }
+
+    /** Standard rotor order used by these tests. */
+    static final String[] ORDER = {"B", "Beta", "III", "IV", "I"};
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkConvertString() {
+        Machine m = navalMachine(ORDER, "AXLE", null,
+                "(HQ) (EX) (IP) (TR) (BY)");
+        assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW",
+                m.convert("FROMH ISSHO ULDER HIAWA THA"));
+    }
+
+    @Test
+    public void checkCompiledMatchesMachine() {
+        Machine m = navalMachine(ORDER, "AXDU", "BQCZ", "(AQ) (EP) (MZ)");
+        CompiledMachine c = m.compile();
+        for (int i = 0; i < 20000; i += 1) {
+            int x = (i * 7) % UPPER.size();
+            assertEquals(msg("compiled", "character %d", i),
+                    m.convert(x), c.convert(x));
+        }
+    }
+
+    @Test
+    public void checkStateAtMatchesStepping() {
+        Machine m = navalMachine(ORDER, "AQDU", "BQCZ", "");
+        String[] expected = new String[2000];
+        for (int i = 0; i < expected.length; i += 1) {
+            expected[i] = m.stateAt(i);
+        }
+        for (int i = 0; i < expected.length; i += 1) {
+            assertEquals(msg("stateAt", "after %d characters", i),
+                    expected[i], m.stateAt(0));
+            m.convert(0);
+        }
+    }
+
+    @Test
+    public void checkAdvanceBy() {
+        Machine m1 = navalMachine(ORDER, "ADEV", null, "");
+        Machine m2 = navalMachine(ORDER, "ADEV", null, "");
+        for (int i = 0; i < 1234; i += 1) {
+            m1.convert(0);
+        }
+        m2.advanceBy(1234);
+        assertEquals(m1.stateAt(0), m2.stateAt(0));
+        assertEquals(m1.convert("HELLO WORLD"), m2.convert("HELLO WORLD"));
+    }
+
+    @Test
+    public void checkSteppingPeriod() {
+        Machine m = navalMachine(ORDER, "AAAA", null, "");
+        assertEquals(26 * 25 * 26, m.steppingPeriod());
+        String later = m.stateAt(1000);
+        assertEquals(later, m.stateAt(1000 + 1000000 * m.steppingPeriod()));
+    }
+
+    @Test
+    public void checkConvertParallel() {
+        StringBuilder text = new StringBuilder();
+        int size = 5 * ParallelConversion.CHUNK;
+        for (int i = 0; text.length() < size; i += 1) {
+            text.append(UPPER_STRING, i % 26, 26);
+            text.append(i % 3 == 0 ? "\n" : " ");
+        }
+        Machine m1 = navalMachine(ORDER, "AXDU", "BQCZ", "(AQ) (EP)");
+        Machine m2 = navalMachine(ORDER, "AXDU", "BQCZ", "(AQ) (EP)");
+        String msg = text.toString();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(m1.convert(msg), m2.convertParallel(msg, pool));
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(m1.stateAt(0), m2.stateAt(0));
+    }
+
+    /** A message used by the stream tests. */
+    static final String HIAWATHA =
+        "FROM HIS SHOULDER HIAWATHA\nTOOK THE CAMERA OF ROSEWOOD\n";
+
+    @Test
+    public void checkCharBuffers() {
+        Machine m1 = navalMachine(ORDER, "AXLE", null, "(HQ) (EX)");
+        Machine m2 = navalMachine(ORDER, "AXLE", null, "(HQ) (EX)");
+        CharBuffer buf = CharBuffer.wrap(HIAWATHA.toCharArray());
+        CharBuffer out = buf.duplicate();
+        while (buf.hasRemaining()) {
+            out.limit(Math.min(out.position() + 7, out.capacity()));
+            m2.convert(buf, out);
+        }
+        buf.flip();
+        assertEquals(m1.convert(HIAWATHA), buf.toString());
+    }
+
+    @Test
+    public void checkReaderAndWriter() throws IOException {
+        String expected =
+            navalMachine(ORDER, "AXLE", null, "(HQ)").convert(HIAWATHA);
+        Reader reader = new EnigmaReader(new StringReader(HIAWATHA),
+                navalMachine(ORDER, "AXLE", null, "(HQ)"));
+        StringBuilder read = new StringBuilder();
+        char[] chunk = new char[5];
+        for (int n; (n = reader.read(chunk, 0, 5)) != -1;) {
+            read.append(chunk, 0, n);
+            int c = reader.read();
+            if (c != -1) {
+                read.append((char) c);
+            }
+        }
+        assertEquals(expected, read.toString());
+
+        StringWriter sink = new StringWriter();
+        Writer writer = new EnigmaWriter(sink,
+                navalMachine(ORDER, "AXLE", null, "(HQ)"));
+        writer.write(HIAWATHA, 0, 3);
+        writer.write(HIAWATHA.charAt(3));
+        writer.write(HIAWATHA.toCharArray(), 4, HIAWATHA.length() - 4);
+        writer.flush();
+        assertEquals(expected, sink.toString());
+    }
+
+    @Test
+    public void checkSessionsShareCatalog() throws InterruptedException {
+        RotorCatalog catalog =
+            new RotorCatalog(UPPER, 5, 3, navalRotors());
+        Settings[] first =
+            Main.parseSettings(catalog, "B Beta III IV I AXLE BCDE (HQ)");
+        Settings[] second =
+            Main.parseSettings(catalog, "B Beta III IV I QEZV");
+        Machine m = new Machine(catalog);
+        for (Settings config : first) {
+            config.applyTo(m);
+        }
+        m.convert(HIAWATHA);
+        for (Settings config : second) {
+            config.applyTo(m);
+        }
+        String expected = m.convert(HIAWATHA);
+
+        String[] results = new String[4];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            int k = i;
+            threads[i] = new Thread(() -> {
+                Session s = catalog.newSession();
+                for (int j = 0; j < 50; j++) {
+                    s.setUp(first);
+                    s.convert(HIAWATHA);
+                    s.setUp(second);
+                    results[k] = s.convert(HIAWATHA);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (String result : results) {
+            assertEquals(expected, result);
+        }
+    }
+
+    @Test
+    public void checkMachinesShareCatalog() {
+        RotorCatalog catalog =
+            new RotorCatalog(UPPER, 5, 3, navalRotors());
+        Machine ringed = new Machine(catalog);
+        for (Settings config : Main.parseSettings(
+                 catalog, "B Beta III IV I AXLE BCDE (HQ)")) {
+            config.applyTo(ringed);
+        }
+        ringed.convert(HIAWATHA);
+        Machine plain = new Machine(catalog);
+        Machine fresh =
+            new Machine(new RotorCatalog(UPPER, 5, 3, navalRotors()));
+        for (Machine m : new Machine[] { plain, fresh }) {
+            for (Settings config : Main.parseSettings(
+                     m.catalog(), "B Beta III IV I QEZV")) {
+                config.applyTo(m);
+            }
+        }
+        assertEquals(fresh.convert(HIAWATHA), plain.convert(HIAWATHA));
+        assertEquals(1, ringed.ring("Beta"));
+        for (String name : catalog.rotors().keySet()) {
+            assertEquals(0, plain.ring(name));
+        }
+    }
+
+    @Test
+    public void checkBatchedMatchesMachines() {
+        String[] settings = {"AXLE", "QEZV", "ZZZZ", "BDUQ", "AAAV"};
+        String[] rings = {"AAAA", "BQCZ", "AAAA", "ZAYB", "AAAA"};
+        String[] plugs = {"(HQ) (EX)", "", "(AQ) (EP) (MZ)", "", "(BY)"};
+        for (boolean vectorize : new boolean[] {false, true}) {
+            Machine m = navalMachine(ORDER, "AAAA", null, "");
+            int sessions = 4 * settings.length + 3;
+            BatchedMachine b =
+                new BatchedMachine(UPPER, m.rotors(), sessions, vectorize);
+            CompiledMachine[] expected = new CompiledMachine[sessions];
+            for (int s = 0; s < sessions; s++) {
+                int k = s % settings.length;
+                m.setRotors(settings[k], rings[k]);
+                m.setPlugboard(new Permutation(plugs[k], UPPER));
+                b.configure(s, m);
+                expected[s] = m.compile();
+            }
+            int[] in = new int[sessions];
+            int[] out = new int[sessions];
+            for (int i = 0; i < 2000; i += 1) {
+                for (int s = 0; s < sessions; s++) {
+                    in[s] = (i * 7 + s) % UPPER.size();
+                }
+                b.convert(in, out);
+                for (int s = 0; s < sessions; s++) {
+                    assertEquals(msg("batched", "session %d, character %d",
+                                     s, i),
+                                 expected[s].convert(in[s]), out[s]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void checkKeystreamCache() {
+        RotorCatalog catalog =
+            new RotorCatalog(UPPER, 5, 3, navalRotors());
+        Settings[] first =
+            Main.parseSettings(catalog, "B Beta III IV I AXLE BCDE (HQ)");
+        Settings[] second =
+            Main.parseSettings(catalog, "B Gamma I II V QEZV");
+        String text = HIAWATHA.repeat(1000);
+        KeystreamCache cache = new KeystreamCache(600000);
+        Session plain = catalog.newSession();
+        Session cached = catalog.newSession(cache);
+        for (Settings[] config : Arrays.asList(first, first, second, first)) {
+            plain.setUp(config);
+            cached.setUp(config);
+            assertEquals(plain.convert(text), cached.convert(text));
+        }
+        assertEquals(1, cache.hits());
+        assertEquals(3, cache.misses());
+        assertEquals(2, cache.evictions());
+        assertEquals(1, cache.size());
+        assertTrue(cache.bytes() <= cache.capacity());
+    }
+
+    /** Return a temporary table store for CATALOG holding tables for the
+     *  settings lines LINES, deleted when the tests finish. */
+    static Path tableStore(RotorCatalog catalog, String... lines)
+        throws IOException {
+        Path file = Files.createTempFile("enigma", ".tables");
+        file.toFile().deleteOnExit();
+        TableStore.write(file, catalog, Arrays.asList(lines));
+        return file;
+    }
+
+    @Test
+    public void checkTableStore() throws IOException {
+        RotorCatalog catalog =
+            new RotorCatalog(UPPER, 5, 3, navalRotors());
+        String[] lines = {
+            "B Beta III IV I AXLE BCDE (HQ)", "B Gamma I II V QEZV",
+        };
+        Path file = tableStore(catalog, "* " + lines[0], "", lines[1]);
+        TableStore store = new TableStore(catalog, file);
+        assertEquals(2, store.size());
+        KeystreamCache cache = new KeystreamCache(0, store);
+        Session plain = catalog.newSession();
+        Session mapped = catalog.newSession(cache);
+        String text = HIAWATHA.repeat(1000);
+        for (String line : lines) {
+            plain.setUp(Main.parseSettings(catalog, line));
+            mapped.setUp(Main.parseSettings(catalog, line));
+            assertEquals(plain.convert(text), mapped.convert(text));
+        }
+        assertEquals(2, cache.hits());
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test
+    public void checkTableStoreCodePoints() throws IOException {
+        Alphabet alpha = new Alphabet(bigAlphabet(200));
+        RotorCatalog catalog = new RotorCatalog(alpha, 4, 2,
+                                                bigRotors(alpha));
+        StringBuilder line = new StringBuilder("R F M1 M2 ");
+        for (int i : new int[] {199, 3, 198, 0, 197, 1}) {
+            line.appendCodePoint(alpha.toCodePoint(i));
+            if (i == 198) {
+                line.append(' ');
+            }
+        }
+        line.append(" (").appendCodePoint(alpha.toCodePoint(196))
+            .appendCodePoint(alpha.toCodePoint(5)).append(')');
+        String settings = line.toString();
+        TableStore store =
+            new TableStore(catalog, tableStore(catalog, settings));
+        assertEquals(1, store.size());
+        KeystreamCache cache = new KeystreamCache(0, store);
+        Session plain = catalog.newSession();
+        Session mapped = catalog.newSession(cache);
+        plain.setUp(Main.parseSettings(catalog, settings));
+        mapped.setUp(Main.parseSettings(catalog, settings));
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            text.appendCodePoint(alpha.toCodePoint(i * 7 % 200));
+        }
+        assertEquals(plain.convert(text.toString()),
+                     mapped.convert(text.toString()));
+        assertEquals(1, cache.hits());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkTableStoreRejectsOtherRotors() throws IOException {
+        RotorCatalog catalog =
+            new RotorCatalog(UPPER, 5, 3, navalRotors());
+        Path file = tableStore(catalog, "B Beta III IV I AXLE");
+        new TableStore(new RotorCatalog(UPPER, 5, 3,
+                                        navalRotors().subList(2, 12)), file);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkTableStoreRejectsOtherNotches() throws IOException {
+        RotorCatalog catalog =
+            new RotorCatalog(UPPER, 5, 3, navalRotors());
+        Path file = tableStore(catalog, "B Beta III IV I AXLE");
+        ArrayList<Rotor> rotors = navalRotors();
+        rotors.set(0, new MovingRotor("I",
+                new Permutation(NAVALA.get("I"), UPPER), "R"));
+        new TableStore(new RotorCatalog(UPPER, 5, 3, rotors), file);
+    }
+
+    @Test
+    public void checkMetrics() {
+        Machine m = navalMachine(ORDER, "AXLE", null, "(HQ) (EX)");
+        MachineMetrics metrics = new MachineMetrics();
+        m.setMetrics(metrics);
+        m.convert(HIAWATHA);
+        String letters = HIAWATHA.replaceAll("\\s", "");
+        assertEquals(letters.length(), metrics.getCharactersConverted());
+        assertEquals(letters.length(), metrics.getPlugboardCharacters());
+        long[] advances = metrics.getRotorAdvances();
+        assertEquals(5, advances.length);
+        assertEquals(letters.length(), advances[4]);
+        assertEquals(0, advances[0] + advances[1]);
+
+        for (int i = 0; i < 3; i += 1) {
+            metrics.message(10, 1000, true);
+        }
+        metrics.message(10, 1 << 20, true);
+        assertEquals(4, metrics.getMessagesProcessed());
+        assertEquals(3, metrics.getMessageLatencyHistogram()[10]);
+        assertEquals(1 << 10, metrics.getMessageLatencyP50Nanos());
+        assertEquals(1 << 21, metrics.getMessageLatencyP99Nanos());
+    }
+
+    @Test
+    public void checkStreamMetrics() throws IOException {
+        String letters = HIAWATHA.replaceAll("\\s", "");
+        Machine m = navalMachine(ORDER, "AXLE", null, "(HQ)");
+        MachineMetrics metrics = new MachineMetrics();
+        m.setMetrics(metrics);
+        Writer writer = new EnigmaWriter(new StringWriter(), m);
+        writer.write(HIAWATHA.substring(0, 5));
+        writer.flush();
+        assertEquals(4, metrics.getCharactersConverted());
+        writer.write(HIAWATHA.substring(5));
+        writer.close();
+        assertEquals(letters.length(), metrics.getCharactersConverted());
+
+        m = navalMachine(ORDER, "AXLE", null, "(HQ)");
+        metrics = new MachineMetrics();
+        m.setMetrics(metrics);
+        Reader reader = new EnigmaReader(new StringReader(HIAWATHA), m);
+        char[] chunk = new char[HIAWATHA.indexOf('\n') + 1];
+        reader.read(chunk, 0, chunk.length);
+        assertEquals(new String(chunk).replaceAll("\\s", "").length(),
+                     metrics.getCharactersConverted());
+        while (reader.read() != -1) {
+            continue;
+        }
+        reader.close();
+        assertEquals(letters.length(), metrics.getCharactersConverted());
+    }
+
+    /** English text for the key search tests. */
+    static final String HIAWATHA_PLAIN =
+        "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOODMADEOFSLIDING"
+        + "FOLDINGROSEWOODNEATLYPUTITALLTOGETHERINITSCASEITLAYCOMPACTLY"
+        + "FOLDEDINTONEARLYNOTHINGBUTHEOPENEDOUTTHEHINGESPUSHEDANDPULLED"
+        + "THEJOINTSANDHINGESTILLITLOOKEDALLSQUARESANDOBLONGSLIKEA"
+        + "COMPLICATEDFIGUREINTHESECONDBOOKOFEUCLID";
+
+    @Test
+    public void checkKeySearch() {
+        RotorCatalog catalog =
+            new RotorCatalog(UPPER, 4, 3, navalRotors());
+        String[] order = {"B", "II", "V", "I"};
+        Machine m = new Machine(catalog);
+        m.insertRotors(order);
+        m.setRotors("QFM", "AXC");
+        m.setPlugboard(new Permutation("(AT) (BE)", UPPER));
+        String plain = HIAWATHA_PLAIN + HIAWATHA_PLAIN;
+        String cipher = m.convert(plain);
+        int[] text = new int[cipher.length()];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = UPPER.toInt(cipher.charAt(i));
+        }
+        ArrayList<Rotor[]> orders = new ArrayList<>();
+        orders.add(catalog.selectRotors(order));
+        KeySearch search = new KeySearch(catalog, orders, text, 1);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            KeySearch.Key best = search.search(pool).get(0);
+            assertEquals(plain, best.decrypt());
+            long tried = search.keysTried();
+            assertTrue(tried >= 26 * 26 * 26);
+            assertEquals(plain, search.search(pool).get(0).decrypt());
+            assertEquals(tried, search.keysTried());
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(2 * 8 * 7 * 6, KeySearch.allOrders(catalog).size());
+    }
+
+    @Test
+    public void checkBombe() {
+        RotorCatalog catalog =
+            new RotorCatalog(UPPER, 4, 3, navalRotors());
+        String[] order = {"B", "II", "V", "I"};
+        Machine m = new Machine(catalog);
+        m.insertRotors(order);
+        m.setRotors("QFM");
+        m.setPlugboard(new Permutation("(AT) (BE) (DN) (RS)", UPPER));
+        String cipher = m.convert(HIAWATHA_PLAIN);
+        int[] text = new int[cipher.length()];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = UPPER.toInt(cipher.charAt(i));
+        }
+        int[] crib = new int[24];
+        for (int i = 0; i < crib.length; i++) {
+            crib[i] = UPPER.toInt(HIAWATHA_PLAIN.charAt(i));
+        }
+        ArrayList<Rotor[]> orders = new ArrayList<>();
+        orders.add(catalog.selectRotors(order));
+        boolean found = false;
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (Bombe.Stop stop : new Bombe(catalog, orders, text, crib, 0)
+                     .run(pool)) {
+                if (stop.setting().equals("QFM")) {
+                    found = true;
+                    assertEquals(UPPER.toInt('T'),
+                                 stop.partner(UPPER.toInt('A')));
+                    assertEquals(UPPER.toInt('S'),
+                                 stop.partner(UPPER.toInt('R')));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void checkCribIndex() throws IOException {
+        Path corpus = Files.createTempFile("corpus", ".txt");
+        try {
+            Files.write(corpus, "ABCDE FGHAB\nCDEFG\n".getBytes("US-ASCII"));
+            CribIndex index = new CribIndex(UPPER, corpus);
+            assertEquals(15, index.length());
+            int[] crib1 = {UPPER.toInt('A'), UPPER.toInt('B')};
+            int[] crib2 = {UPPER.toInt('C')};
+            long[] found = index.admissible(Arrays.asList(crib1, crib2))
+                .mapToLong(a -> 2 * a.position() + a.crib()).toArray();
+            long[] expected = {
+                1, 2, 3, 4, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 17,
+                18, 19, 20, 22, 23, 24, 25, 26, 27, 29,
+            };
+            assertArrayEquals(expected, found);
+        } finally {
+            Files.delete(corpus);
+        }
+    }
+
+    /** Return N symbols for a large alphabet: CJK ideographs followed by
+     *  eight characters outside the Basic Multilingual Plane. */
+    static String bigAlphabet(int n) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n - 8; i++) {
+            result.appendCodePoint(0x4e00 + i);
+        }
+        for (int i = 0; i < 8; i++) {
+            result.appendCodePoint(0x1f600 + i);
+        }
+        return result.toString();
+    }
+
+    /** Return one cycle through all the symbols of ALPHA, visiting
+     *  symbol (j * STRIDE) % size next, where STRIDE is prime to the size
+     *  of ALPHA; or, if STRIDE is 0, the pairs of symbols 2j and 2j + 1 as
+     *  cycles. */
+    static String bigCycles(Alphabet alpha, int stride) {
+        int n = alpha.size();
+        StringBuilder result = new StringBuilder("(");
+        for (int j = 0; j < n; j++) {
+            if (stride == 0 && j > 0 && j % 2 == 0) {
+                result.append(")(");
+            }
+            result.appendCodePoint(
+                alpha.toCodePoint(stride == 0 ? j : j * stride % n));
+        }
+        return result.append(')').toString();
+    }
+
+    /** Return the rotors R, F, M1 and M2 over the large alphabet ALPHA. */
+    static ArrayList<Rotor> bigRotors(Alphabet alpha) {
+        int n = alpha.size();
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R",
+                new Permutation(bigCycles(alpha, 0), alpha)));
+        rotors.add(new FixedRotor("F",
+                new Permutation(bigCycles(alpha, 37), alpha)));
+        rotors.add(new MovingRotor("M1",
+                new Permutation(bigCycles(alpha, 7919), alpha),
+                Character.toString(alpha.toCodePoint(5))));
+        rotors.add(new MovingRotor("M2",
+                new Permutation(bigCycles(alpha, 11), alpha),
+                Character.toString(alpha.toCodePoint(n - 1))));
+        return rotors;
+    }
+
+    /** Return a machine over the large alphabet ALPHA, configured with
+     *  rotors, rings and a plugboard using symbols from all of it. */
+    static Machine bigMachine(Alphabet alpha) {
+        int n = alpha.size();
+        Machine m = new Machine(alpha, 4, 2, bigRotors(alpha));
+        m.insertRotors(new String[] {"R", "F", "M1", "M2"});
+        StringBuilder setting = new StringBuilder(), rings =
+            new StringBuilder();
+        for (int i : new int[] {n - 2, 3, n - 3}) {
+            setting.appendCodePoint(alpha.toCodePoint(i));
+            rings.appendCodePoint(alpha.toCodePoint(n - 1 - i));
+        }
+        m.setRotors(setting.toString(), rings.toString());
+        m.setPlugboard(new Permutation(
+                "(" + Character.toString(alpha.toCodePoint(0))
+                + Character.toString(alpha.toCodePoint(n - 1)) + ")",
+                alpha));
+        return m;
+    }
+
+    @Test
+    public void checkLargeAlphabet() {
+        int n = 1500;
+        Alphabet alpha = new Alphabet(bigAlphabet(n));
+        assertEquals(n, alpha.size());
+        assertFalse(alpha.bmp());
+        assertFalse(new Permutation("", alpha).hasShiftedTables());
+        assertEquals(n - 1, alpha.toInt(0x1f607));
+
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 4000; i++) {
+            msg.appendCodePoint(alpha.toCodePoint(i * 13 % n));
+            if (i % 7 == 6) {
+                msg.append(' ');
+            }
+        }
+        String plain = msg.toString();
+        Machine m = bigMachine(alpha);
+        CompiledMachine compiled = m.compile();
+        String cipher = m.convert(plain);
+        assertEquals(plain.codePointCount(0, plain.length()),
+                     cipher.codePointCount(0, cipher.length()));
+        int[] expected = plain.codePoints().filter(c -> c != ' ')
+            .map(c -> alpha.toCodePoint(compiled.convert(alpha.toInt(c))))
+            .toArray();
+        assertArrayEquals(expected, cipher.codePoints()
+                          .filter(c -> c != ' ').toArray());
+        assertEquals(plain, bigMachine(alpha).convert(cipher));
+    }
+
+}
@@ -2,9 +2,18 @@ package enigma;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardOpenOption.*;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 import java.util.regex.Matcher;
@@ -26,10 +35,59 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *  Alternatively, ARGS may be "--serve", the name of a configuration
+     *  file, and either a port number or the path of a Unix domain
+     *  socket, at which to run an EnigmaServer for that configuration,
+     *  optionally followed by the size in MiB of a KeystreamCache for
+     *  its sessions to share and then by a TableStore backing it.
+     *  The first form may instead be preceded by "--checkpoint" and a
+     *  file name, in which case ARGS must name all three files: a
+     *  Checkpoint of the run is written to that file every
+     *  CHECKPOINT_INTERVAL nanoseconds and at the end.  With "--resume"
+     *  in place of "--checkpoint", the run resumes from the checkpoint
+     *  in that file, continuing to update it.
+     *  Finally, ARGS may be "--seek", the name of a configuration file, a
+     *  settings line, FROM, TO and the name of a file of ciphertext
+     *  written by this program for that settings line, in which case the
+     *  plaintext of letters FROM (inclusive) to TO (exclusive) of that
+     *  file is printed, found and decrypted by a RangeDecryptor without
+     *  decrypting the letters before it.  The first seek in a file
+     *  writes an index of it beside it (see RangeDecryptor.indexFile),
+     *  which later seeks use as long as the file is unchanged.
+     *  Or ARGS may be "--bytes", the name of a byte configuration file, a
+     *  settings line for it, and the names of an input and an output file
+     *  (which may be the same), in which case the bytes of the input are
+     *  converted by a ByteMachine (see ByteMachine.readCatalog and
+     *  ByteMachine.parseSettings for the forms of its configuration).
+     *  The first form may also be preceded by "--pipelined", in which
+     *  case reading, converting and writing run concurrently in a
+     *  Pipeline, with the same output.
+     *  Any form may be preceded by "--metrics", which publishes
+     *  MachineMetrics through JMX. */
     public static void main(String... args) {
         try {
-            new Main(args).process();
+            if (args.length > 0 && args[0].equals("--metrics")) {
+                MachineMetrics.enable();
+                args = Arrays.copyOfRange(args, 1, args.length);
+            }
+            if (args.length > 0 && args[0].equals("--serve")) {
+                serve(args);
+            } else if (args.length > 0 && args[0].equals("--seek")) {
+                seek(args);
+            } else if (args.length > 0 && args[0].equals("--bytes")) {
+                bytes(args);
+            } else if (args.length > 0 && args[0].equals("--pipelined")) {
+                new Main(Arrays.copyOfRange(args, 1, args.length), true)
+                    .process();
+            } else if (args.length > 1 && (args[0].equals("--checkpoint")
+                                           || args[0].equals("--resume"))) {
+                new Main(Arrays.copyOfRange(args, 2, args.length),
+                         Paths.get(args[1]), args[0].equals("--resume"))
+                    .process();
+            } else {
+                new Main(args).process();
+            }
             return;
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
@@ -37,15 +95,138 @@ public final class Main {
         System.exit(1);
     }
 
+    /** Run the server requested by ARGS (see comment on main). */
+    private static void serve(String[] args) {
+        if (args.length < 3 || args.length > 5) {
+            throw error("Usage: --serve CONFIG PORT|SOCKET"
+                        + " [CACHE_MB [STORE]]");
+        }
+        RotorCatalog catalog = readCatalog(args[1]);
+        KeystreamCache keystreams = null;
+        if (args.length >= 4) {
+            long size;
+            try {
+                size = Long.parseLong(args[3]);
+            } catch (NumberFormatException excp) {
+                size = -1;
+            }
+            if (size < 0 || size > Long.MAX_VALUE / MEBIBYTE) {
+                throw error("bad keystream cache size: %s", args[3]);
+            }
+            TableStore store = args.length == 5
+                ? new TableStore(catalog, Paths.get(args[4])) : null;
+            keystreams = new KeystreamCache(size * MEBIBYTE, store);
+        }
+        new EnigmaServer(catalog, EnigmaServer.MAX_SESSIONS, keystreams)
+            .serve(args[2]);
+    }
+
+    /** Print the range of plaintext requested by ARGS (see comment on
+     *  main). */
+    private static void seek(String[] args) {
+        if (args.length != 6) {
+            throw error("Usage: --seek CONFIG SETTINGS FROM TO CIPHERTEXT");
+        }
+        RotorCatalog catalog = readCatalog(args[1]);
+        Machine m = new Machine(catalog);
+        String settings = args[2].trim();
+        if (settings.startsWith("*")) {
+            settings = settings.substring(1).trim();
+        }
+        for (Settings config : parseSettings(catalog, settings)) {
+            config.applyTo(m);
+        }
+        long from, to;
+        try {
+            from = Long.parseLong(args[3]);
+            to = Long.parseLong(args[4]);
+        } catch (NumberFormatException excp) {
+            throw error("bad range: %s to %s", args[3], args[4]);
+        }
+        System.out.println(new RangeDecryptor(m, Paths.get(args[5]))
+                           .decrypt(from, to));
+    }
+
+    /** Convert the binary file requested by ARGS (see comment on
+     *  main). */
+    static void bytes(String[] args) {
+        if (args.length != 5) {
+            throw error("Usage: --bytes CONFIG SETTINGS INPUT OUTPUT");
+        }
+        RotorCatalog catalog = ByteMachine.readCatalog(Paths.get(args[1]));
+        Machine m = new Machine(catalog);
+        ByteMachine.parseSettings(catalog, args[2]).applyTo(m);
+        new ByteMachine(m).convert(Paths.get(args[3]), Paths.get(args[4]));
+    }
+
+    /** Return the rotor catalog described by the configuration file
+     *  named NAME. */
+    static RotorCatalog readCatalog(String name) {
+        return readCatalog(getInput(name));
+    }
+
+    /** Return the rotor catalog described by the configuration read from
+     *  CONFIG, which is then closed. */
+    static RotorCatalog readCatalog(Scanner config) {
+        try {
+            Alphabet alphabet = new Alphabet(config.next());
+            int numRotors = 0;
+            int numPawls = 0;
+            if (!config.hasNextInt()) {
+                throw error("Bad config file,"
+                        + " does not have numRotors properly");
+            } else {
+                numRotors = config.nextInt();
+            }
+            if (!config.hasNextInt()) {
+                throw error("Bad config file, does not have numPawls properly");
+            } else {
+                numPawls = config.nextInt();
+            }
+
+            config.useDelimiter("\\Z");
+            if (config.hasNext()) {
+                String input = config.next().trim();
+                checkRotorParse(input);
+                return new RotorCatalog(alphabet, numRotors, numPawls,
+                                        readRotors(input, alphabet));
+            } else {
+                throw error("Bad config file");
+            }
+        } catch (NoSuchElementException excp) {
+            throw error("configuration file truncated");
+        } finally {
+            config.close();
+        }
+    }
+
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        this(args, false);
+    }
+
+    /** Check ARGS and open the necessary files (see comment on main), to
+     *  process the input in a Pipeline iff PIPELINED. */
+    Main(String[] args, boolean pipelined) {
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
         _config = getInput(args[0]);
-
-        if (args.length > 1) {
+        _pipelined = pipelined;
+
+        if (pipelined) {
+            ReadableByteChannel in;
+            try {
+                in = args.length > 1
+                    ? FileChannel.open(Paths.get(args[1]), READ)
+                    : Channels.newChannel(System.in);
+            } catch (IOException excp) {
+                throw error("could not open %s", args[1]);
+            }
+            _lines = new LineReader(in, Charset.defaultCharset(), MAX_LINE,
+                                    INPUT_BUFFER);
+        } else if (args.length > 1) {
             _input = getInput(args[1]);
         } else {
             _input = new Scanner(System.in);
@@ -54,12 +235,57 @@ public final class Main {
         if (args.length > 2) {
             _output = getOutput(args[2]);
         } else {
-            _output = System.out;
+            _output = new GroupingWriter(Channels.newChannel(System.out),
+                                         stdoutCharset());
+            _stdout = true;
         }
     }
 
+    /** Check ARGS, which must name a configuration, an input and an
+     *  output file, and open them to process the input with checkpoints
+     *  in the file CHECKPOINT, resuming from the checkpoint there iff
+     *  RESUME (see comment on main).  On resuming, the input is read from
+     *  the checkpoint's offset and the output is truncated to its
+     *  offset, discarding whatever was written after the checkpoint. */
+    Main(String[] args, Path checkpoint, boolean resume) {
+        if (args.length != 3) {
+            throw error("--checkpoint and --resume need configuration,"
+                        + " input and output files");
+        }
+        _config = getInput(args[0]);
+        _checkpointFile = checkpoint;
+        _resume = resume ? Checkpoint.read(checkpoint) : null;
+        _inputBase = resume ? _resume.input() : 0;
+        long output = resume ? _resume.output() : 0;
+        try {
+            FileChannel in = FileChannel.open(Paths.get(args[1]), READ);
+            if (in.size() < _inputBase) {
+                throw error("%s is shorter than at the checkpoint", args[1]);
+            }
+            in.position(_inputBase);
+            _lines = new LineReader(in, Charset.defaultCharset(),
+                                    MAX_LINE, INPUT_BUFFER);
+        } catch (IOException excp) {
+            throw error("could not open %s", args[1]);
+        }
+        try {
+            _outputChannel = FileChannel.open(Paths.get(args[2]), CREATE,
+                                              WRITE);
+            if (_outputChannel.size() < output) {
+                throw error("%s is shorter than at the checkpoint", args[2]);
+            }
+            _outputChannel.truncate(output);
+            _outputChannel.position(output);
+        } catch (IOException excp) {
+            throw error("could not open %s", args[2]);
+        }
+        _output = new GroupingWriter(_outputChannel,
+                                     Charset.defaultCharset());
+        _lastCheckpoint = System.nanoTime();
+    }
+
     /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    private static Scanner getInput(String name) {
         try {
             return new Scanner(new File(name));
         } catch (IOException excp) {
@@ -67,23 +293,59 @@ public final class Main {
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a GroupingWriter writing to the file named NAME. */
+    private GroupingWriter getOutput(String name) {
         try {
-            return new PrintStream(new File(name));
+            return new GroupingWriter(FileChannel.open(Paths.get(name),
+                                                       CREATE, WRITE,
+                                                       TRUNCATE_EXISTING),
+                                      Charset.defaultCharset());
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
+    /** Return the character set in which System.out encodes text. */
+    private static Charset stdoutCharset() {
+        String name = System.getProperty("stdout.encoding",
+                System.getProperty("sun.stdout.encoding"));
+        return name == null ? Charset.defaultCharset() : Charset.forName(name);
+    }
+
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
-    private void process() {
+     *  results to _output, which is then closed unless it is the
+     *  standard output. */
+    void process() {
+        try {
+            processLines();
+        } finally {
+            if (_stdout) {
+                _output.flush();
+            } else {
+                _output.close();
+            }
+            System.out.flush();
+        }
+    }
+
+    /** Do the work of process(), leaving output buffered. */
+    private void processLines() {
         Machine m = readConfig();
+        MachineMetrics metrics = MachineMetrics.current();
+        if (_pipelined) {
+            new Pipeline(m, _lines, _output, s -> setUp(m, s), metrics)
+                .run(false);
+            return;
+        }
         boolean isMachineConfigured = false;
-        while (_input.hasNextLine()) {
-            String line = _input.nextLine().trim();
+        if (_resume != null) {
+            _resume.restore(m);
+            isMachineConfigured = _resume.configured();
+        }
+        for (String line = nextLine(m, isMachineConfigured); line != null;
+             line = nextLine(m, isMachineConfigured)) {
+            line = line.trim();
 
             if (line.isEmpty()) {
                 printMessageLine("");
@@ -91,11 +353,20 @@ public final class Main {
             }
             if (line.charAt(0) == '*') {
                 String setting = line.substring(1);
+                long start = metrics == null ? 0 : System.nanoTime();
                 setUp(m, setting.trim());
+                if (metrics != null) {
+                    metrics.settings(System.nanoTime() - start);
+                }
                 isMachineConfigured = true;
             } else {
                 if (isMachineConfigured) {
+                    long start = metrics == null ? 0 : System.nanoTime();
                     String convertedLine = m.convert(line);
+                    if (metrics != null) {
+                        metrics.message(line.length(),
+                                        System.nanoTime() - start, false);
+                    }
                     printMessageLine(convertedLine);
                 } else {
                     throw error("Machine not configured yet,"
@@ -103,42 +374,44 @@ public final class Main {
                 }
             }
         }
+        if (_checkpointFile != null) {
+            checkpoint(m, isMachineConfigured);
+        }
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
-        try {
-            String alph = _config.next();
-            _alphabet = new Alphabet(alph);
-            int numRotors = 0;
-            int numPawls = 0;
-            if (!_config.hasNextInt()) {
-                throw error("Bad config file,"
-                        + " does not have numRotors properly");
-            } else {
-                numRotors = _config.nextInt();
-            }
-            if (!_config.hasNextInt()) {
-                throw error("Bad config file, does not have numPawls properly");
-            } else {
-                numPawls = _config.nextInt();
-            }
-
-            _config.useDelimiter("\\Z");
-            if (_config.hasNext()) {
-                String input = _config.next().trim();
-                checkRotorParse(input);
-                return new Machine(_alphabet, numRotors,
-                        numPawls, readRotors(input));
-            } else {
-                throw error("Bad config file");
-            }
-
+    /** Return the next line of input, or null if there is none.  When
+     *  checkpointing, first write a checkpoint of M, configured iff
+     *  CONFIGURED, if CHECKPOINT_INTERVAL has passed since the last. */
+    private String nextLine(Machine m, boolean configured) {
+        if (_lines == null) {
+            return _input.hasNextLine() ? _input.nextLine() : null;
+        }
+        if (System.nanoTime() - _lastCheckpoint >= CHECKPOINT_INTERVAL) {
+            checkpoint(m, configured);
+        }
+        return _lines.readLine();
+    }
 
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
+    /** Write a checkpoint of M, configured iff CONFIGURED, to
+     *  _checkpointFile, once the output it covers is on the device. */
+    private void checkpoint(Machine m, boolean configured) {
+        _output.flush();
+        long output;
+        try {
+            _outputChannel.force(false);
+            output = _outputChannel.position();
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
         }
+        new Checkpoint(m, configured, _inputBase + _lines.position(), output)
+            .write(_checkpointFile);
+        _lastCheckpoint = System.nanoTime();
+    }
+
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _config, which is then closed. */
+    private Machine readConfig() {
+        return new Machine(readCatalog(_config));
     }
 
 
@@ -146,46 +419,38 @@ public final class Main {
      * Checks the configuration file for parsing errors in rotor descriptions.
      * @param input : The input string for rotors
      */
-    private void checkRotorParse(String input) {
-        String ptr = "([^\\s\\(\\)]+)([\\s]*)"
-                + "(M[^\\s\\*\\(\\)]+|N|R)([\\s]*)"
-                + "(([\\s]*[\\(][^\\s]*[\\)][\\s]*)*)";
-        Pattern pattern = Pattern.compile(ptr);
-        Matcher matcher = pattern.matcher(input);
-
-        String checkError = "";
+    private static void checkRotorParse(String input) {
+        Matcher matcher = ROTOR.matcher(input);
+
+        StringBuilder checkError = new StringBuilder();
         while (matcher.find()) {
-            checkError += matcher.group(1);
-            checkError += matcher.group(2);
-            checkError += matcher.group(3);
-            checkError += matcher.group(4);
-            checkError += matcher.group(5);
+            checkError.append(matcher.group(1));
+            checkError.append(matcher.group(2));
+            checkError.append(matcher.group(3));
+            checkError.append(matcher.group(4));
+            checkError.append(matcher.group(5));
         }
 
-        if (!checkError.equals(input)) {
+        if (!checkError.toString().equals(input)) {
             throw error("Bad config file formatting,"
                     + " description of rotors has a problem");
         }
     }
 
-    /** Return the list of rotors, reading its description from _config.
-     * @param input : Input string read from config */
-    private ArrayList<Rotor> readRotors(String input) {
+    /** Return the list of rotors over ALPHABET, reading its description
+     *  from the configuration.
+     * @param input : Input string read from config
+     * @param alphabet : The alphabet of the configuration */
+    private static ArrayList<Rotor> readRotors(String input,
+                                               Alphabet alphabet) {
         try {
-            String ptr = "([^\\s\\(\\)]+)"
-                    + "([\\s]*)"
-                    + "(M[^\\s\\*\\(\\)]+|N|R)"
-                    + "([\\s]*)"
-                    + "(([\\s]*[\\(][^\\s]*[\\)][\\s]*)*)";
-            Pattern pattern = Pattern.compile(ptr);
-            Matcher matcher = pattern.matcher(input);
+            Matcher matcher = ROTOR.matcher(input);
 
             ArrayList<Rotor> rotorList = new ArrayList<Rotor>();
-            matcher = pattern.matcher(input);
             while (matcher.find()) {
                 Rotor r;
                 String name = matcher.group(1);
-                Permutation perm = new Permutation(matcher.group(5), _alphabet);
+                Permutation perm = new Permutation(matcher.group(5), alphabet);
                 switch (matcher.group(3).charAt(0)) {
                 case 'M' :
                     r = new MovingRotor(name, perm,
@@ -210,46 +475,74 @@ public final class Main {
     }
 
     /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
+     *  which must have the format specified in the assignment.  Recently
+     *  seen settings lines are looked up in _settingsCache rather than
+     *  parsed again.  A line is remembered only once it has been
+     *  applied without error. */
+    void setUp(Machine M, String settings) {
+        Settings[] parsed = _settingsCache.get(settings);
+        if (parsed == null) {
+            parsed = parseSettings(M.catalog(), settings);
+        }
+        for (Settings config : parsed) {
+            config.applyTo(M);
+        }
+        _settingsCache.put(settings, parsed);
+    }
+
+    /** Return true iff the settings line SETTINGS is in _settingsCache. */
+    boolean settingsCached(String settings) {
+        return _settingsCache.containsKey(settings);
+    }
+
+    /** Return the configurations specified by the settings line SETTINGS
+     *  for machines built from CATALOG, parsed and validated. */
+    static Settings[] parseSettings(RotorCatalog catalog, String settings) {
         checkSettingParse(settings);
-        Pattern p = Pattern.compile("(([^\\s\\(\\)]+[\\s]*)+)"
-                + "(([\\s]*[\\(][^\\s]*[\\)][\\s]*)*)");
-        Matcher m = p.matcher(settings);
+        Matcher m = SETTINGS.matcher(settings);
 
+        ArrayList<Settings> result = new ArrayList<Settings>();
         while (m.find()) {
-            String[] names = m.group(1).trim().split("\\s+");
-            if (names.length == M.numRotors() + 1) {
-                M.insertRotors(Arrays.copyOfRange(names, 0, names.length - 1));
-                M.setRotors(names[names.length - 1]);
-            } else if (names.length == M.numRotors() + 2) {
-                M.insertRotors(Arrays.copyOfRange(names, 0, names.length - 2));
-                M.setRotors(names[names.length - 2], names[names.length - 1]);
+            String[] names = BLANKS.split(m.group(1).trim());
+            Rotor[] rotors;
+            String setting, rings;
+            if (names.length == catalog.numRotors() + 1) {
+                rotors = catalog.selectRotors(
+                        Arrays.copyOfRange(names, 0, names.length - 1));
+                setting = names[names.length - 1];
+                rings = null;
+            } else if (names.length == catalog.numRotors() + 2) {
+                rotors = catalog.selectRotors(
+                        Arrays.copyOfRange(names, 0, names.length - 2));
+                setting = names[names.length - 2];
+                rings = names[names.length - 1];
             } else {
                 throw error("Invalid settings line");
             }
+            Permutation plugboard = null;
             if (!m.group(3).equals("")) {
-                M.setPlugboard(new Permutation(m.group(3).trim(), _alphabet));
+                plugboard = new Permutation(m.group(3).trim(),
+                        catalog.alphabet());
             }
+            result.add(new Settings(rotors, setting, rings, plugboard));
         }
+        return result.toArray(new Settings[result.size()]);
     }
 
     /**
      * Checks for parse errors in settings line.
      * @param settings : The settings line string
      */
-    private void checkSettingParse(String settings) {
-        Pattern p = Pattern.compile("(([^\\s\\(\\)]+[\\s]*)+)"
-                + "(([\\s]*[\\(][^\\s]*[\\)][\\s]*)*)");
-        Matcher m = p.matcher(settings);
-        String checkError = "";
+    private static void checkSettingParse(String settings) {
+        Matcher m = SETTINGS.matcher(settings);
+        StringBuilder checkError = new StringBuilder();
 
         while (m.find()) {
-            checkError += m.group(1);
-            checkError += m.group(3);
+            checkError.append(m.group(1));
+            checkError.append(m.group(3));
         }
 
-        if (!checkError.equals(settings)) {
+        if (!checkError.toString().equals(settings)) {
             throw error("Settings parse error! \n"
                     + settings + "~\n" + checkError);
         }
@@ -258,46 +551,49 @@ public final class Main {
     /** Print MSG in groups of five (except that the last group may
      *  have fewer letters). */
     private void printMessageLine(String msg) {
-        msg = convertedMsg(msg);
-        int i = 0;
-        for (; i < msg.length() - msg.length() % 5; i++) {
-            _output.print(msg.charAt(i));
-            if (i != 0 && (i + 1) % 5 == 0 && i != msg.length() - 1) {
-                _output.print(' ');
-            }
-        }
-        for (; i < msg.length(); i++) {
-            _output.print(msg.charAt(i));
-        }
-        _output.println();
+        _output.writeLine(msg);
     }
 
-    /**
-     * Removes whitespaces from message.
-     * @param msg : The message
-     * @return : String with white spaces removed from msg
-     */
-    private String convertedMsg(String msg) {
-        int countSpaces = 0;
-        for (char c : msg.toCharArray()) {
-            if (" \t\n".indexOf(c) != -1) {
-                countSpaces++;
-            }
-        }
-        char[] convertedMsg = new char[msg.length() - countSpaces];
-        int index = 0;
-        for (char c : msg.toCharArray()) {
-            if (" \t\n".indexOf(c) == -1) {
-                convertedMsg[index] = c;
-                index++;
-            }
-        }
-        return String.valueOf(convertedMsg);
-    }
+    /** Pattern matching one rotor description in the configuration. */
+    private static final Pattern ROTOR =
+        Pattern.compile("([^\\s\\(\\)]+)([\\s]*)"
+                        + "(M[^\\s\\*\\(\\)]+|N|R)([\\s]*)"
+                        + "(([\\s]*[\\(][^\\s]*[\\)][\\s]*)*)");
+
+    /** Pattern matching the rotor names and settings (group 1) and the
+     *  plugboard (group 3) of a settings line. */
+    private static final Pattern SETTINGS =
+        Pattern.compile("(([^\\s\\(\\)]+[\\s]*)+)"
+                        + "(([\\s]*[\\(][^\\s]*[\\)][\\s]*)*)");
+
+    /** Pattern matching the separation between words. */
+    private static final Pattern BLANKS = Pattern.compile("\\s+");
+
+    /** Number of distinct settings lines remembered by _settingsCache. */
+    static final int SETTINGS_CACHE_SIZE = 64;
 
+    /** Nanoseconds between checkpoints. */
+    static final long CHECKPOINT_INTERVAL = 5_000_000_000L;
 
-    /** Alphabet used in this machine. */
-    private Alphabet _alphabet;
+    /** Greatest length in bytes of an input line read when
+     *  checkpointing. */
+    private static final int MAX_LINE = Integer.MAX_VALUE - 8;
+
+    /** Size of the input buffer used when checkpointing. */
+    private static final int INPUT_BUFFER = 1 << 16;
+
+    /** Bytes per MiB. */
+    private static final long MEBIBYTE = 1L << 20;
+
+    /** Parsed forms of the most recently used settings lines. */
+    private final LinkedHashMap<String, Settings[]> _settingsCache =
+        new LinkedHashMap<String, Settings[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Settings[]> eldest) {
+                return size() > SETTINGS_CACHE_SIZE;
+            }
+        };
 
     /** Source of machine configuration. */
     private Scanner _config;
@@ -305,6 +601,32 @@ public final class Main {
     /** Source of input messages. */
     private Scanner _input;
 
+    /** Source of input messages when checkpointing or pipelined, in
+     *  place of _input. */
+    private LineReader _lines;
+
+    /** Offset in the input file at which _lines started. */
+    private long _inputBase;
+
     /** File for encoded/decoded messages. */
-    private PrintStream _output;
+    private GroupingWriter _output;
+
+    /** True iff _output writes to the standard output. */
+    private boolean _stdout;
+
+    /** The channel under _output when checkpointing. */
+    private FileChannel _outputChannel;
+
+    /** File to which checkpoints are written, or null if none are. */
+    private Path _checkpointFile;
+
+    /** True iff the input is processed in a Pipeline, reading it from
+     *  _lines. */
+    private boolean _pipelined;
+
+    /** Checkpoint from which to resume, or null. */
+    private Checkpoint _resume;
+
+    /** Value of System.nanoTime() at the last checkpoint. */
+    private long _lastCheckpoint;
 }
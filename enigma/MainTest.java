@@ -1,9 +1,462 @@
 package enigma;
 
 import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.stream.Stream;
 
 public class MainTest {
     @Test
     public void integrationTest() {
     }
+
+    @Test
+    public void groupingTest() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GroupingWriter out =
+            new GroupingWriter(Channels.newChannel(bytes),
+                               StandardCharsets.UTF_8);
+        out.writeLine("QVPQS OKOIL\tPUBKJ ZPISFXDW");
+        out.writeLine("");
+        out.writeLine("ABCDE");
+        out.writeLine("AB CDEF");
+        out.writeLine("A\ud83d\ude00\ud83d\ude01BCD");
+        out.flush();
+        String nl = System.lineSeparator();
+        assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW" + nl + nl + "ABCDE" + nl
+                     + "ABCDE F" + nl + "A\ud83d\ude00\ud83d\ude01BC D" + nl,
+                     new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void serverTest() throws IOException, InterruptedException {
+        RotorCatalog catalog =
+            new RotorCatalog(TestUtils.UPPER, 5, 3,
+                             MachineTest.navalRotors());
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                          0));
+        Thread serving =
+            new Thread(() -> new EnigmaServer(catalog, 4).serve(server));
+        serving.start();
+        try {
+            assertEquals("Error: Machine not configured yet,possibly"
+                         + " because no settings line provided.\n",
+                         converse(server, "HELLO\n").replace("\r", ""));
+            assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW\n\nTP\n",
+                         converse(server, "* B Beta III IV I AXLE (HQ) (EX)"
+                                  + " (IP) (TR) (BY)\r\nFROM HIS SHOULDER"
+                                  + " HIAWATHA\n\nBZ").replace("\r", ""));
+        } finally {
+            server.close();
+            serving.join();
+        }
+    }
+
+    @Test
+    public void readCatalogTest() {
+        Scanner config = new Scanner(CONFIG);
+        RotorCatalog catalog = Main.readCatalog(config);
+        assertEquals(5, catalog.numRotors());
+        assertEquals(5, catalog.rotors().size());
+        assertTrue(catalog.rotors().get("I").rotates());
+        try {
+            config.hasNext();
+            fail("configuration left open");
+        } catch (IllegalStateException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void settingsCacheTest() throws IOException {
+        try (Fixture f = new Fixture(CONFIG)) {
+            Main main = f.main();
+            Machine m = new Machine(Main.readCatalog(f.config.toString()));
+            String[] lines = new String[Main.SETTINGS_CACHE_SIZE + 1];
+            for (int i = 0; i < lines.length; i += 1) {
+                lines[i] = "B Beta I II III A" + (char) ('A' + i / 26)
+                    + (char) ('A' + i % 26) + "E";
+                main.setUp(m, lines[i]);
+                assertTrue(main.settingsCached(lines[i]));
+                if (i + 1 == Main.SETTINGS_CACHE_SIZE) {
+                    main.setUp(m, lines[0]);
+                }
+            }
+            assertTrue(main.settingsCached(lines[0]));
+            assertFalse(main.settingsCached(lines[1]));
+            for (int i = 2; i < lines.length; i += 1) {
+                assertTrue(main.settingsCached(lines[i]));
+            }
+        }
+    }
+
+    @Test
+    public void settingsCacheKeepsRingsTest() throws IOException {
+        String plain = "B Beta I II III AXLE";
+        try (Fixture f = new Fixture(CONFIG)) {
+            Main main = f.main();
+            Machine m = new Machine(Main.readCatalog(f.config.toString()));
+            main.setUp(m, "B Beta I II III AAAA BCDE (AQ)");
+            main.setUp(m, plain);
+            assertEquals(f.machine("* B Beta I II III AXLE BCDE (AQ)")
+                         .convert("HELLO WORLD"), m.convert("HELLO WORLD"));
+            main.setUp(m, "B Beta I II III AAAA CDEF");
+            assertTrue(main.settingsCached(plain));
+            main.setUp(m, plain);
+            assertEquals(f.machine("* B Beta I II III AXLE CDEF (AQ)")
+                         .convert("HELLO WORLD"), m.convert("HELLO WORLD"));
+        }
+    }
+
+    @Test
+    public void settingsCacheSkipsErrorsTest() throws IOException {
+        String[] bad = {
+            "B Beta I II III AXLE (AQ", "B Beta I II III AXL",
+            "Beta B I II III AXLE", "B Beta I II IV AXLE",
+        };
+        try (Fixture f = new Fixture(CONFIG)) {
+            Main main = f.main();
+            Machine m = new Machine(Main.readCatalog(f.config.toString()));
+            for (String line : bad) {
+                try {
+                    main.setUp(m, line);
+                    fail("bad settings accepted: " + line);
+                } catch (EnigmaException excp) {
+                    assertFalse(main.settingsCached(line));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void checkpointTest() throws IOException {
+        try (Fixture f = new Fixture(CONFIG)) {
+            Path input = f.file("in"), output = f.file("out"),
+                expected = f.file("expected"),
+                checkpoint = f.file("checkpoint");
+            String before = "* B Beta I II III AAAA BCDE (AQ) (EP)\n"
+                + "HELLO WORLD\n";
+            String after = "FROM HIS SHOULDER\n* B Beta II I III AXLE\n"
+                + "HIAWATHA\n";
+            Files.writeString(input, before + after);
+            f.run(input, expected, false);
+
+            Files.writeString(input, before);
+            String[] files = { f.config.toString(), input.toString(),
+                               output.toString() };
+            new Main(files, checkpoint, false).process();
+            assertEquals(before.length(),
+                         Checkpoint.read(checkpoint).input());
+            Files.writeString(input, before + after);
+            Files.writeString(output, "UNFINISHED",
+                              StandardOpenOption.APPEND);
+            new Main(files, checkpoint, true).process();
+            assertEquals(Files.readString(expected),
+                         Files.readString(output));
+            assertEquals(before.length() + after.length(),
+                         Checkpoint.read(checkpoint).input());
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void damagedCheckpointTest() throws IOException {
+        try (Fixture f = new Fixture(CONFIG)) {
+            Path checkpoint = f.file("checkpoint");
+            Machine m = MachineTest.navalMachine(MachineTest.ORDER, "AXLE",
+                                                 "BCDE", "(HQ)");
+            new Checkpoint(m, true, 10, 20).write(checkpoint);
+            byte[] data = Files.readAllBytes(checkpoint);
+            data[data.length / 2] ^= 1;
+            Files.write(checkpoint, data);
+            Checkpoint.read(checkpoint);
+        }
+    }
+
+    @Test
+    public void seekTest() throws IOException {
+        String settings = "* B Beta I II III AXLE BCDE (AQ) (EP)";
+        StringBuilder letters = new StringBuilder();
+        try (Fixture f = new Fixture(CONFIG)) {
+            Path input = f.file("in"), output = f.file("out");
+            for (boolean uniform : new boolean[] { true, false }) {
+                StringBuilder text = new StringBuilder(settings + "\n");
+                letters.setLength(0);
+                for (int line = 0; line < 200; line += 1) {
+                    int length = uniform ? 47 : line % 13 * 7;
+                    for (int i = 0; i < length; i += 1) {
+                        char c = (char) ('A' + (line * 31 + i * 7) % 26);
+                        text.append(c);
+                        letters.append(c);
+                        if (!uniform && i % 9 == 4) {
+                            text.append(' ');
+                        }
+                    }
+                    text.append('\n');
+                }
+                Files.writeString(input, text);
+                f.run(input, output, false);
+                RangeDecryptor seek =
+                    new RangeDecryptor(f.machine(settings), output);
+                int n = letters.length();
+                long[][] ranges = { { 5000, 5003 }, { 0, 10 }, { 47, 95 },
+                                    { 4701, 5100 }, { n - 20, n },
+                                    { n, n } };
+                for (long[] r : ranges) {
+                    assertEquals(letters.substring((int) r[0], (int) r[1]),
+                                 seek.decrypt(r[0], r[1]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void seekIndexTest() throws IOException {
+        String settings = "* B Beta I II III AXLE (YF) (ZH)";
+        try (Fixture f = new Fixture(CONFIG)) {
+            Path input = f.file("in"), output = f.file("out");
+            Path index = RangeDecryptor.indexFile(output);
+            Files.writeString(input, settings + "\nABCDE\nABCDE\nABCDE\n");
+            f.run(input, output, false);
+            assertEquals("AB", new RangeDecryptor(f.machine(settings), output)
+                         .decrypt(10, 12));
+            long size = Files.size(output);
+            FileTime written = Files.getLastModifiedTime(index);
+            byte[] first = Files.readAllBytes(index);
+            assertEquals("AB", new RangeDecryptor(f.machine(settings), output)
+                         .decrypt(10, 12));
+            assertEquals(written, Files.getLastModifiedTime(index));
+
+            Files.writeString(input, settings + "\nABCDEFGHIJ\n\nWXYZ\n");
+            f.run(input, output, false);
+            assertEquals(size, Files.size(output));
+            assertEquals("WX", new RangeDecryptor(f.machine(settings), output)
+                         .decrypt(10, 12));
+            assertFalse(Arrays.equals(first, Files.readAllBytes(index)));
+        }
+    }
+
+    @Test
+    public void seekShortLinesTest() throws IOException {
+        String settings = "* B Beta I II III AXLE (YF) (ZH)";
+        try (Fixture f = new Fixture(CONFIG)) {
+            Path input = f.file("in"), output = f.file("out");
+            Files.writeString(input, settings
+                              + "\nABCDEFGHIJ\nABCDEFGHI\n\n"
+                              + "ABCDEFGHIJ\nABCDEFGHIJ\n");
+            f.run(input, output, false);
+            RangeDecryptor seek =
+                new RangeDecryptor(f.machine(settings), output);
+            assertEquals("BCDEF", seek.decrypt(20, 25));
+            assertEquals("JABCDEFGHIA", seek.decrypt(9, 20));
+            assertEquals("HIJ", seek.decrypt(36, 39));
+        }
+    }
+
+    @Test
+    public void pipelinedTest() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; line < 5000; line += 1) {
+            if (line % 700 == 0) {
+                text.append("  * B Beta I II III ")
+                    .append((char) ('A' + line % 26)).append("XLE BCDE")
+                    .append(line % 1400 == 0 ? " (AQ) (EP)" : "")
+                    .append('\n');
+            }
+            int length = line == 2500 ? 3 * Pipeline.CHARS : line % 11 * 9;
+            for (int i = 0; i < length; i += 1) {
+                text.append(i % 6 == 5 ? ' '
+                            : (char) ('A' + (line * 7 + i * 3) % 26));
+            }
+            text.append('\n');
+        }
+        try (Fixture f = new Fixture(CONFIG)) {
+            Path input = f.file("in"), sequential = f.file("seq"),
+                pipelined = f.file("pipe");
+            Files.writeString(input, text);
+            f.run(input, sequential, false);
+            f.run(input, pipelined, true);
+            assertArrayEquals(Files.readAllBytes(sequential),
+                              Files.readAllBytes(pipelined));
+
+            Files.writeString(input, text.append("HELLO 12\nWORLD\n"));
+            for (Path out : new Path[] { sequential, pipelined }) {
+                try {
+                    f.run(input, out, out == pipelined);
+                    fail("bad character accepted");
+                } catch (EnigmaException excp) {
+                    /* Expected. */
+                }
+            }
+            assertArrayEquals(Files.readAllBytes(sequential),
+                              Files.readAllBytes(pipelined));
+        }
+    }
+
+    @Test
+    public void bytesTest() throws IOException {
+        Random random = new Random(1942);
+        StringBuilder conf = new StringBuilder("BYTES 5 3\n");
+        String[] types = { "R", "N", "M004080", "M1080C0FF", "M3377" };
+        for (int r = 0; r < types.length; r += 1) {
+            List<Integer> wiring = new ArrayList<Integer>();
+            for (int b = 0; b < ByteMachine.SYMBOLS; b += 1) {
+                wiring.add(b);
+            }
+            Collections.shuffle(wiring, random);
+            int[] image = new int[ByteMachine.SYMBOLS];
+            for (int b = 0; b < image.length; b += 1) {
+                image[b] = wiring.get(b);
+            }
+            if (r == 0) {
+                for (int b = 0; b < image.length; b += 2) {
+                    image[wiring.get(b)] = wiring.get(b + 1);
+                    image[wiring.get(b + 1)] = wiring.get(b);
+                }
+            }
+            conf.append("R").append(r).append(' ').append(types[r]);
+            for (int b = 0; b < image.length; b += 1) {
+                conf.append(b % 32 == 0 ? "\n  " : "")
+                    .append(String.format("%02x", image[b]));
+            }
+            conf.append('\n');
+        }
+        byte[] data = new byte[300_000];
+        random.nextBytes(data);
+        String settings = "R0 R1 R2 R3 R4 0AFF0701 01FE8033 (0A1B2C) (FF00)";
+        try (Fixture f = new Fixture(conf)) {
+            Path input = f.file("in"), output = f.file("out");
+            Files.write(input, data);
+            Main.bytes(new String[] { "--bytes", f.config.toString(),
+                                      settings, input.toString(),
+                                      output.toString() });
+            byte[] cipher = Files.readAllBytes(output);
+            assertEquals(data.length, cipher.length);
+
+            RotorCatalog catalog = ByteMachine.readCatalog(f.config);
+            Machine m = new Machine(catalog);
+            ByteMachine.parseSettings(catalog, settings).applyTo(m);
+            for (int i = 0; i < data.length; i += 1) {
+                assertEquals("byte " + i, m.convert(data[i] & 0xff),
+                             cipher[i] & 0xff);
+            }
+            Main.bytes(new String[] { "--bytes", f.config.toString(),
+                                      settings, output.toString(),
+                                      output.toString() });
+            assertArrayEquals(data, Files.readAllBytes(output));
+        }
+    }
+
+    /** A configuration with the rotors used by checkpointTest and
+     *  seekTest. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ 5 3\n"
+        + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)"
+        + " (RX) (SZ) (TV)\n";
+
+    /** A temporary directory for the files of one test, holding a
+     *  configuration file, and deleted with everything in it on close. */
+    private static final class Fixture implements AutoCloseable {
+
+        /** A new directory whose configuration file contains TEXT. */
+        Fixture(CharSequence text) throws IOException {
+            _dir = Files.createTempDirectory("enigma");
+            config = file("conf");
+            Files.writeString(config, text);
+        }
+
+        /** Return the path of the file named NAME in my directory. */
+        Path file(String name) {
+            return _dir.resolve(name);
+        }
+
+        /** Run Main on my configuration, INPUT and OUTPUT, in a Pipeline
+         *  iff PIPELINED. */
+        void run(Path input, Path output, boolean pipelined) {
+            new Main(new String[] { config.toString(), input.toString(),
+                                    output.toString() }, pipelined)
+                .process();
+        }
+
+        /** Return a Main for my configuration, reading and writing files
+         *  in my directory. */
+        Main main() throws IOException {
+            Path input = file("in"), output = file("out");
+            if (!Files.exists(input)) {
+                Files.writeString(input, "");
+            }
+            return new Main(new String[] { config.toString(),
+                                           input.toString(),
+                                           output.toString() });
+        }
+
+        /** Return a machine built from my configuration and set up by
+         *  SETTINGS, a settings line with its leading '*'. */
+        Machine machine(String settings) {
+            Machine m = new Machine(Main.readCatalog(config.toString()));
+            String line = settings.substring(1).trim();
+            for (Settings s : Main.parseSettings(m.catalog(), line)) {
+                s.applyTo(m);
+            }
+            return m;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (Stream<Path> files = Files.walk(_dir)) {
+                for (Path file : (Iterable<Path>) files
+                         .sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        /** The configuration file. */
+        final Path config;
+
+        /** The directory. */
+        private final Path _dir;
+    }
+
+    /** Send INPUT to SERVER, and return all of its reply. */
+    private static String converse(ServerSocketChannel server, String input)
+        throws IOException {
+        try (SocketChannel client =
+                 SocketChannel.open(server.getLocalAddress())) {
+            client.write(ByteBuffer.wrap(
+                    input.getBytes(StandardCharsets.UTF_8)));
+            client.shutdownOutput();
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            while (client.read(buffer) != -1) {
+                reply.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            return new String(reply.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
 }
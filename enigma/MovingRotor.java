@@ -8,18 +8,10 @@ import static enigma.EnigmaException.*;
 class MovingRotor extends Rotor {
 
     /** A rotor named NAME whose permutation in its default setting is
-     *  PERM, and whose notches are at the positions indicated in NOTCHES.
-     *  The Rotor is initally in its 0 setting (first character of its
-     *  alphabet).
-     */
+     *  PERM, and whose notches are at the positions indicated in NOTCHES. */
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
-        _notchPositions = new int[notches.length()];
-        for (int i = 0; i < notches.length(); i++) {
-            set(notches.charAt(i));
-            _notchPositions[i] = setting();
-        }
-        set(0);
+        _notchPositions = alphabet().toInts(notches);
     }
 
     @Override
@@ -28,21 +20,16 @@ class MovingRotor extends Rotor {
     }
 
     @Override
-    boolean atNotch() {
+    boolean notchAt(int posn) {
         for (int position : _notchPositions) {
-            if (position == setting()) {
+            if (position == posn) {
                 return true;
             }
         }
         return false;
     }
 
-    @Override
-    void advance() {
-        set((setting() + 1) % alphabet().size());
-    }
-
     /** Array of notch positions in the rotor. */
-    private int[] _notchPositions;
+    private final int[] _notchPositions;
 
 }
@@ -21,6 +21,7 @@ public class MovingRotorTest {
     /* ***** TESTING UTILITIES ***** */
 
     private Rotor rotor;
+    private int shift;
     private String alpha = UPPER_STRING;
 
     /** Check that rotor has an alphabet whose size is that of
@@ -35,9 +36,9 @@ public class MovingRotorTest {
             char c = fromAlpha.charAt(i), e = toAlpha.charAt(i);
             int ci = alpha.indexOf(c), ei = alpha.indexOf(e);
             assertEquals(msg(testId, "wrong translation of %d (%c)", ci, c),
-                         ei, rotor.convertForward(ci));
+                         ei, rotor.convertForward(shift, ci));
             assertEquals(msg(testId, "wrong inverse of %d (%c)", ei, e),
-                         ci, rotor.convertBackward(ei));
+                         ci, rotor.convertBackward(shift, ei));
         }
     }
 
@@ -47,6 +48,7 @@ public class MovingRotorTest {
                           String notches) {
         rotor = new MovingRotor(name, new Permutation(rotors.get(name), UPPER),
                                 notches);
+        shift = 0;
     }
 
     /* ***** TESTS ***** */
@@ -60,15 +62,24 @@ public class MovingRotorTest {
     @Test
     public void checkRotorAdvance() {
         setRotor("I", NAVALA, "");
-        rotor.advance();
+        shift = 1;
         checkRotor("Rotor I advanced", UPPER_STRING, NAVALB_MAP.get("I"));
     }
 
     @Test
     public void checkRotorSet() {
         setRotor("I", NAVALA, "");
-        rotor.set(25);
+        shift = 25;
         checkRotor("Rotor I set", UPPER_STRING, NAVALZ_MAP.get("I"));
     }
 
+    @Test
+    public void checkRotorRing() {
+        setRotor("I", NAVALA, "");
+        shift = 2 - 1;
+        checkRotor("Rotor I ring B at C", UPPER_STRING, NAVALB_MAP.get("I"));
+        shift = 2 - 2;
+        checkRotor("Rotor I ring C at C", UPPER_STRING, NAVALA_MAP.get("I"));
+    }
+
 }
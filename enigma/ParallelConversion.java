@@ -0,0 +1,150 @@
+package enigma;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Conversion of one long message split into chunks that are encrypted
+ *  concurrently.  The rotor state at the start of each chunk is computed
+ *  directly from the machine's SteppingSchedule, so chunks do not wait on
+ *  one another.
+ *  @author Mridang Sheth
+ */
+final class ParallelConversion {
+
+    /** Characters per chunk. */
+    static final int CHUNK = 1 << 16;
+
+    /** A conversion of TEXT in place, starting from the state of ENGINE
+     *  and using SCHEDULE, which describes ENGINE's moving rotors starting
+     *  PRESSES key presses before ENGINE's current state. */
+    private ParallelConversion(char[] text, CompiledMachine engine,
+                               SteppingSchedule schedule, long presses) {
+        _text = text;
+        _engine = engine;
+        _schedule = schedule;
+        _presses = presses;
+        _letters = new long[(text.length + CHUNK - 1) / CHUNK];
+    }
+
+    /** Return the conversion of MSG by MACHINE, computed on POOL, leaving
+     *  MACHINE in the same state as MACHINE.convert(MSG) would.  MACHINE
+     *  is left unchanged if MSG contains characters outside its
+     *  alphabet. */
+    static String convert(Machine machine, String msg, ForkJoinPool pool) {
+        char[] text = msg.toCharArray();
+        ParallelConversion job =
+            new ParallelConversion(text, machine.compile(),
+                                   machine.schedule(),
+                                   machine.pressesSinceSchedule());
+        int chunks = job._letters.length;
+        pool.invoke(job.new Count(0, chunks));
+        long total = 0;
+        for (int i = 0; i < chunks; i++) {
+            long count = job._letters[i];
+            job._letters[i] = total;
+            total += count;
+        }
+        pool.invoke(job.new Convert(0, chunks));
+        machine.advanceBy(total);
+        return new String(text);
+    }
+
+    /** Return true iff CH is passed through unconverted. */
+    private static boolean isBlank(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n';
+    }
+
+    /** Base class of tasks over the chunks numbered LO .. HI-1, which
+     *  split themselves until they cover one chunk. */
+    private abstract class ChunkTask extends RecursiveAction {
+        /** A task for chunks LO .. HI-1. */
+        ChunkTask(int lo, int hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo == 1) {
+                int start = _lo * CHUNK;
+                process(_lo, start, Math.min(_text.length, start + CHUNK));
+            } else {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(split(_lo, mid), split(mid, _hi));
+            }
+        }
+
+        /** Return a task of my kind for chunks LO .. HI-1. */
+        abstract ChunkTask split(int lo, int hi);
+
+        /** Process chunk #CHUNK, which is _text[START .. END-1]. */
+        abstract void process(int chunk, int start, int end);
+
+        /** Range of chunks covered. */
+        private final int _lo, _hi;
+    }
+
+    /** Counts the characters to be converted in each chunk. */
+    private final class Count extends ChunkTask {
+        /** A count over chunks LO .. HI-1. */
+        Count(int lo, int hi) {
+            super(lo, hi);
+        }
+
+        @Override
+        ChunkTask split(int lo, int hi) {
+            return new Count(lo, hi);
+        }
+
+        @Override
+        void process(int chunk, int start, int end) {
+            long count = 0;
+            for (int i = start; i < end; i++) {
+                if (!isBlank(_text[i])) {
+                    count++;
+                }
+            }
+            _letters[chunk] = count;
+        }
+    }
+
+    /** Converts each chunk with its own copy of the engine. */
+    private final class Convert extends ChunkTask {
+        /** A conversion of chunks LO .. HI-1. */
+        Convert(int lo, int hi) {
+            super(lo, hi);
+        }
+
+        @Override
+        ChunkTask split(int lo, int hi) {
+            return new Convert(lo, hi);
+        }
+
+        @Override
+        void process(int chunk, int start, int end) {
+            CompiledMachine engine = _engine.copy();
+            int[] positions =
+                _schedule.positionsAt(_presses + _letters[chunk]);
+            for (int k = 0; k < positions.length; k++) {
+                engine.setPosition(k, positions[k]);
+            }
+            engine.convert(_text, start, end);
+        }
+    }
+
+    /** The text being converted in place. */
+    private final char[] _text;
+
+    /** Engine in the state at the start of _text; copied, never used. */
+    private final CompiledMachine _engine;
+
+    /** Schedule of _engine's moving rotors. */
+    private final SteppingSchedule _schedule;
+
+    /** Key presses from the start of _schedule to the start of _text. */
+    private final long _presses;
+
+    /** Number of characters to convert in each chunk, replaced by the
+     *  number preceding the chunk once counting is done. */
+    private final long[] _letters;
+}
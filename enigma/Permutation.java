@@ -1,12 +1,14 @@
 package enigma;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
- *  to the characters of an alphabet.
+ *  to the characters of an alphabet.  The permutation is held as a pair of
+ *  dense tables, built once, so that applying it or its inverse is a single
+ *  array lookup.
  *  @author Mridang Sheth
  */
 class Permutation {
@@ -18,35 +20,91 @@ class Permutation {
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
+        _forward = new int[alphabet.size()];
+        _inverse = new int[alphabet.size()];
+        Arrays.fill(_forward, -1);
 
-        if (cycles.equals("")) {
-            cycleList = new ArrayList<String>();
-        } else {
-            String exception = "() \n\t\r";
-            if (!Alphabet.areCharactersUnique(cycles, exception)) {
+        boolean[] seen = new boolean[alphabet.size()];
+        for (int i = 0, c; i < cycles.length(); i += Character.charCount(c)) {
+            c = cycles.codePointAt(i);
+            if (SEPARATORS.indexOf(c) != -1) {
+                continue;
+            }
+            if (!alphabet.contains(c)) {
+                throw new EnigmaException("Bad input to Permutation, "
+                        + Character.toString(c)
+                        + " is not present in Alphabet");
+            }
+            if (seen[alphabet.toInt(c)]) {
                 throw new EnigmaException("Bad input to Permutation,"
                         + " characters are repeated");
             }
-            for (char c : cycles.toCharArray()) {
-                if (exception.indexOf(c) == -1) {
-                    if (!alphabet.contains(c)) {
-                        throw new EnigmaException("Bad input to Permutation, "
-                                + c + " is not present in Alphabet");
-                    }
-                }
+            seen[alphabet.toInt(c)] = true;
+        }
+
+        Matcher m = CYCLE.matcher(cycles);
+        while (m.find()) {
+            addCycle(m.group(1));
+        }
+        for (int i = 0; i < _forward.length; i++) {
+            if (_forward[i] == -1) {
+                _forward[i] = i;
+                _inverse[i] = i;
             }
-            cycleList = new ArrayList<String>();
-            Matcher m = Pattern.compile("\\(([^)]+)\\)").matcher(cycles);
-            while (m.find()) {
-                cycleList.add(m.group(1));
+        }
+    }
+
+    /** A permutation of ALPHABET whose mapping is FORWARD and whose inverse
+     *  mapping is INVERSE.  Both tables are used as is, not copied. */
+    private Permutation(Alphabet alphabet, int[] forward, int[] inverse) {
+        _alphabet = alphabet;
+        _forward = forward;
+        _inverse = inverse;
+    }
+
+    /** Return the permutation of ALPHABET that maps each index i to
+     *  TABLE[i], which must hold each index exactly once.  TABLE is
+     *  copied. */
+    static Permutation fromTable(int[] table, Alphabet alphabet) {
+        if (table.length != alphabet.size()) {
+            throw error("Bad input to Permutation, table has %d entries",
+                        table.length);
+        }
+        int[] inverse = new int[table.length];
+        Arrays.fill(inverse, -1);
+        for (int i = 0; i < table.length; i++) {
+            int c = table[i];
+            if (c < 0 || c >= table.length || inverse[c] != -1) {
+                throw error("Bad input to Permutation, table is not a"
+                            + " permutation");
             }
+            inverse[c] = i;
         }
+        return new Permutation(alphabet, table.clone(), inverse);
     }
 
     /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
+     *  c0c1...cm.  Whitespace within CYCLE is skipped. */
     private void addCycle(String cycle) {
-        cycleList.add(cycle);
+        int first = -1, prev = -1;
+        for (int i = 0, c; i < cycle.length(); i += Character.charCount(c)) {
+            c = cycle.codePointAt(i);
+            if (SEPARATORS.indexOf(c) != -1) {
+                continue;
+            }
+            int cur = _alphabet.toInt(c);
+            if (first == -1) {
+                first = cur;
+            } else {
+                _forward[prev] = cur;
+                _inverse[cur] = prev;
+            }
+            prev = cur;
+        }
+        if (first != -1) {
+            _forward[prev] = first;
+            _inverse[first] = prev;
+        }
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -60,54 +118,30 @@ class Permutation {
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return this.alphabet().size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        return _alphabet.toInt(permute(_alphabet.toChar(wrap(p))));
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        return _alphabet.toInt(invert(_alphabet.toChar(wrap(c))));
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        if (alphabet().toInt(p) == -1) {
-            throw new EnigmaException("Invalid input to permute, "
-                    + p + " is not present in Alphabet");
-        } else {
-            String cycle = findCycle(p);
-            if (cycle.length() == 1) {
-                return p;
-            } else {
-                int index = cycle.indexOf(p);
-                return cycle.charAt((index == cycle.length() - 1)
-                        ? 0 : index + 1);
-            }
-        }
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        if (alphabet().toInt(c) == -1) {
-            throw new EnigmaException("Invalid input to permute, "
-                    + c + " is not present in Alphabet");
-        } else {
-            String cycle = findCycle(c);
-            if (cycle.length() == 1) {
-                return c;
-            } else {
-                int index = cycle.indexOf(c);
-                return cycle.charAt((index == 0)
-                        ? cycle.length() - 1 : index - 1);
-            }
-        }
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -118,31 +152,126 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        for (int i = 0; i < alphabet().size(); i++) {
-            if (findCycle(alphabet().toChar(i)).length() == 1) {
+        for (int i = 0; i < _forward.length; i++) {
+            if (_forward[i] == i) {
                 return false;
             }
         }
         return true;
     }
 
-    /**
-     * Returns the cycle corresponding to char c.
-     * @param c : The character whose cycle is to be found.
-     * @return : The cycle containing c.
-     */
-    private String findCycle(char c) {
-        for (String cycle : cycleList) {
-            if (cycle.indexOf(c) != -1) {
-                return cycle;
+    /** Return the inverse of this permutation. */
+    Permutation inverse() {
+        return new Permutation(_alphabet, _inverse, _forward);
+    }
+
+    /** Return the permutation that applies me first and then AFTER, that
+     *  is, the one taking P to AFTER.permute(permute(P)).  AFTER must
+     *  permute an alphabet of my size. */
+    Permutation compose(Permutation after) {
+        if (after.size() != size()) {
+            throw error("Cannot compose permutations of sizes %d and %d",
+                    size(), after.size());
+        }
+        int[] forward = new int[size()];
+        int[] inverse = new int[size()];
+        for (int i = 0; i < forward.length; i++) {
+            forward[i] = after._forward[_forward[i]];
+            inverse[forward[i]] = i;
+        }
+        return new Permutation(_alphabet, forward, inverse);
+    }
+
+    /** Return true iff I am small enough to have shifted tables, of
+     *  size() * size() entries each: that is, if I permute at most
+     *  MAX_SHIFTED symbols.  Larger permutations compute the same values
+     *  with shiftForward and shiftInverse. */
+    boolean hasShiftedTables() {
+        return size() <= MAX_SHIFTED;
+    }
+
+    /** Return wrap(permute(P + D) - D), where 0 <= D, P < size(): the
+     *  value of entry D * size() + P of shiftedForward(). */
+    int shiftForward(int d, int p) {
+        return shift(_forward, d, p);
+    }
+
+    /** Return wrap(invert(E + D) - D), where 0 <= D, E < size(): the
+     *  value of entry D * size() + E of shiftedInverse(). */
+    int shiftInverse(int d, int e) {
+        return shift(_inverse, d, e);
+    }
+
+    /** Return the image of P under TABLE shifted by D, where
+     *  0 <= D, P < size(). */
+    private int shift(int[] table, int d, int p) {
+        int n = table.length;
+        int x = p + d;
+        x = table[x >= n ? x - n : x] - d;
+        return x < 0 ? x + n : x;
+    }
+
+    /** Return the forward table of a rotor wired by this permutation: for
+     *  each offset D (the rotor's setting less its ring setting) and
+     *  contact P, entry D * size() + P is wrap(permute(P + D) - D).  The
+     *  table is built on first use and shared by every rotor with this
+     *  wiring.  I must have shifted tables (see hasShiftedTables). */
+    int[] shiftedForward() {
+        return shiftedTables()[0];
+    }
+
+    /** Return the table for the inverse direction, laid out as for
+     *  shiftedForward(): entry D * size() + E is wrap(invert(E + D) - D). */
+    int[] shiftedInverse() {
+        return shiftedTables()[1];
+    }
+
+    /** Return the pair {shiftedForward(), shiftedInverse()}, building it
+     *  if necessary. */
+    private int[][] shiftedTables() {
+        int[][] tables = _shifted;
+        if (tables == null) {
+            if (!hasShiftedTables()) {
+                throw error("No shifted tables for permutations of more"
+                            + " than %d symbols", MAX_SHIFTED);
+            }
+            int n = size();
+            int[] forward = new int[n * n];
+            int[] inverse = new int[n * n];
+            for (int d = 0; d < n; d++) {
+                for (int p = 0; p < n; p++) {
+                    forward[d * n + p] = wrap(_forward[wrap(p + d)] - d);
+                    inverse[d * n + p] = wrap(_inverse[wrap(p + d)] - d);
+                }
             }
+            tables = new int[][] { forward, inverse };
+            _shifted = tables;
         }
-        return String.valueOf(c);
+        return tables;
     }
 
+    /** Largest size of permutation with shifted tables, which then take
+     *  4 MiB each. */
+    static final int MAX_SHIFTED = 1024;
+
+    /** Characters in a cycle string that are not part of any cycle. */
+    private static final String SEPARATORS = "() \n\t\r";
+
+    /** Pattern matching one parenthesized cycle. */
+    private static final Pattern CYCLE = Pattern.compile("\\(([^)]+)\\)");
+
     /** Alphabet of this permutation. */
-    private Alphabet _alphabet;
+    private final Alphabet _alphabet;
+
+    /** _forward[i] is the image of i under this permutation. */
+    private final int[] _forward;
+
+    /** _inverse[i] is the image of i under the inverse of this
+     *  permutation. */
+    private final int[] _inverse;
 
-    /** ArrayList of cycles in this permutation. */
-    private ArrayList<String> cycleList;
+    /** Lazily built {forward, inverse} rotor tables; see shiftedForward().
+     *  Published whole through this volatile field, so concurrent first
+     *  uses at worst build it twice. */
+    private volatile int[][] _shifted;
 }
@@ -180,6 +180,25 @@ public class PermutationTest {
         assertEquals('E', p.invert('E'));
     }
 
+    @Test
+    public void testInverse() {
+        Alphabet alpha = getNewAlphabet("ABCDFMX");
+        Permutation p = getNewPermutation("(BACD) (XFM)", alpha);
+        checkPerm("inverse", "ABCDFMX", "BDACXFM", p.inverse(), alpha);
+    }
+
+    @Test
+    public void testCompose() {
+        Alphabet alpha = getNewAlphabet("ABCD");
+        Permutation p = getNewPermutation("(BACD)", alpha);
+        Permutation q = getNewPermutation("(AB)", alpha);
+        checkPerm("compose", "ABCD", "CBDA", p.compose(q), alpha);
+        checkPerm("compose with inverse", "ABCD", "ABCD",
+                  p.compose(p.inverse()), alpha);
+        assertFalse(p.compose(q).derangement());
+        assertTrue(p.derangement());
+    }
+
     @Test(expected = EnigmaException.class)
     public void testNotInAlphabet() {
         Permutation p = getNewPermutation("(BACD)", getNewAlphabet("ABCD"));
@@ -196,6 +215,55 @@ public class PermutationTest {
         p2.permute('G');
     }
 
+    @Test
+    public void testSparseAlphabet() {
+        String chars = "A\u0101z\u4e00\uffee0";
+        Alphabet alpha = getNewAlphabet(chars);
+        for (int i = 0; i < chars.length(); i += 1) {
+            assertEquals(i, alpha.toInt(chars.charAt(i)));
+            assertTrue(alpha.contains(chars.charAt(i)));
+        }
+        assertFalse(alpha.contains('B'));
+        assertFalse(alpha.contains('\u4e01'));
+        Permutation p = getNewPermutation("(A\u4e00) (z0)", alpha);
+        assertEquals('\u4e00', p.permute('A'));
+        assertEquals('z', p.invert('0'));
+    }
+
+    @Test
+    public void testSupplementaryAlphabet() {
+        Alphabet alpha = getNewAlphabet("A\ud83d\ude00B\ud835\udd38");
+        assertEquals(4, alpha.size());
+        assertEquals(1, alpha.toInt(0x1f600));
+        assertEquals(0x1d538, alpha.toCodePoint(3));
+        assertEquals('B', alpha.toChar(2));
+        Permutation p =
+            getNewPermutation("(\ud835\udd38A\ud83d\ude00) (B)", alpha);
+        assertEquals(0, p.permute(3));
+        assertEquals(1, p.permute(0));
+        assertEquals(3, p.invert(0));
+    }
+
+    @Test
+    public void testShiftMatchesTables() {
+        Permutation p = getNewPermutation("(BACD) (XFM)",
+                                          getNewAlphabet("ABCDFMX"));
+        int n = p.size();
+        for (int d = 0; d < n; d++) {
+            for (int c = 0; c < n; c++) {
+                assertEquals(p.shiftedForward()[d * n + c],
+                             p.shiftForward(d, c));
+                assertEquals(p.shiftedInverse()[d * n + c],
+                             p.shiftInverse(d, c));
+            }
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testRepeatedSparseAlphabet() {
+        getNewAlphabet("A\u4e00B\u4e00");
+    }
+
     @Test(expected = EnigmaException.class)
     public void testBadAlphabetInput() {
         Alphabet alph = getNewAlphabet("AAAABBBBCCCCDDDD");
@@ -0,0 +1,277 @@
+package enigma;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+import static enigma.EnigmaException.*;
+
+/** Main's processing of an input split into three stages on their own
+ *  threads, so that reading, converting and writing overlap: a reader
+ *  splitting the input into lines, a converter applying settings lines
+ *  and converting message lines, and a writer formatting the results in
+ *  groups of five.  Stages pass chunks of lines to one another through
+ *  two ChunkRings, whose chunks are reused, and a chunk of converted
+ *  lines is written only after every chunk before it, so the output is
+ *  exactly that of processing the lines one after another.  The
+ *  converter runs on the thread that calls run.
+ *
+ *  An error stops the stages after the lines before it have been
+ *  written, as it would without the pipeline.
+ *  @author Mridang Sheth
+ */
+final class Pipeline {
+
+    /** A pipeline converting the lines of IN with MACHINE and writing
+     *  them to OUT.  SETUP is called with each settings line, less its
+     *  '*' and surrounding blanks, to configure MACHINE, and METRICS, if
+     *  not null, records the time taken. */
+    Pipeline(Machine machine, LineReader in, GroupingWriter out,
+             Consumer<String> setUp, MachineMetrics metrics) {
+        _machine = machine;
+        _in = in;
+        _out = out;
+        _setUp = setUp;
+        _metrics = metrics;
+        Lines[] lines = new Lines[RING_SIZE];
+        Text[] text = new Text[RING_SIZE];
+        for (int i = 0; i < RING_SIZE; i++) {
+            lines[i] = new Lines();
+            text[i] = new Text();
+        }
+        _lines = new ChunkRing<Lines>(lines);
+        _text = new ChunkRing<Text>(text);
+    }
+
+    /** Process all of my input, my machine having already been
+     *  configured iff CONFIGURED, and flush the output.  After an error in
+     *  converting or writing, the reader is not waited for, since it may
+     *  be blocked reading; it stops once it finds its ring abandoned. */
+    void run(boolean configured) {
+        Thread reader = new Thread(this::read, "enigma-reader");
+        Thread writer = new Thread(this::write, "enigma-writer");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+        RuntimeException convertError = null;
+        try {
+            convert(configured);
+        } catch (CancellationException excp) {
+            _lines.cancel();
+        } catch (RuntimeException excp) {
+            convertError = excp;
+            _lines.cancel();
+        } finally {
+            _text.close();
+        }
+        join(writer);
+        if (convertError == null && _writeError == null) {
+            join(reader);
+        }
+        if (_writeError != null) {
+            throw _writeError;
+        } else if (convertError != null) {
+            throw convertError;
+        } else if (_readError != null) {
+            throw _readError;
+        }
+    }
+
+    /** The reader stage: split my input into chunks of lines. */
+    private void read() {
+        try {
+            for (boolean more = true; more;) {
+                Lines chunk = _lines.claim();
+                chunk.count = 0;
+                int chars = 0;
+                try {
+                    while (chunk.count < LINES && chars < CHARS) {
+                        String line = _in.readLine();
+                        if (line == null) {
+                            more = false;
+                            break;
+                        }
+                        chunk.lines[chunk.count++] = line;
+                        chars += line.length();
+                    }
+                } catch (RuntimeException excp) {
+                    _readError = excp;
+                    more = false;
+                }
+                _lines.publish();
+            }
+        } catch (CancellationException excp) {
+            return;
+        } finally {
+            _lines.close();
+        }
+    }
+
+    /** The converter stage: apply settings lines and convert message
+     *  lines from my chunks of lines into chunks of text, starting with
+     *  my machine configured iff CONFIGURED.  Text converted before an
+     *  error is published. */
+    private void convert(boolean configured) {
+        boolean bmp = _machine.alphabet().bmp();
+        for (Lines chunk = _lines.take(); chunk != null;
+             chunk = _lines.take()) {
+            Text text = _text.claim();
+            text.count = 0;
+            try {
+                for (int i = 0; i < chunk.count; i++) {
+                    String line = chunk.lines[i].trim();
+                    chunk.lines[i] = null;
+                    if (line.isEmpty()) {
+                        text.add(line, 0);
+                    } else if (line.charAt(0) == '*') {
+                        long start = _metrics == null ? 0 : System.nanoTime();
+                        _setUp.accept(line.substring(1).trim());
+                        if (_metrics != null) {
+                            _metrics.settings(System.nanoTime() - start);
+                        }
+                        configured = true;
+                    } else if (!configured) {
+                        throw error("Machine not configured yet,"
+                                    + "possibly because no settings line"
+                                    + " provided.");
+                    } else {
+                        long start = _metrics == null ? 0 : System.nanoTime();
+                        if (bmp) {
+                            int end = text.add(line, line.length());
+                            try {
+                                _machine.convert(text.chars,
+                                                 end - line.length(), end);
+                            } catch (EnigmaException excp) {
+                                text.count -= 1;
+                                throw excp;
+                            }
+                        } else {
+                            String converted = _machine.convert(line);
+                            text.add(converted, converted.length());
+                        }
+                        if (_metrics != null) {
+                            _metrics.message(line.length(),
+                                             System.nanoTime() - start,
+                                             false);
+                        }
+                    }
+                }
+            } finally {
+                _text.publish();
+            }
+            _lines.release();
+        }
+    }
+
+    /** The writer stage: write my chunks of text in groups of five. */
+    private void write() {
+        try {
+            for (Text text = _text.take(); text != null;
+                 text = _text.take()) {
+                for (int i = 0, start = 0; i < text.count; i++) {
+                    text.view.clear().position(start).limit(text.ends[i]);
+                    _out.writeLine(text.view);
+                    start = text.ends[i];
+                }
+                _text.release();
+            }
+            _out.flush();
+        } catch (RuntimeException excp) {
+            _writeError = excp;
+            _text.cancel();
+            _lines.cancel();
+        }
+    }
+
+    /** Wait for THREAD to finish. */
+    private static void join(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException excp) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** A chunk of input lines. */
+    private static final class Lines {
+        /** The lines. */
+        final String[] lines = new String[LINES];
+        /** Number of lines. */
+        int count;
+    }
+
+    /** A chunk of converted lines, stored one after another. */
+    private static final class Text {
+        /** The characters of the lines. */
+        char[] chars = new char[CHARS];
+        /** Line #i ends at chars[ends[i]] (exclusive). */
+        final int[] ends = new int[LINES];
+        /** Number of lines. */
+        int count;
+        /** A view of chars, through which lines are written. */
+        CharBuffer view = CharBuffer.wrap(chars);
+
+        /** Append the first N characters of LINE as a new line,
+         *  returning its end. */
+        int add(String line, int n) {
+            int start = count == 0 ? 0 : ends[count - 1];
+            if (start + n > chars.length) {
+                char[] larger = new char[Math.max(start + n,
+                                                  2 * chars.length)];
+                System.arraycopy(chars, 0, larger, 0, start);
+                chars = larger;
+                view = CharBuffer.wrap(chars);
+            }
+            line.getChars(0, n, chars, start);
+            ends[count] = start + n;
+            count += 1;
+            return start + n;
+        }
+    }
+
+    /** Number of chunks in each ring. */
+    static final int RING_SIZE = 8;
+
+    /** Greatest number of lines in a chunk. */
+    static final int LINES = 256;
+
+    /** Number of characters after which a chunk of input lines is
+     *  passed on, and the initial capacity of a chunk of text. */
+    static final int CHARS = 1 << 16;
+
+    /** The machine converting my input. */
+    private final Machine _machine;
+
+    /** Source of input. */
+    private final LineReader _in;
+
+    /** Destination of output. */
+    private final GroupingWriter _out;
+
+    /** Applies settings lines to _machine. */
+    private final Consumer<String> _setUp;
+
+    /** Metrics to record, or null. */
+    private final MachineMetrics _metrics;
+
+    /** Chunks of lines from the reader to the converter. */
+    private final ChunkRing<Lines> _lines;
+
+    /** Chunks of text from the converter to the writer. */
+    private final ChunkRing<Text> _text;
+
+    /** Error raised reading input, reported once the lines before it
+     *  have been processed. */
+    private volatile RuntimeException _readError;
+
+    /** Error raised writing output. */
+    private volatile RuntimeException _writeError;
+}
@@ -0,0 +1,305 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.EnigmaException.*;
+
+/** Decryption of a range of letters of a large ciphertext file, as
+ *  written by Main for one settings line, without converting anything
+ *  before the range.  The machine is put in its state at the start of
+ *  the range by Machine.advanceBy, which computes it from the stepping
+ *  schedule, and the range is found in the memory-mapped file through an
+ *  index kept beside it.  The index records how many lines from the
+ *  start of the file have the same numbers of letters and of bytes as
+ *  its first line, as when a stream is cut into lines of fixed length,
+ *  and the number of letters before every MARK-th byte.  Letter k then
+ *  lies in line k / L, where L is the number of letters per line, if all
+ *  the lines before that one are alike, and is found by counting from
+ *  the start of that line; otherwise it is found by counting from the
+ *  last mark before it.  Either way, finding it takes time bounded by the
+ *  length of a line or by MARK, whatever k is.
+ *
+ *  The index is built by scanning the whole file (without converting it)
+ *  the first time a decryptor is made for it, and written to the file
+ *  named by indexFile, stamped with the size and modification time of
+ *  the ciphertext.  Later decryptors map that file instead, unless the
+ *  ciphertext has changed since, in which case the index is built again.
+ *  If the index cannot be written, it is used for this decryptor only.
+ *  Letters must be single-byte (ISO-8859-1) characters; positions count
+ *  letters only.
+ *  @author Mridang Sheth
+ */
+final class RangeDecryptor {
+
+    /** A decryptor of the ciphertext in FILE, written by a machine whose
+     *  state at the start of the file is that of MACHINE, which I then
+     *  own. */
+    RangeDecryptor(Machine machine, Path file) {
+        _machine = machine;
+        _start = machine.stateAt(0);
+        long modified;
+        try (FileChannel channel = FileChannel.open(file)) {
+            modified = Files.getLastModifiedTime(file)
+                .to(TimeUnit.NANOSECONDS);
+            _size = channel.size();
+            int segments = (int) ((_size + SEGMENT - 1) / SEGMENT);
+            _segments = new MappedByteBuffer[segments];
+            for (int s = 0; s < segments; s++) {
+                long start = (long) s * SEGMENT;
+                _segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        start, Math.min(SEGMENT, _size - start));
+            }
+        } catch (IOException excp) {
+            throw error("could not map %s: %s", file, excp.getMessage());
+        }
+        Path indexFile = indexFile(file);
+        ByteBuffer index = readIndex(indexFile, modified);
+        if (index == null) {
+            index = scan(modified);
+            writeIndex(indexFile, index);
+        }
+        index.position(2 * Integer.BYTES + 2 * Long.BYTES);
+        _lineLetters = index.getInt();
+        index.getInt();
+        _lineBytes = index.getLong();
+        _uniformLines = index.getLong();
+        _marks = index.slice().asLongBuffer();
+    }
+
+    /** Return the name of the file holding the index of FILE. */
+    static Path indexFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".index");
+    }
+
+    /** Return the index of my file, last modified at time MODIFIED (in
+     *  nanoseconds), read from the file INDEXFILE, or null if there is
+     *  no such file or it does not hold an index of my file as it is. */
+    private ByteBuffer readIndex(Path indexFile, long modified) {
+        try (FileChannel channel = FileChannel.open(indexFile)) {
+            if (channel.size() != indexBytes()) {
+                return null;
+            }
+            ByteBuffer index =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, indexBytes());
+            if (index.getInt() != INDEX_MAGIC
+                || index.getInt() != INDEX_VERSION
+                || index.getLong() != _size || index.getLong() != modified) {
+                return null;
+            }
+            return index;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Write INDEX to the file INDEXFILE, replacing it atomically, or
+     *  leave it be if that fails. */
+    private static void writeIndex(Path indexFile, ByteBuffer index) {
+        Path temp = indexFile.resolveSibling(indexFile.getFileName()
+                                             + ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer data = index.duplicate().clear();
+                while (data.hasRemaining()) {
+                    out.write(data);
+                }
+            }
+            try {
+                Files.move(temp, indexFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(temp, indexFile,
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                /* The index is only an aid to finding letters. */
+            }
+        }
+    }
+
+    /** Return the number of bytes in an index of my file. */
+    private long indexBytes() {
+        return INDEX_HEADER + (_size / MARK + 1) * Long.BYTES;
+    }
+
+    /** Return the index of my file, last modified at time MODIFIED (in
+     *  nanoseconds), built by reading all of it. */
+    private ByteBuffer scan(long modified) {
+        ByteBuffer index = ByteBuffer.allocate((int) indexBytes());
+        index.position(INDEX_HEADER);
+        long posn = 0, letters = 0, lineStart = 0;
+        long lineLetters = 0, lineBytes = 0, uniformLines = 0;
+        int firstLetters = 0;
+        boolean uniform = true;
+        for (MappedByteBuffer segment : _segments) {
+            for (int i = 0; i < segment.limit(); i++, posn++) {
+                if ((posn & (MARK - 1)) == 0) {
+                    index.putLong(letters);
+                }
+                byte b = segment.get(i);
+                if (b == '\n') {
+                    if (lineStart == 0) {
+                        lineBytes = posn + 1;
+                        firstLetters = (int) lineLetters;
+                    }
+                    uniform = uniform && posn + 1 - lineStart == lineBytes
+                        && lineLetters == firstLetters;
+                    if (uniform) {
+                        uniformLines += 1;
+                    }
+                    lineStart = posn + 1;
+                    lineLetters = 0;
+                } else if (!blank(b)) {
+                    letters += 1;
+                    lineLetters += 1;
+                }
+            }
+        }
+        if (_size % MARK == 0) {
+            index.putLong(letters);
+        }
+        index.clear();
+        index.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putLong(_size)
+            .putLong(modified).putInt(firstLetters).putInt(0)
+            .putLong(lineBytes).putLong(uniformLines);
+        return index.clear();
+    }
+
+    /** Return the plaintext of letters FROM (inclusive) to TO (exclusive)
+     *  of my file, without blanks. */
+    String decrypt(long from, long to) {
+        if (from < 0 || to < from) {
+            throw error("bad range %d to %d", from, to);
+        }
+        long posn = find(from);
+        Alphabet alphabet = _machine.alphabet();
+        if (from < _converted) {
+            _machine.setRotors(_start);
+            _converted = 0;
+        }
+        _machine.advanceBy(from - _converted);
+        char[] result = new char[Math.toIntExact(to - from)];
+        for (int i = 0; i < result.length; i++) {
+            while (posn < _size && blank(byteAt(posn))) {
+                posn += 1;
+            }
+            if (posn == _size) {
+                throw error("ciphertext has fewer than %d letters", to);
+            }
+            char c = (char) (byteAt(posn++) & 0xff);
+            if (!alphabet.contains(c)) {
+                throw error("%c is not in the alphabet", c);
+            }
+            result[i] = alphabet.toChar(_machine.convert(alphabet.toInt(c)));
+        }
+        _converted = to;
+        return new String(result);
+    }
+
+    /** Return the offset in my file of letter K, or an earlier offset
+     *  separated from it only by blanks, or the size of the file if it
+     *  holds no more than K letters. */
+    long find(long k) {
+        if (k == 0) {
+            return 0;
+        }
+        long posn, seen;
+        if (_lineLetters > 0 && k / _lineLetters <= _uniformLines) {
+            long line = k / _lineLetters;
+            posn = line * _lineBytes;
+            seen = line * _lineLetters;
+        } else {
+            int lo = 0, hi = _marks.limit() - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (_marks.get(mid) <= k) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            posn = lo * MARK;
+            seen = _marks.get(lo);
+        }
+        for (; posn < _size && seen < k; posn++) {
+            if (!blank(byteAt(posn))) {
+                seen += 1;
+            }
+        }
+        return posn;
+    }
+
+    /** Return the byte at offset POSN of my file. */
+    private byte byteAt(long posn) {
+        return _segments[(int) (posn / SEGMENT)].get((int) (posn % SEGMENT));
+    }
+
+    /** Return true iff B is a byte that Main writes between letters. */
+    private static boolean blank(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    /** Number of bytes between the offsets at which letters are counted
+     *  when the file is scanned; a power of 2. */
+    static final long MARK = 1L << 16;
+
+    /** First int of an index file: "ENIX". */
+    static final int INDEX_MAGIC = 0x454e4958;
+
+    /** Version of the layout of an index file: a header of INDEX_HEADER
+     *  bytes (INDEX_MAGIC, INDEX_VERSION, the size and modification time
+     *  of the ciphertext as longs, the letters of its first line and a
+     *  spare int, then the bytes of the first line and the number of
+     *  uniform lines as longs), followed by the marks, as longs.  All
+     *  numbers are big-endian. */
+    static final int INDEX_VERSION = 1;
+
+    /** Size of the header of an index file. */
+    static final int INDEX_HEADER = 4 * Integer.BYTES + 4 * Long.BYTES;
+
+    /** Bytes of the file per mapped segment. */
+    private static final long SEGMENT = 1L << 30;
+
+    /** The machine, in its state after _converted letters. */
+    private final Machine _machine;
+
+    /** Settings of my machine's rotors at the start of the file. */
+    private final String _start;
+
+    /** Number of letters my machine has advanced past. */
+    private long _converted;
+
+    /** Size of the file in bytes. */
+    private final long _size;
+
+    /** The file, mapped in segments of SEGMENT bytes. */
+    private final MappedByteBuffer[] _segments;
+
+    /** Number of letters in the first line of the file, or 0 if it has
+     *  no terminator. */
+    private final int _lineLetters;
+
+    /** Number of bytes in the first line, with its terminator. */
+    private final long _lineBytes;
+
+    /** Number of terminated lines from the start of the file that have
+     *  _lineLetters letters and _lineBytes bytes. */
+    private final long _uniformLines;
+
+    /** Mark #i is the number of letters before byte i * MARK. */
+    private final LongBuffer _marks;
+}
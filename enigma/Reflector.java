@@ -22,13 +22,4 @@ class Reflector extends FixedRotor {
         return true;
     }
 
-    @Override
-    void set(int posn) {
-        if (posn != 0) {
-            throw error("reflector has only one position");
-        } else {
-            super.set(posn);
-        }
-    }
-
 }
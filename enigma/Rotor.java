@@ -2,7 +2,14 @@ package enigma;
 
 import static enigma.EnigmaException.*;
 
-/** Superclass that represents a rotor in the enigma machine.
+/** Superclass that represents a rotor in the enigma machine.  A rotor
+ *  is immutable: it holds only its wiring and notches, and whoever
+ *  positions it (a Machine, a Session or a CompiledMachine) keeps the
+ *  setting and Ringstellung.  Conversions read the shifted tables of the
+ *  rotor's permutation at the row for a given shift (setting less ring
+ *  setting), so each pass through the rotor is one array load.
+ *  Permutations too large to have shifted tables compute the same
+ *  entries from the shift instead.
  *  @author Mridang Sheth
  */
 class Rotor {
@@ -11,8 +18,7 @@ class Rotor {
     Rotor(String name, Permutation perm) {
         _name = name;
         _permutation = perm;
-        _setting = 0;
-        _hasRing = false;
+        _tables = perm.hasShiftedTables();
     }
 
 
@@ -46,72 +52,32 @@ class Rotor {
         return false;
     }
 
-    /** Return my current setting. */
-    int setting() {
-        return _setting;
-    }
-
-    /** Set setting() to POSN.  */
-    void set(int posn) {
-        _setting = posn % alphabet().size();
-    }
-
-    /** Set setting() to character CPOSN. */
-    void set(char cposn) {
-        if (this.alphabet().toInt(cposn) != -1) {
-            _setting = this.alphabet().toInt(cposn);
-        } else {
-            throw new EnigmaException("Character "
-                    + cposn + "not present in Alphabet");
-        }
-    }
-
     /** Return the conversion of P (an integer in the range 0..size()-1)
-     *  according to my permutation. */
-    int convertForward(int p) {
-        if (_hasRing) {
-            return _permutation.wrap(_permutation.permute(
-                    p + setting() - _ringsetting) - setting() + _ringsetting);
-        } else {
-            return _permutation.wrap(_permutation.permute(
-                    p + setting()) - setting());
+     *  according to my permutation, when my setting less my Ringstellung
+     *  is SHIFT (in the range 0..size()-1). */
+    int convertForward(int shift, int p) {
+        if (!_tables) {
+            return _permutation.shiftForward(shift, p);
         }
-
+        return _permutation.shiftedForward()[shift * size() + p];
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
-     *  according to the inverse of my permutation. */
-    int convertBackward(int e) {
-        if (_hasRing) {
-            return _permutation.wrap(_permutation.invert(
-                    e + setting() - _ringsetting) - setting() + _ringsetting);
-        } else {
-            return _permutation.wrap(_permutation.invert(
-                    e + setting()) - setting());
+     *  according to the inverse of my permutation, when my setting less
+     *  my Ringstellung is SHIFT (in the range 0..size()-1). */
+    int convertBackward(int shift, int e) {
+        if (!_tables) {
+            return _permutation.shiftInverse(shift, e);
         }
-
+        return _permutation.shiftedInverse()[shift * size() + e];
     }
 
-    /** Returns true iff I am positioned to allow the rotor to my left
-     *  to advance. */
-    boolean atNotch() {
+    /** Returns true iff I would be at a notch at setting POSN, allowing
+     *  the rotor to my left to advance. */
+    boolean notchAt(int posn) {
         return false;
     }
 
-    /** Advance me one position, if possible. By default, does nothing. */
-    void advance() {
-    }
-
-    /**
-     * Configure ringstellung parameters of this rotor.
-     * @param hasRing : The attribute
-     * @param ringsetting : The attribute
-     */
-    void configureRing(boolean hasRing, int ringsetting) {
-        _hasRing = hasRing;
-        _ringsetting = ringsetting;
-    }
-
     @Override
     public String toString() {
         return "Rotor " + _name;
@@ -121,15 +87,9 @@ class Rotor {
     private final String _name;
 
     /** The permutation implemented by this rotor in its 0 position. */
-    private Permutation _permutation;
-
-    /** The current setting of the rotor. */
-    private int _setting;
-
-    /** True if rotor has a Ringstellung. */
-    private boolean _hasRing;
+    private final Permutation _permutation;
 
-    /** The current setting of the Ringstellung. */
-    private int _ringsetting;
+    /** True iff my permutation has shifted tables. */
+    private final boolean _tables;
 
 }
@@ -0,0 +1,133 @@
+package enigma;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** The fixed part of a machine description, as read from a configuration
+ *  file: its alphabet, its numbers of rotor slots and pawls, and the
+ *  rotors available to it.  A catalog is immutable and may be shared by
+ *  any number of threads.  The rotors it holds are immutable too, and
+ *  serve only as wirings and notch descriptions: each Machine and each
+ *  Session keeps the positions and Ringstellungs of the rotors it uses
+ *  to itself.
+ *  @author Mridang Sheth
+ */
+final class RotorCatalog {
+
+    /** A catalog for machines with alphabet ALPHA, 1 < NUMROTORS rotor
+     *  slots, and 0 <= PAWLS < NUMROTORS pawls, whose available rotors
+     *  are ALLROTORS. */
+    RotorCatalog(Alphabet alpha, int numRotors, int pawls,
+                 Collection<Rotor> allRotors) {
+
+        if (numRotors <= 0) {
+            throw new EnigmaException("Number of rotors less than 1");
+        }
+
+        if (!(pawls < numRotors && pawls >= 0)) {
+            throw new EnigmaException("0 <= PAWLS < NUMROTORS not satisfied");
+        }
+
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        HashMap<String, Rotor> rotors = new HashMap<String, Rotor>();
+        for (Rotor rotor : allRotors) {
+            rotors.put(rotor.name(), rotor);
+        }
+        _allRotors = Collections.unmodifiableMap(rotors);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots of my machines. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls (and thus moving rotors) of my
+     *  machines. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return my rotors, indexed by name. */
+    Map<String, Rotor> rotors() {
+        return _allRotors;
+    }
+
+    /** Return the rotors named ROTORS (ROTORS[0] naming the reflector),
+     *  checking that they form a valid choice for the rotor slots. */
+    Rotor[] selectRotors(String[] rotors) {
+
+        if (rotors.length != numRotors()) {
+            throw error("Invalid number of rotors, tried to assign "
+                    + rotors.length + " but configured : " + numRotors());
+        }
+
+        int moving = 0;
+        Rotor[] result = new Rotor[rotors.length];
+        HashSet<String> used = new HashSet<String>();
+
+        for (int i = 0; i < rotors.length; i++) {
+            Rotor rotor = _allRotors.get(rotors[i]);
+            if (rotor == null) {
+                throw error("Rotor with the name "
+                        + rotors[i] + " does not exist.");
+            }
+            if (i == 0 && !rotor.reflecting()) {
+                throw error("First rotor not reflector.");
+            }
+            if (i < _numRotors - _pawls && i != 0) {
+                if (rotor.rotates()) {
+                    throw error("Rotor at position "
+                            + (i + 1) + " should be fixed");
+                }
+            }
+            if (!used.add(rotor.name())) {
+                throw error("Rotor with the name "
+                        + rotors[i] + " repeated");
+            }
+            result[i] = rotor;
+            if (rotor.rotates()) {
+                moving++;
+            }
+        }
+        if (moving != _pawls) {
+            throw error("Invalid number of moving rotors, found : "
+                    + moving + " but configured : " + numPawls());
+        }
+        return result;
+    }
+
+    /** Return a new, unconfigured session using my rotors. */
+    Session newSession() {
+        return new Session(this);
+    }
+
+    /** Return a new, unconfigured session using my rotors and
+     *  keystream tables from CACHE (see Session). */
+    Session newSession(KeystreamCache cache) {
+        return new Session(this, cache);
+    }
+
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of moving rotors. */
+    private final int _pawls;
+
+    /** All available rotors, indexed by name. */
+    private final Map<String, Rotor> _allRotors;
+}
@@ -0,0 +1,185 @@
+package enigma;
+
+import java.util.HashMap;
+
+import static enigma.EnigmaException.*;
+
+/** The mutable state of one user of a RotorCatalog: which rotors are
+ *  inserted, their positions and Ringstellungs, and the plugboard.  A
+ *  Session configured by a sequence of Settings converts exactly as a
+ *  Machine built from the same catalog and configured by the same
+ *  sequence.  It never modifies the catalog's rotors, so any number of
+ *  sessions, each confined to one thread, may share a catalog.
+ *  @author Mridang Sheth
+ */
+final class Session {
+
+    /** A new session using the rotors in CATALOG, as yet unconfigured. */
+    Session(RotorCatalog catalog) {
+        this(catalog, null);
+    }
+
+    /** A new session using the rotors in CATALOG, as yet unconfigured,
+     *  that converts using full-period tables from CACHE where it can
+     *  (see KeystreamTable).  CACHE may be null, for none. */
+    Session(RotorCatalog catalog, KeystreamCache cache) {
+        _catalog = catalog;
+        _alphabet = catalog.alphabet();
+        _rings = new HashMap<String, Integer>();
+        _cache = cache;
+    }
+
+    /** Return the catalog whose rotors I use. */
+    RotorCatalog catalog() {
+        return _catalog;
+    }
+
+    /** Return true iff I have been configured by setUp. */
+    boolean configured() {
+        return _engine != null;
+    }
+
+    /** Configure me according to CONFIG, exactly as CONFIG.applyTo
+     *  configures a Machine: a rotor's Ringstellung, and the plugboard,
+     *  are kept from earlier configurations unless CONFIG gives new
+     *  ones. */
+    void setUp(Settings config) {
+        Rotor[] rotors = config.rotors();
+        String setting = config.setting();
+        String ringSetting = config.rings();
+        int numRotors = _catalog.numRotors();
+        int[] posns = _alphabet.toInts(setting);
+        if (posns.length != numRotors - 1) {
+            throw new EnigmaException("Invalid "
+                    + "setting passed in Machine.setRotors");
+        }
+        int[] newRings =
+            ringSetting == null ? null : _alphabet.toInts(ringSetting);
+        if (newRings != null && newRings.length != numRotors - 1) {
+            throw new EnigmaException("Invalid "
+                    + "setting passed in Machine.setRotors");
+        }
+
+        int[] settings = new int[numRotors];
+        int[] rings = new int[numRotors];
+        System.arraycopy(posns, 0, settings, 1, numRotors - 1);
+        for (int i = 1; i < numRotors; i++) {
+            String name = rotors[i].name();
+            if (newRings != null) {
+                _rings.put(name, newRings[i - 1]);
+            }
+            Integer ring = _rings.get(name);
+            rings[i] = ring == null ? 0 : ring;
+        }
+        if (config.plugboard() != null) {
+            _plugboard = config.plugboard();
+        }
+        _engine = new CompiledMachine(_alphabet, rotors, settings, rings,
+                _plugboard);
+        if (_cache != null) {
+            _keystream = _cache.table(_alphabet, rotors, settings, rings,
+                                      _plugboard);
+            _presses = 0;
+        }
+    }
+
+    /** Configure me according to each of CONFIGS in turn. */
+    void setUp(Settings[] configs) {
+        for (Settings config : configs) {
+            setUp(config);
+        }
+    }
+
+    /** Returns the result of converting the input character C (as an
+     *  index in the range 0..alphabet size - 1), after first advancing
+     *  my rotors. */
+    int convert(int c) {
+        if (_keystream != null) {
+            return _keystream.convert(_presses++, c);
+        }
+        return engine().convert(c);
+    }
+
+    /** Returns the encoding/decoding of the message character CH, which
+     *  is CH itself if it is a blank, tab or newline. */
+    char convertChar(char ch) {
+        if (ch == ' ' || ch == '\t' || ch == '\n') {
+            return ch;
+        }
+        return _alphabet.toChar(convert(_alphabet.toInt(ch)));
+    }
+
+    /** Returns the encoding/decoding of MSG, updating the state of
+     *  my rotors accordingly. */
+    String convert(String msg) {
+        if (!_alphabet.bmp()) {
+            StringBuilder result = new StringBuilder(msg.length());
+            for (int i = 0, c; i < msg.length();
+                 i += Character.charCount(c)) {
+                c = msg.codePointAt(i);
+                if (c == ' ' || c == '\t' || c == '\n') {
+                    result.append((char) c);
+                } else {
+                    result.appendCodePoint(_alphabet.toCodePoint(
+                        convert(_alphabet.toInt(c))));
+                }
+            }
+            return result.toString();
+        }
+        char[] text = msg.toCharArray();
+        convert(text, 0, text.length);
+        return new String(text);
+    }
+
+    /** Convert the characters TEXT[START .. END-1] in place, passing
+     *  blanks, tabs and newlines through unchanged.  My alphabet must
+     *  consist of single chars. */
+    void convert(char[] text, int start, int end) {
+        if (_keystream == null) {
+            engine().convert(text, start, end);
+            return;
+        }
+        for (int i = start; i < end; i++) {
+            char ch = text[i];
+            if (ch != ' ' && ch != '\t' && ch != '\n') {
+                text[i] = _alphabet.toChar(
+                    _keystream.convert(_presses++, _alphabet.toInt(ch)));
+            }
+        }
+    }
+
+    /** Return my current engine, checking that I am configured. */
+    private CompiledMachine engine() {
+        if (_engine == null) {
+            throw error("No rotors inserted into the machine");
+        }
+        return _engine;
+    }
+
+    /** The rotors available to me. */
+    private final RotorCatalog _catalog;
+
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Ringstellungs last given for each rotor, by rotor name. */
+    private final HashMap<String, Integer> _rings;
+
+    /** Current plugboard, or null if none. */
+    private Permutation _plugboard;
+
+    /** Engine for my current rotors, positions and plugboard, or null if
+     *  I am unconfigured. */
+    private CompiledMachine _engine;
+
+    /** Source of keystream tables, or null if I do not use them. */
+    private final KeystreamCache _cache;
+
+    /** Keystream table for my configuration as of the last setUp, or null
+     *  if I convert with _engine. */
+    private KeystreamTable _keystream;
+
+    /** Number of characters converted with _keystream since the last
+     *  setUp. */
+    private long _presses;
+}
@@ -0,0 +1,72 @@
+package enigma;
+
+/** One configuration read from a settings line: the rotors to insert,
+ *  their settings and Ringstellungs, and the plugboard.  All parsing and
+ *  validation of the line is done when a Settings is made, so applying
+ *  it to a machine costs little more than resetting the rotor positions.
+ *  Settings are immutable and may be reused.
+ *  @author Mridang Sheth
+ */
+final class Settings {
+
+    /** Settings inserting ROTORS (as returned by Machine.selectRotors),
+     *  setting them to SETTING with Ringstellungs RINGS (null to leave
+     *  the Ringstellungs alone), and installing PLUGBOARD (null to leave
+     *  the plugboard alone). */
+    Settings(Rotor[] rotors, String setting, String rings,
+             Permutation plugboard) {
+        _rotors = rotors;
+        _setting = setting;
+        _rings = rings;
+        _plugboard = plugboard;
+    }
+
+    /** Configure M according to me.  M must be the machine whose
+     *  selectRotors produced my rotors. */
+    void applyTo(Machine m) {
+        m.insertRotors(_rotors);
+        if (_rings == null) {
+            m.setRotors(_setting);
+        } else {
+            m.setRotors(_setting, _rings);
+        }
+        if (_plugboard != null) {
+            m.setPlugboard(_plugboard);
+        }
+    }
+
+    /** Return the rotors to insert, reflector first.  The array is
+     *  shared, and must not be modified. */
+    Rotor[] rotors() {
+        return _rotors;
+    }
+
+    /** Return the initial settings of the rotors other than the
+     *  reflector. */
+    String setting() {
+        return _setting;
+    }
+
+    /** Return the Ringstellungs of the rotors other than the reflector,
+     *  or null if they are to be left alone. */
+    String rings() {
+        return _rings;
+    }
+
+    /** Return the plugboard, or null if it is to be left alone. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** The rotors to insert, reflector first. */
+    private final Rotor[] _rotors;
+
+    /** Initial settings of the rotors other than the reflector. */
+    private final String _setting;
+
+    /** Ringstellungs of the rotors other than the reflector, or null. */
+    private final String _rings;
+
+    /** The plugboard, or null. */
+    private final Permutation _plugboard;
+}
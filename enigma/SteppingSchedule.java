@@ -0,0 +1,277 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** The stepping behavior of a bank of moving rotors from a given starting
+ *  state, arranged so that the rotor settings after any number of key
+ *  presses can be found without replaying them.
+ *
+ *  The rules are those of Machine.convert: the rightmost moving rotor
+ *  advances on every key press, and a moving rotor at a notch advances
+ *  itself and the rotor to its left, unless that rotor does not move (the
+ *  leftmost moving rotor's notches are therefore inert).  Rotor #k thus
+ *  depends only on rotors #k and #k+1, and the rotors to the right of #k
+ *  form a closed system.  Working from the right, each such system is
+ *  eventually periodic: after a transient of T_k presses it repeats every
+ *  P_k presses.  Sampling rotor #k once per period of the system to its
+ *  right gives a sequence of at most size() distinct settings, from which
+ *  T_k and P_k follow.  For each rotor we record the presses, within the
+ *  transient and one period, at which it moves, and at which it is at a
+ *  notch (and so pushes its left neighbor).  A query is then a few
+ *  divisions and one binary search per rotor.
+ *  @author Mridang Sheth
+ */
+final class SteppingSchedule {
+
+    /** A schedule for moving rotors over an alphabet of SIZE symbols,
+     *  where NOTCHES[k][p] is true iff moving rotor #k (the leftmost
+     *  being #0) is at a notch at setting p, and START[k] is the current
+     *  setting of rotor #k. */
+    SteppingSchedule(int size, boolean[][] notches, int[] start) {
+        int m = start.length;
+        _size = size;
+        _start = start.clone();
+        _transient = new long[m];
+        _period = new long[m];
+        _moves = new long[m][];
+        _kicks = new long[m][];
+        if (m == 0) {
+            return;
+        }
+        _period[m - 1] = size;
+        if (m > 1) {
+            LongList kicks = new LongList();
+            for (int t = 0; t < size; t++) {
+                if (notches[m - 1][(start[m - 1] + t) % size]) {
+                    kicks.add(t);
+                }
+            }
+            _kicks[m - 1] = kicks.toArray();
+        }
+        for (int k = m - 2; k >= 0; k--) {
+            analyze(k, notches[k]);
+        }
+    }
+
+    /** Return a schedule for the moving rotors among ROTORS (as installed
+     *  by Machine.insertRotors), over an alphabet of SIZE symbols, where
+     *  rotor #i is at setting SETTINGS[i]. */
+    static SteppingSchedule of(int size, Rotor[] rotors, int[] settings) {
+        int m = 0;
+        while (m < rotors.length && rotors[rotors.length - 1 - m].rotates()) {
+            m++;
+        }
+        int first = rotors.length - m;
+        int[] start = new int[m];
+        boolean[][] notches = new boolean[m][size];
+        for (int k = 0; k < m; k++) {
+            Rotor r = rotors[first + k];
+            start[k] = settings[first + k];
+            for (int p = 0; p < size; p++) {
+                notches[k][p] = r.notchAt(p);
+            }
+        }
+        return new SteppingSchedule(size, notches, start);
+    }
+
+    /** Return the number of moving rotors I describe. */
+    int numMoving() {
+        return _start.length;
+    }
+
+    /** Return the number of key presses after which the settings of my
+     *  rotors start to repeat, once past the initial transient. */
+    long period() {
+        return _start.length == 0 ? 1 : _period[0];
+    }
+
+    /** Return the number of key presses before my rotors enter their
+     *  periodic cycle.  This is an upper bound, not necessarily the
+     *  shortest such transient. */
+    long transientLength() {
+        return _start.length == 0 ? 0 : _transient[0];
+    }
+
+    /** Store in RESULT[k] the setting of moving rotor #k after PRESSES
+     *  key presses from my starting state. */
+    void positionsAt(long presses, int[] result) {
+        if (presses < 0) {
+            throw error("Cannot step a machine backwards");
+        }
+        int m = _start.length;
+        for (int k = 0; k < m; k++) {
+            long moved;
+            if (k == m - 1) {
+                moved = presses % _size;
+            } else {
+                moved = movesBefore(k, presses);
+            }
+            result[k] = (int) ((_start[k] + moved) % _size);
+        }
+    }
+
+    /** Return the setting of each moving rotor after PRESSES key presses
+     *  from my starting state. */
+    int[] positionsAt(long presses) {
+        int[] result = new int[_start.length];
+        positionsAt(presses, result);
+        return result;
+    }
+
+    /** Return the number of times, modulo size(), that rotor #K (not the
+     *  rightmost) moves during the first PRESSES key presses. */
+    private long movesBefore(int k, long presses) {
+        long[] moves = _moves[k];
+        long t = _transient[k], p = _period[k];
+        if (presses <= t + p) {
+            return countBelow(moves, presses);
+        }
+        long cycles = (presses - t) / p;
+        long rest = (presses - t) % p;
+        long inTransient = countBelow(moves, t);
+        long perCycle = moves.length - inTransient;
+        return inTransient + (cycles % _size) * (perCycle % _size)
+            + countBelow(moves, t + rest) - inTransient;
+    }
+
+    /** Return the earliest key press at or after PRESS at which rotor #K
+     *  is at a notch, or Long.MAX_VALUE if there is none. */
+    private long nextKick(int k, long press) {
+        long[] kicks = _kicks[k];
+        long t = _transient[k], p = _period[k];
+        if (press < t + p) {
+            int i = firstAtLeast(kicks, press);
+            if (i < kicks.length) {
+                return kicks[i];
+            }
+        }
+        int first = firstAtLeast(kicks, t);
+        if (first == kicks.length) {
+            return Long.MAX_VALUE;
+        }
+        long cycles = Math.max(0, (press - t) / p);
+        int i = firstAtLeast(kicks, t + Math.max(0, press - t) % p);
+        if (i == kicks.length) {
+            cycles += 1;
+            i = first;
+        }
+        return kicks[i] + cycles * p;
+    }
+
+    /** Fill in the transient, period, moves and notch contacts of rotor
+     *  #K, all of whose right neighbors have been analyzed, where
+     *  NOTCH[p] is true iff rotor #K has a notch at setting p. */
+    private void analyze(int k, boolean[] notch) {
+        boolean self = k > 0;
+        long subTransient = _transient[k + 1], subPeriod = _period[k + 1];
+        int[] sampled = new int[_size];
+        Arrays.fill(sampled, -1);
+        LongList moves = new LongList();
+        LongList kicks = new LongList();
+
+        int pos = _start[k];
+        long now = 0;
+        for (int j = 0;; j++) {
+            long sample = subTransient + j * subPeriod;
+            while (true) {
+                long next;
+                boolean atNotch = self && notch[pos];
+                if (atNotch) {
+                    next = now;
+                } else {
+                    next = nextKick(k + 1, now);
+                }
+                if (next >= sample) {
+                    break;
+                }
+                moves.add(next);
+                if (atNotch) {
+                    kicks.add(next);
+                }
+                pos = (pos + 1) % _size;
+                now = next + 1;
+            }
+            now = sample;
+            if (sampled[pos] != -1) {
+                _transient[k] = subTransient + sampled[pos] * subPeriod;
+                _period[k] = multiply(j - sampled[pos], subPeriod);
+                break;
+            }
+            sampled[pos] = j;
+        }
+        _moves[k] = moves.toArray();
+        _kicks[k] = kicks.toArray();
+    }
+
+    /** Return A * B, reporting overflow as an error. */
+    private static long multiply(long a, long b) {
+        try {
+            return Math.multiplyExact(a, b);
+        } catch (ArithmeticException excp) {
+            throw error("Rotor stepping period is too long");
+        }
+    }
+
+    /** Return the number of elements of the sorted array A less than X. */
+    private static int countBelow(long[] a, long x) {
+        return firstAtLeast(a, x);
+    }
+
+    /** Return the index of the first element of sorted array A that is at
+     *  least X, or A.length if there is none. */
+    private static int firstAtLeast(long[] a, long x) {
+        int lo = 0, hi = a.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < x) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** A growable list of longs. */
+    private static final class LongList {
+        /** Append X. */
+        void add(long x) {
+            if (_count == _items.length) {
+                _items = Arrays.copyOf(_items, 2 * _items.length);
+            }
+            _items[_count++] = x;
+        }
+
+        /** Return my contents. */
+        long[] toArray() {
+            return Arrays.copyOf(_items, _count);
+        }
+
+        /** My contents, followed by unused space. */
+        private long[] _items = new long[16];
+        /** Number of items in me. */
+        private int _count;
+    }
+
+    /** Size of the rotors' alphabet. */
+    private final int _size;
+
+    /** Starting setting of each moving rotor. */
+    private final int[] _start;
+
+    /** _transient[k] and _period[k] are T_k and P_k for the system of
+     *  moving rotors #k and those to its right. */
+    private final long[] _transient, _period;
+
+    /** _moves[k] lists, in order, the key presses (counting from 0) during
+     *  the first _transient[k] + _period[k] at which rotor #k moves.  Not
+     *  used for the rightmost rotor, which moves on every press. */
+    private final long[][] _moves;
+
+    /** _kicks[k] lists, in order, the key presses during the first
+     *  _transient[k] + _period[k] at which rotor #k is at a notch and so
+     *  moves its left neighbor.  Unused for the leftmost rotor. */
+    private final long[][] _kicks;
+}
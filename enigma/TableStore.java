@@ -0,0 +1,326 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** A file of precomputed keystream tables for the server's sessions,
+ *  memory-mapped read-only so that the tables live outside the Java
+ *  heap, need no building at startup, and are shared (through the page
+ *  cache) by every process that maps the same file.  It holds
+ *  KeystreamTables for a list of configurations, which convert straight
+ *  from the mapped file, and a fingerprint of the wiring and notches of
+ *  each rotor of a RotorCatalog, used to check that the file was built
+ *  for the rotors it is opened with.  The store is read only through a
+ *  KeystreamCache backing Sessions (see Main's --serve); it holds no
+ *  per-rotor tables, and Machines and CompiledMachines never read from
+ *  it, building their rotor tables on the heap as usual.
+ *
+ *  The layout, all numbers big-endian, is: a header of HEADER bytes
+ *  (MAGIC, VERSION, alphabet size n, number of rotors, number of tables,
+ *  a spare int, and the offsets of the tables and of the directory as
+ *  longs); the alphabet, as n code points (ints); each rotor, as its
+ *  name (an int length and that many chars) and its fingerprint (see
+ *  fingerprint), a long; the keystream tables, each starting at a
+ *  multiple of ALIGN; and the directory, giving for each table its
+ *  KeystreamCache key (as for names), its transient and period, and its
+ *  offset, as longs.  Only alphabets of at most
+ *  KeystreamTable.MAX_SYMBOLS symbols can be stored.
+ *  @author Mridang Sheth
+ */
+final class TableStore {
+
+    /** The store in FILE, which must have been written for the rotors of
+     *  CATALOG. */
+    TableStore(RotorCatalog catalog, Path file) {
+        _tables = new HashMap<String, KeystreamTable>();
+        try (FileChannel channel = FileChannel.open(file)) {
+            long size = channel.size();
+            if (size < HEADER) {
+                throw notAStore(file);
+            }
+            ByteBuffer header =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw notAStore(file);
+            }
+            int n = header.getInt();
+            int rotors = header.getInt();
+            int tables = header.getInt();
+            header.getInt();
+            long data = header.getLong(), directory = header.getLong();
+            if (data < HEADER || directory < data || directory > size
+                || size - directory > Integer.MAX_VALUE
+                || data > Integer.MAX_VALUE) {
+                throw notAStore(file);
+            }
+            ByteBuffer meta =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, data);
+            meta.position(HEADER);
+            checkRotors(catalog, meta, n, rotors, file);
+            ByteBuffer dir = channel.map(FileChannel.MapMode.READ_ONLY,
+                                         directory, size - directory);
+            for (int i = 0; i < tables; i++) {
+                String key = getString(dir);
+                long transientLength = dir.getLong();
+                long period = dir.getLong();
+                long offset = dir.getLong();
+                long length = (transientLength + period) * n;
+                if (offset < data || offset + length > directory) {
+                    throw notAStore(file);
+                }
+                _tables.put(key, new KeystreamTable(n, transientLength,
+                        period, channel.map(FileChannel.MapMode.READ_ONLY,
+                                            offset, length)));
+            }
+        } catch (IOException excp) {
+            throw error("could not map %s: %s", file, excp.getMessage());
+        } catch (BufferUnderflowException | IllegalArgumentException excp) {
+            throw notAStore(file);
+        }
+    }
+
+    /** Check that the alphabet and the N_ROTORS rotors described in META,
+     *  from its position on, match those of CATALOG, where N is the size
+     *  of the alphabet.  FILE names the store. */
+    private static void checkRotors(RotorCatalog catalog, ByteBuffer meta,
+                                    int n, int nRotors, Path file) {
+        Alphabet alphabet = catalog.alphabet();
+        if (n != alphabet.size()) {
+            throw mismatch(file);
+        }
+        for (int c = 0; c < n; c++) {
+            if (meta.getInt() != alphabet.toCodePoint(c)) {
+                throw mismatch(file);
+            }
+        }
+        Map<String, Rotor> available = catalog.rotors();
+        for (int i = 0; i < nRotors; i++) {
+            Rotor r = available.get(getString(meta));
+            if (r == null || meta.getLong() != fingerprint(r)) {
+                throw mismatch(file);
+            }
+        }
+    }
+
+    /** Return the table stored under KEY (see KeystreamCache), or null if
+     *  there is none. */
+    KeystreamTable table(String key) {
+        return _tables.get(key);
+    }
+
+    /** Return the number of tables I hold. */
+    int size() {
+        return _tables.size();
+    }
+
+    /** Write to FILE a store for the rotors of CATALOG holding the
+     *  keystream tables for the configurations given by SETTINGS, each a
+     *  settings line (with or without its leading '*'), applied in turn
+     *  to one session as in an input file.  Configurations whose tables
+     *  are too large are left out.  FILE is replaced atomically, so
+     *  processes that have mapped an earlier version keep a consistent
+     *  view.  Returns the number of tables written. */
+    static int write(Path file, RotorCatalog catalog,
+                     List<String> settings) {
+        Alphabet alphabet = catalog.alphabet();
+        int n = alphabet.size();
+        if (n > KeystreamTable.MAX_SYMBOLS) {
+            throw error("table stores are limited to %d-symbol alphabets",
+                        KeystreamTable.MAX_SYMBOLS);
+        }
+        KeystreamCache cache = new KeystreamCache(Long.MAX_VALUE);
+        Session session = catalog.newSession(cache);
+        for (String line : settings) {
+            line = line.trim();
+            if (line.startsWith("*")) {
+                line = line.substring(1).trim();
+            }
+            if (!line.isEmpty()) {
+                session.setUp(Main.parseSettings(catalog, line));
+            }
+        }
+        Map<String, KeystreamTable> tables = cache.snapshot();
+        List<Rotor> rotors = new ArrayList<Rotor>(catalog.rotors().values());
+
+        int metaSize = HEADER + Integer.BYTES * n;
+        for (Rotor r : rotors) {
+            metaSize += stringBytes(r.name()) + Long.BYTES;
+        }
+        long data = align(metaSize);
+        long directory = data;
+        int dirSize = 0;
+        for (Map.Entry<String, KeystreamTable> e : tables.entrySet()) {
+            directory = align(directory + e.getValue().bytes());
+            dirSize += stringBytes(e.getKey()) + 3 * Long.BYTES;
+        }
+
+        ByteBuffer meta = ByteBuffer.allocate(metaSize);
+        meta.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(rotors.size())
+            .putInt(tables.size()).putInt(0).putLong(data).putLong(directory);
+        for (int c = 0; c < n; c++) {
+            meta.putInt(alphabet.toCodePoint(c));
+        }
+        for (Rotor r : rotors) {
+            putString(meta, r.name());
+            meta.putLong(fingerprint(r));
+        }
+        ByteBuffer dir = ByteBuffer.allocate(dirSize);
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, meta.flip(), 0);
+            long offset = data;
+            for (Map.Entry<String, KeystreamTable> e : tables.entrySet()) {
+                KeystreamTable table = e.getValue();
+                writeFully(out, table.buffer(), offset);
+                putString(dir, e.getKey());
+                dir.putLong(table.transientLength()).putLong(table.period())
+                    .putLong(offset);
+                offset = align(offset + table.bytes());
+            }
+            writeFully(out, dir.flip(), directory);
+            out.force(true);
+        } catch (IOException excp) {
+            throw error("could not write %s: %s", temp, excp.getMessage());
+        }
+        try {
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw error("could not replace %s: %s", file, excp.getMessage());
+        }
+        return tables.size();
+    }
+
+    /** Write all of BUF to OUT starting at file offset POSITION. */
+    private static void writeFully(FileChannel out, ByteBuffer buf,
+                                   long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += out.write(buf, position);
+        }
+    }
+
+    /** Return the fingerprint of R: the 64-bit FNV-1a hash of the images
+     *  of 0 .. N-1 under its wiring followed by its notches (1 at a
+     *  notch, 0 elsewhere), taking each as one value, where N is the
+     *  size of its alphabet. */
+    private static long fingerprint(Rotor r) {
+        int n = r.size();
+        Permutation perm = r.permutation();
+        long hash = FNV_BASIS;
+        for (int p = 0; p < n; p++) {
+            hash = (hash ^ perm.permute(p)) * FNV_PRIME;
+        }
+        for (int p = 0; p < n; p++) {
+            hash = (hash ^ (r.notchAt(p) ? 1 : 0)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /** Return the number of bytes used to store S. */
+    private static int stringBytes(String s) {
+        return Integer.BYTES + 2 * s.length();
+    }
+
+    /** Store S at the position of BUF. */
+    private static void putString(ByteBuffer buf, String s) {
+        buf.putInt(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf.putChar(s.charAt(i));
+        }
+    }
+
+    /** Return the string stored at the position of BUF. */
+    private static String getString(ByteBuffer buf) {
+        char[] result = new char[buf.getInt()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = buf.getChar();
+        }
+        return new String(result);
+    }
+
+    /** Return the least multiple of ALIGN that is at least P. */
+    private static long align(long p) {
+        return (p + ALIGN - 1) / ALIGN * ALIGN;
+    }
+
+    /** Return an exception reporting that FILE is not a table store of
+     *  this version. */
+    private static EnigmaException notAStore(Path file) {
+        return error("%s is not a version %d table store", file, VERSION);
+    }
+
+    /** Return an exception reporting that FILE was built for other
+     *  rotors. */
+    private static EnigmaException mismatch(Path file) {
+        return error("%s was built for a different configuration", file);
+    }
+
+    /** Build a table store, as specified by ARGS: ARGS[0] names a
+     *  configuration file, ARGS[1] a file of settings lines and ARGS[2]
+     *  the store to write. */
+    public static void main(String... args) {
+        try {
+            if (args.length != 3) {
+                throw error("Usage: java enigma.TableStore CONFIG SETTINGS"
+                            + " STORE");
+            }
+            RotorCatalog catalog = Main.readCatalog(args[0]);
+            List<String> settings;
+            try {
+                settings = Files.readAllLines(Paths.get(args[1]),
+                                              StandardCharsets.UTF_8);
+            } catch (IOException excp) {
+                throw error("could not read %s: %s", args[1],
+                            excp.getMessage());
+            }
+            Path store = Paths.get(args[2]);
+            int tables = write(store, catalog, settings);
+            System.err.printf("%d tables written to %s%n", tables, store);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** First int of a table store: "ENTS". */
+    static final int MAGIC = 0x454e5453;
+
+    /** Version of the layout described above. */
+    static final int VERSION = 3;
+
+    /** Size of the header. */
+    static final int HEADER = 6 * Integer.BYTES + 2 * Long.BYTES;
+
+    /** Alignment of each keystream table in the file. */
+    static final int ALIGN = 64;
+
+    /** Initial value of a fingerprint. */
+    private static final long FNV_BASIS = 0xcbf29ce484222325L;
+
+    /** Multiplier of a fingerprint. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** The stored tables, by key. */
+    private final HashMap<String, KeystreamTable> _tables;
+}
@@ -0,0 +1,95 @@
+package enigma;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** A BatchKernel that converts as many sessions at once as a vector
+ *  register holds, using the Vector API.  Every table lookup is a gather
+ *  whose indices are computed in a vector and stored to a small index
+ *  array, as the gathers of this API version take their indices from an
+ *  array.  Sessions left over when the batch is not a whole number of
+ *  vectors are converted one at a time.  This class is compiled apart
+ *  from the rest of the package (see vector/Makefile) and only loaded,
+ *  by BatchedMachine, when the jdk.incubator.vector module is present.
+ *  @author Mridang Sheth
+ */
+final class VectorBatchKernel implements BatchKernel {
+
+    @Override
+    public void convert(BatchedMachine b, int[] in, int[] out, int from,
+                        int to) {
+        int n = b._size, m = b._moving;
+        int lanes = SPECIES.length();
+        int[] index = _index;
+        int s = from;
+        for (; s + lanes <= to; s += lanes) {
+            VectorMask<Integer> here = SPECIES.maskAll(false);
+            for (int k = 0; k < m; k++) {
+                VectorMask<Integer> right;
+                if (k + 1 < m) {
+                    IntVector.fromArray(SPECIES, b._offsets[k + 1], s)
+                        .add(IntVector.fromArray(SPECIES, b._ringBases[k + 1],
+                                                 s))
+                        .intoArray(index, 0);
+                    right = IntVector.fromArray(SPECIES, b._notch[k + 1], 0,
+                                                index, 0)
+                        .compare(VectorOperators.NE, 0);
+                } else {
+                    right = SPECIES.maskAll(false);
+                }
+                VectorMask<Integer> moves =
+                    k == m - 1 ? SPECIES.maskAll(true) : right.or(here);
+                IntVector off = IntVector.fromArray(SPECIES, b._offsets[k], s)
+                    .add(1, moves);
+                off.blend(0, off.compare(VectorOperators.EQ, n))
+                    .intoArray(b._offsets[k], s);
+                here = right;
+            }
+
+            IntVector base = IntVector.fromArray(SPECIES, b._sessionBases, s);
+            IntVector c = gather(b._plugIn,
+                                 base.add(IntVector.fromArray(SPECIES, in, s)),
+                                 index);
+            for (int k = m - 1; k >= 0; k--) {
+                c = gather(b._fwd[k], offsetRows(b._offsets[k], s, n).add(c),
+                           index);
+            }
+            c = gather(b._reflect, base.add(c), index);
+            for (int k = 0; k < m; k++) {
+                c = gather(b._bwd[k], offsetRows(b._offsets[k], s, n).add(c),
+                           index);
+            }
+            gather(b._plugOut, base.add(c), index).intoArray(out, s);
+        }
+        if (s < to) {
+            SCALAR.convert(b, in, out, s, to);
+        }
+    }
+
+    /** Return the starts of the table rows for OFFSETS[S ..], where rows
+     *  have length N. */
+    private static IntVector offsetRows(int[] offsets, int s, int n) {
+        return IntVector.fromArray(SPECIES, offsets, s).mul(n);
+    }
+
+    /** Return the elements of TABLE at INDICES, using INDEX as scratch
+     *  space. */
+    private static IntVector gather(int[] table, IntVector indices,
+                                    int[] index) {
+        indices.intoArray(index, 0);
+        return IntVector.fromArray(SPECIES, table, 0, index, 0);
+    }
+
+    /** The vector shape used. */
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_PREFERRED;
+
+    /** Converts the sessions that do not fill a vector. */
+    private static final BatchKernel SCALAR =
+        new BatchedMachine.ScalarKernel();
+
+    /** Scratch space for gather indices. */
+    private final int[] _index = new int[SPECIES.length()];
+}